@@ -2,16 +2,32 @@ package com.dreamgames.backendengineeringcasestudy.controller;
 
 import com.dreamgames.backendengineeringcasestudy.dto.CountryScore;
 import com.dreamgames.backendengineeringcasestudy.dto.GroupLeaderboardEntry;
+import com.dreamgames.backendengineeringcasestudy.dto.TournamentCloseProgress;
+import com.dreamgames.backendengineeringcasestudy.dto.Versioned;
 import com.dreamgames.backendengineeringcasestudy.model.Tournament;
-import com.dreamgames.backendengineeringcasestudy.model.TournamentGroup;
 import com.dreamgames.backendengineeringcasestudy.model.User;
+import com.dreamgames.backendengineeringcasestudy.scheduler.SchedulerLeader;
+import com.dreamgames.backendengineeringcasestudy.service.GroupStartWaiters;
+import com.dreamgames.backendengineeringcasestudy.service.LeaderboardStreams;
+import com.dreamgames.backendengineeringcasestudy.service.TournamentCloseJob;
+import com.dreamgames.backendengineeringcasestudy.service.TournamentEntryBatcher;
 import com.dreamgames.backendengineeringcasestudy.service.TournamentService;
+import com.dreamgames.backendengineeringcasestudy.service.UserCommandLanes;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +44,27 @@ public class TournamentController {
     @Autowired
     private TournamentService tournamentService;
 
+    @Autowired
+    private TournamentEntryBatcher tournamentEntryBatcher;
+
+    @Autowired
+    private UserCommandLanes userCommandLanes;
+
+    @Autowired
+    private TournamentCloseJob tournamentCloseJob;
+
+    @Autowired
+    private LeaderboardStreams leaderboardStreams;
+
+    @Autowired
+    private GroupStartWaiters groupStartWaiters;
+
+    @Autowired
+    private SchedulerLeader schedulerLeader;
+
+    @Value("${tournament.start-wait.timeout-ms:30000}")
+    private long startWaitTimeoutMs;
+
     /**
      * Endpoint for a user to enter a tournament.
      *
@@ -37,8 +74,13 @@ public class TournamentController {
     @PostMapping("/enter/{userId}")
     public ResponseEntity<?> enterTournament(@PathVariable Long userId) {
         try {
-            List<GroupLeaderboardEntry> leaderboard = tournamentService.enterTournament(userId);
+            // Batched entries are written by the batcher's thread, a lane would wait out the batch window
+            List<GroupLeaderboardEntry> leaderboard = tournamentEntryBatcher.isEnabled()
+                    ? tournamentEntryBatcher.enterTournament(userId)
+                    : userCommandLanes.execute(userId, () -> tournamentService.enterTournament(userId));
             return new ResponseEntity<>(leaderboard, HttpStatus.OK);
+        } catch (RejectedExecutionException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
         } catch (IllegalArgumentException e) {
             return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
         } catch (Exception e) {
@@ -48,6 +90,34 @@ public class TournamentController {
         }
     }
 
+    /**
+     * Endpoint for a user to wait until their tournament group is full and its
+     * competition started. The request is parked without holding a thread and
+     * answered as soon as the group starts, or with 204 No Content after
+     * {@code tournament.start-wait.timeout-ms}, after which the client waits
+     * again.
+     *
+     * @param userId the ID of the user
+     * @return the leaderboard of the started tournament group
+     */
+    @GetMapping("/waitForStart/{userId}")
+    public DeferredResult<ResponseEntity<?>> waitForGroupStart(@PathVariable Long userId) {
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>(startWaitTimeoutMs,
+                ResponseEntity.noContent().build());
+        try {
+            CompletableFuture<List<GroupLeaderboardEntry>> started = groupStartWaiters.awaitStart(userId);
+            result.onCompletion(() -> started.cancel(false));
+            started.thenAccept(leaderboard -> result.setResult(new ResponseEntity<>(leaderboard, HttpStatus.OK)));
+        } catch (IllegalArgumentException e) {
+            result.setResult(new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST));
+        } catch (Exception e) {
+            logger.error("An unexpected error occurred while waiting for group start", e);
+            result.setResult(new ResponseEntity<>("An unexpected error occurred: " + e.getMessage(),
+                    HttpStatus.INTERNAL_SERVER_ERROR));
+        }
+        return result;
+    }
+
     /**
      * Endpoint for a user to claim their reward from the last tournament.
      *
@@ -57,8 +127,10 @@ public class TournamentController {
     @PostMapping("/claimReward/{userId}")
     public ResponseEntity<?> claimReward(@PathVariable Long userId) {
         try {
-            User updatedUser = tournamentService.claimReward(userId);
+            User updatedUser = userCommandLanes.execute(userId, () -> tournamentService.claimReward(userId));
             return new ResponseEntity<>(updatedUser, HttpStatus.OK);
+        } catch (RejectedExecutionException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
         } catch (IllegalArgumentException e) {
             return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
         } catch (Exception e) {
@@ -68,17 +140,41 @@ public class TournamentController {
         }
     }
 
+    /**
+     * Endpoint to recompute the pending rewards of all users from their
+     * tournament participations.
+     *
+     * @return the number of users whose pending reward was corrected
+     */
+    @PostMapping("/repairPendingRewards")
+    public ResponseEntity<?> repairPendingRewards() {
+        try {
+            int repaired = tournamentService.repairPendingRewards();
+            return new ResponseEntity<>(repaired, HttpStatus.OK);
+        } catch (Exception e) {
+            logger.error("An unexpected error occurred while repairing pending rewards", e);
+            return new ResponseEntity<>("An unexpected error occurred: " + e.getMessage(),
+                    HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
     /**
      * Endpoint to get the rank of a user within their recent tournament group.
+     * Responds with 304 Not Modified if the group leaderboard still has the
+     * version given in {@code If-None-Match}.
      *
-     * @param userId the ID of the user
+     * @param userId  the ID of the user
+     * @param request the request, for its conditional headers
      * @return the user's rank within their tournament group and user information
      */
     @GetMapping("/rank/{userId}")
-    public ResponseEntity<?> getGroupRank(@PathVariable Long userId) {
+    public ResponseEntity<?> getGroupRank(@PathVariable Long userId, WebRequest request) {
         try {
-            GroupLeaderboardEntry rank = tournamentService.getGroupRank(userId);
-            return new ResponseEntity<>(rank, HttpStatus.OK);
+            Versioned<GroupLeaderboardEntry> rank = tournamentService.getVersionedGroupRank(userId);
+            if (request.checkNotModified(rank.getETag())) {
+                return null; // The 304 response is already prepared
+            }
+            return ResponseEntity.ok().eTag(rank.getETag()).body(rank.getValue());
         } catch (IllegalArgumentException e) {
             return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
         } catch (Exception e) {
@@ -88,18 +184,66 @@ public class TournamentController {
         }
     }
 
+    /**
+     * Endpoint to get the rank of a user among all participants of their current
+     * tournament.
+     *
+     * @param userId the ID of the user
+     * @return the user's tournament-wide rank and user information
+     */
+    @GetMapping("/globalRank/{userId}")
+    public ResponseEntity<?> getGlobalRank(@PathVariable Long userId) {
+        try {
+            GroupLeaderboardEntry rank = tournamentService.getGlobalRank(userId);
+            return new ResponseEntity<>(rank, HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (Exception e) {
+            logger.error("An unexpected error occurred while getting global rank", e);
+            return new ResponseEntity<>("An unexpected error occurred: " + e.getMessage(),
+                    HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Endpoint to get the top participants of a tournament across all groups.
+     *
+     * @param tournamentId the ID of the tournament
+     * @param limit        the maximum number of entries
+     * @return the tournament-wide leaderboard
+     */
+    @GetMapping("/globalLeaderboard/{tournamentId}")
+    public ResponseEntity<?> getGlobalLeaderboard(@PathVariable Long tournamentId,
+            @RequestParam(defaultValue = "100") int limit) {
+        try {
+            List<GroupLeaderboardEntry> leaderboard = tournamentService.getGlobalLeaderboard(tournamentId, limit);
+            return new ResponseEntity<>(leaderboard, HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (Exception e) {
+            logger.error("An unexpected error occurred while getting global leaderboard", e);
+            return new ResponseEntity<>("An unexpected error occurred: " + e.getMessage(),
+                    HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
     /**
      * Endpoint to get the leaderboard of a specific tournament group.
+     * Responds with 304 Not Modified if the group still has the version given
+     * in {@code If-None-Match}.
      *
      * @param groupId the ID of the tournament group
+     * @param request the request, for its conditional headers
      * @return the leaderboard of the tournament group
      */
     @GetMapping("/groupLeaderboard/{groupId}")
-    public ResponseEntity<?> getGroupLeaderboard(@PathVariable Long groupId) {
+    public ResponseEntity<?> getGroupLeaderboard(@PathVariable Long groupId, WebRequest request) {
         try {
-            TournamentGroup group = tournamentService.getTournamentGroupById(groupId);
-            List<GroupLeaderboardEntry> leaderboard = tournamentService.getLeaderboard(group);
-            return new ResponseEntity<>(leaderboard, HttpStatus.OK);
+            Versioned<List<GroupLeaderboardEntry>> leaderboard = tournamentService.getVersionedLeaderboard(groupId);
+            if (request.checkNotModified(leaderboard.getETag())) {
+                return null; // The 304 response is already prepared
+            }
+            return ResponseEntity.ok().eTag(leaderboard.getETag()).body(leaderboard.getValue());
         } catch (IllegalArgumentException e) {
             return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
         } catch (Exception e) {
@@ -109,6 +253,59 @@ public class TournamentController {
         }
     }
 
+    /**
+     * Endpoint to subscribe to the leaderboard of a specific tournament group
+     * as Server-Sent Events. A {@code leaderboard} event with the current
+     * leaderboard is sent right away and again whenever it changes, at most
+     * once per {@code leaderboard.stream.interval-ms}.
+     *
+     * @param groupId the ID of the tournament group
+     * @return the event stream of the group leaderboard
+     */
+    @GetMapping(path = "/groupLeaderboard/{groupId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamGroupLeaderboard(@PathVariable Long groupId) {
+        try {
+            return ResponseEntity.ok(leaderboardStreams.subscribeGroup(groupId));
+        } catch (IllegalArgumentException e) {
+            return streamError(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (Exception e) {
+            logger.error("An unexpected error occurred while subscribing to group leaderboard", e);
+            return streamError(HttpStatus.INTERNAL_SERVER_ERROR, "An unexpected error occurred: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Endpoint to subscribe to the country leaderboard of a specific
+     * tournament as Server-Sent Events, like
+     * {@link #streamGroupLeaderboard(Long)}.
+     *
+     * @param tournamentId the ID of the tournament
+     * @return the event stream of the country leaderboard
+     */
+    @GetMapping(path = "/countryLeaderboard/{tournamentId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamCountryLeaderboard(@PathVariable Long tournamentId) {
+        try {
+            return ResponseEntity.ok(leaderboardStreams.subscribeCountries(tournamentId));
+        } catch (IllegalArgumentException e) {
+            return streamError(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (Exception e) {
+            logger.error("An unexpected error occurred while subscribing to country leaderboard", e);
+            return streamError(HttpStatus.INTERNAL_SERVER_ERROR, "An unexpected error occurred: " + e.getMessage());
+        }
+    }
+
+    // Streams are answered with an event stream, so the error message is sent as an error event
+    private static ResponseEntity<SseEmitter> streamError(HttpStatus status, String message) {
+        SseEmitter emitter = new SseEmitter();
+        try {
+            emitter.send(SseEmitter.event().name("error").data(message));
+        } catch (IOException e) {
+            // Not sent yet, events before the response starts are buffered
+        }
+        emitter.complete();
+        return ResponseEntity.status(status).body(emitter);
+    }
+
     /**
      * Endpoint to get the country leaderboard for a specific tournament.
      *
@@ -130,15 +327,48 @@ public class TournamentController {
     }
 
     /**
-     * For Testing: Endpoint to end the current tournament.
+     * Endpoint to get the progress of distributing the rewards of an ended
+     * tournament.
      *
-     * @return No response
+     * @param tournamentId the ID of the tournament
+     * @return the close progress of the tournament
+     */
+    @GetMapping("/closeProgress/{tournamentId}")
+    public ResponseEntity<?> getCloseProgress(@PathVariable Long tournamentId) {
+        try {
+            TournamentCloseProgress progress = tournamentCloseJob.getProgress(tournamentId);
+            return new ResponseEntity<>(progress, HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (Exception e) {
+            logger.error("An unexpected error occurred while getting close progress", e);
+            return new ResponseEntity<>("An unexpected error occurred: " + e.getMessage(),
+                    HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * For Testing: Endpoint to end the current tournament. Only the node that
+     * holds the scheduler lease ends tournaments, under the same fence as the
+     * scheduled close; the rewards are distributed in the background.
+     *
+     * @return the close progress of the ended tournaments
      */
     @PostMapping("/end")
     public ResponseEntity<?> endCurrentTournament() {
         try {
-            tournamentService.endTournaments();
-            return new ResponseEntity<>(HttpStatus.OK);
+            Long token = schedulerLeader.currentToken();
+            if (token == null) {
+                return new ResponseEntity<>("Only the node running the scheduled jobs can end tournaments",
+                        HttpStatus.CONFLICT);
+            }
+            List<TournamentCloseProgress> progress = tournamentCloseJob
+                    .startClosingActiveTournaments(() -> schedulerLeader.fence(token)).stream()
+                    .map(tournamentCloseJob::getProgress)
+                    .collect(Collectors.toList());
+            return new ResponseEntity<>(progress, HttpStatus.ACCEPTED);
+        } catch (IllegalStateException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.CONFLICT);
         } catch (Exception e) {
             logger.error("An unexpected error occurred while ending the current tournament", e);
             return new ResponseEntity<>("An unexpected error occurred: " + e.getMessage(),
@@ -1,6 +1,7 @@
 package com.dreamgames.backendengineeringcasestudy.controller;
 
 import com.dreamgames.backendengineeringcasestudy.model.User;
+import com.dreamgames.backendengineeringcasestudy.service.UserCommandLanes;
 import com.dreamgames.backendengineeringcasestudy.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -8,6 +9,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,6 +26,9 @@ public class UserController {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private UserCommandLanes userCommandLanes;
+
     /**
      * Endpoint to create a new user.
      *
@@ -42,6 +47,26 @@ public class UserController {
         }
     }
 
+    /**
+     * Endpoint to create several users at once.
+     *
+     * @param count the number of users to create, between 1 and 1000
+     * @return the newly created users
+     */
+    @PostMapping("/createBatch")
+    public ResponseEntity<?> createUsers(@RequestParam int count) {
+        try {
+            List<User> savedUsers = userService.createUsers(count);
+            return new ResponseEntity<>(savedUsers, HttpStatus.CREATED);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (Exception e) {
+            logger.error("An unexpected error occurred while creating users", e);
+            return new ResponseEntity<>("An unexpected error occurred: " + e.getMessage(),
+                    HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
     /**
      * Endpoint to update the level of a user.
      *
@@ -51,11 +76,13 @@ public class UserController {
     @PutMapping("/updateLevel/{id}")
     public ResponseEntity<?> updateLevel(@PathVariable Long id) {
         try {
-            User user = userService.updateUserLevel(id);
+            User user = userCommandLanes.execute(id, () -> userService.updateUserLevel(id));
             if (user != null) {
                 return new ResponseEntity<>(user, HttpStatus.OK);
             }
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        } catch (RejectedExecutionException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
         } catch (Exception e) {
             logger.error("An unexpected error occurred while updating user level", e);
             return new ResponseEntity<>("An unexpected error occurred: " + e.getMessage(),
@@ -0,0 +1,115 @@
+package com.dreamgames.backendengineeringcasestudy.debug;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * JDBC statements, fetched rows and database time recorded on one thread.
+ * <p>
+ * Recording is started and stopped around a unit of work, usually an HTTP
+ * request by the {@link SqlStatisticsFilter}. Statements are recorded by the
+ * data source proxy of the {@link SqlStatisticsDataSourcePostProcessor}, so
+ * statements of both Hibernate and the {@code JdbcTemplate} are counted.
+ * Work handed to another thread, e.g. the entry batcher or the user lanes, is
+ * attributed to the requests it is done for with {@link #recordFor}. A batch
+ * done for several requests counts fully for each of them, as they all wait
+ * for its round trips.
+ */
+public class SqlStatistics {
+
+    private static final ThreadLocal<SqlStatistics> CURRENT = new ThreadLocal<>();
+
+    private final List<SqlStatistics> owners; // Also recorded into, for work handed over by their threads
+
+    private int statements;
+
+    private long rows;
+
+    private long nanos;
+
+    private SqlStatistics(List<SqlStatistics> owners) {
+        this.owners = owners;
+    }
+
+    /**
+     * Starts recording on the current thread.
+     *
+     * @return the statistics the thread records into
+     */
+    public static SqlStatistics start() {
+        SqlStatistics statistics = new SqlStatistics(List.of());
+        CURRENT.set(statistics);
+        return statistics;
+    }
+
+    /**
+     * Stops recording on the current thread.
+     */
+    public static void stop() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Retrieves the statistics the current thread records into, e.g. to hand
+     * them to the thread that does work on its behalf.
+     *
+     * @return the statistics, or null if the thread is not recording
+     */
+    public static SqlStatistics current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Does work handed over by other threads on the current thread, recording
+     * it into their statistics. The other threads wait for the work, so they do
+     * not record at the same time.
+     *
+     * @param owners the statistics of the threads the work is done for, null
+     *               for threads that are not recording
+     * @param work   the work
+     * @return the result of the work
+     */
+    public static <T> T recordFor(Collection<SqlStatistics> owners, Supplier<T> work) {
+        List<SqlStatistics> recording = owners.stream().filter(Objects::nonNull).collect(Collectors.toList());
+        if (recording.isEmpty()) {
+            return work.get();
+        }
+        SqlStatistics previous = CURRENT.get();
+        CURRENT.set(new SqlStatistics(recording));
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    void recordStatement(long elapsedNanos) {
+        statements++;
+        nanos += elapsedNanos;
+        owners.forEach(owner -> owner.recordStatement(elapsedNanos));
+    }
+
+    void recordRow() {
+        rows++;
+        owners.forEach(SqlStatistics::recordRow);
+    }
+
+    public int getStatements() {
+        return statements;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getMillis() {
+        return nanos / 1_000_000;
+    }
+}
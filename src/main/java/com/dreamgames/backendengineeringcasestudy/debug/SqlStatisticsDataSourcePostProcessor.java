@@ -0,0 +1,88 @@
+package com.dreamgames.backendengineeringcasestudy.debug;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Wraps the data source in the debug profile so every JDBC statement executed
+ * and every row fetched on a thread that records {@link SqlStatistics} is
+ * counted. A batch counts as one statement, as it is one round trip.
+ */
+@Component
+@Profile("debug")
+public class SqlStatisticsDataSourcePostProcessor implements BeanPostProcessor {
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        // Only the data source the application uses, not the pools behind a replica routing data source
+        if (!(bean instanceof DataSource) || !"dataSource".equals(beanName)) {
+            return bean;
+        }
+        // All interfaces are kept, so the pool can still be unwrapped and closed
+        return Proxy.newProxyInstance(bean.getClass().getClassLoader(),
+                ClassUtils.getAllInterfacesForClass(bean.getClass()), new Handler(bean));
+    }
+
+    private static Object wrap(Object target, Class<?> type) {
+        return Proxy.newProxyInstance(SqlStatisticsDataSourcePostProcessor.class.getClassLoader(),
+                new Class<?>[]{type}, new Handler(target));
+    }
+
+    private static class Handler implements InvocationHandler {
+        private final Object target;
+
+        Handler(Object target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            SqlStatistics statistics = SqlStatistics.current();
+            boolean execution = target instanceof Statement && method.getName().startsWith("execute");
+            long started = System.nanoTime();
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                if (execution && statistics != null) {
+                    statistics.recordStatement(System.nanoTime() - started);
+                }
+            }
+            if (target instanceof ResultSet && "next".equals(method.getName())) {
+                if (Boolean.TRUE.equals(result) && statistics != null) {
+                    statistics.recordRow();
+                }
+                return result;
+            }
+            Class<?> type = method.getReturnType();
+            if (result == null || "unwrap".equals(method.getName())) {
+                return result;
+            }
+            if (type == Connection.class || Statement.class.isAssignableFrom(type) || type == ResultSet.class) {
+                return wrap(result, type);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.dreamgames.backendengineeringcasestudy.debug;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Reports the SQL work of every HTTP request in the debug profile.
+ * <p>
+ * The number of JDBC statements, the rows they fetched and the time spent in
+ * the database are logged after each request and returned in the
+ * {@value #STATEMENTS_HEADER}, {@value #ROWS_HEADER} and {@value #TIME_HEADER}
+ * headers. The headers are added when the body is about to be written, which
+ * is after the controller has finished its queries.
+ */
+@Component
+@Profile("debug")
+public class SqlStatisticsFilter extends OncePerRequestFilter {
+
+    public static final String STATEMENTS_HEADER = "X-Sql-Statements";
+
+    public static final String ROWS_HEADER = "X-Sql-Rows";
+
+    public static final String TIME_HEADER = "X-Sql-Time-Ms";
+
+    private static final Logger logger = LoggerFactory.getLogger(SqlStatisticsFilter.class);
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        long started = System.nanoTime();
+        SqlStatistics statistics = SqlStatistics.start();
+        StatisticsResponse statisticsResponse = new StatisticsResponse(response, statistics);
+        try {
+            filterChain.doFilter(request, statisticsResponse);
+        } finally {
+            SqlStatistics.stop();
+            statisticsResponse.writeHeaders(); // Responses without a body
+            logger.info("{} {} ran {} SQL statements fetching {} rows in {} ms, the request took {} ms",
+                    request.getMethod(), request.getRequestURI(), statistics.getStatements(), statistics.getRows(),
+                    statistics.getMillis(), (System.nanoTime() - started) / 1_000_000);
+        }
+    }
+
+    private static class StatisticsResponse extends HttpServletResponseWrapper {
+        private final SqlStatistics statistics;
+        private boolean headersWritten;
+
+        StatisticsResponse(HttpServletResponse response, SqlStatistics statistics) {
+            super(response);
+            this.statistics = statistics;
+        }
+
+        void writeHeaders() {
+            if (!headersWritten && !isCommitted()) {
+                headersWritten = true;
+                setHeader(STATEMENTS_HEADER, String.valueOf(statistics.getStatements()));
+                setHeader(ROWS_HEADER, String.valueOf(statistics.getRows()));
+                setHeader(TIME_HEADER, String.valueOf(statistics.getMillis()));
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            writeHeaders();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            writeHeaders();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            writeHeaders();
+            super.flushBuffer();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.dreamgames.backendengineeringcasestudy.dto;
 
+import com.dreamgames.backendengineeringcasestudy.model.Country;
+
 public class CountryScore {
     private String country;
     private int totalScore;
@@ -9,6 +11,11 @@ public class CountryScore {
         this.totalScore = totalScore;
     }
 
+    // Used by the aggregating repository query, which sums the scores as a long
+    public CountryScore(Country country, Long totalScore) {
+        this(country == null ? "Unknown" : country.name(), totalScore == null ? 0 : totalScore.intValue());
+    }
+
     // Getters and setters
     public String getCountry() {
         return country;
@@ -0,0 +1,101 @@
+package com.dreamgames.backendengineeringcasestudy.dto;
+
+import com.dreamgames.backendengineeringcasestudy.model.Country;
+
+public class ParticipantScore {
+    private Long participationId;
+    private Long groupId;
+    private Long userId;
+    private String username;
+    private Country country;
+    private int score;
+    private long groupVersion;
+    private Long tournamentId;
+
+    public ParticipantScore(Long participationId, Long groupId, Long userId, String username, Country country,
+            int score) {
+        this(participationId, groupId, userId, username, country, score, 0);
+    }
+
+    public ParticipantScore(Long participationId, Long groupId, Long userId, String username, Country country,
+            int score, long groupVersion) {
+        this(participationId, groupId, userId, username, country, score, groupVersion, null);
+    }
+
+    public ParticipantScore(Long participationId, Long groupId, Long userId, String username, Country country,
+            int score, long groupVersion, Long tournamentId) {
+        this.participationId = participationId;
+        this.groupId = groupId;
+        this.userId = userId;
+        this.username = username;
+        this.country = country;
+        this.score = score;
+        this.groupVersion = groupVersion;
+        this.tournamentId = tournamentId;
+    }
+
+    // Getters and setters
+    public Long getParticipationId() {
+        return participationId;
+    }
+
+    public void setParticipationId(Long participationId) {
+        this.participationId = participationId;
+    }
+
+    public Long getGroupId() {
+        return groupId;
+    }
+
+    public void setGroupId(Long groupId) {
+        this.groupId = groupId;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public Country getCountry() {
+        return country;
+    }
+
+    public void setCountry(Country country) {
+        this.country = country;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public void setScore(int score) {
+        this.score = score;
+    }
+
+    public long getGroupVersion() {
+        return groupVersion;
+    }
+
+    public void setGroupVersion(long groupVersion) {
+        this.groupVersion = groupVersion;
+    }
+
+    public Long getTournamentId() {
+        return tournamentId;
+    }
+
+    public void setTournamentId(Long tournamentId) {
+        this.tournamentId = tournamentId;
+    }
+}
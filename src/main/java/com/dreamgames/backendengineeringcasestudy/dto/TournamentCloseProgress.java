@@ -0,0 +1,79 @@
+package com.dreamgames.backendengineeringcasestudy.dto;
+
+public class TournamentCloseProgress {
+    private Long tournamentId;
+    private int totalChunks;
+    private int completedChunks;
+    private long totalGroups;
+    private long completedGroups;
+    private boolean rewardsDistributed;
+    private double groupsPerSecond; // Throughput of the chunks processed on this node
+
+    public TournamentCloseProgress(Long tournamentId, int totalChunks, int completedChunks, long totalGroups,
+            long completedGroups, boolean rewardsDistributed, double groupsPerSecond) {
+        this.tournamentId = tournamentId;
+        this.totalChunks = totalChunks;
+        this.completedChunks = completedChunks;
+        this.totalGroups = totalGroups;
+        this.completedGroups = completedGroups;
+        this.rewardsDistributed = rewardsDistributed;
+        this.groupsPerSecond = groupsPerSecond;
+    }
+
+    // Getters and setters
+    public Long getTournamentId() {
+        return tournamentId;
+    }
+
+    public void setTournamentId(Long tournamentId) {
+        this.tournamentId = tournamentId;
+    }
+
+    public int getTotalChunks() {
+        return totalChunks;
+    }
+
+    public void setTotalChunks(int totalChunks) {
+        this.totalChunks = totalChunks;
+    }
+
+    public int getCompletedChunks() {
+        return completedChunks;
+    }
+
+    public void setCompletedChunks(int completedChunks) {
+        this.completedChunks = completedChunks;
+    }
+
+    public long getTotalGroups() {
+        return totalGroups;
+    }
+
+    public void setTotalGroups(long totalGroups) {
+        this.totalGroups = totalGroups;
+    }
+
+    public long getCompletedGroups() {
+        return completedGroups;
+    }
+
+    public void setCompletedGroups(long completedGroups) {
+        this.completedGroups = completedGroups;
+    }
+
+    public boolean isRewardsDistributed() {
+        return rewardsDistributed;
+    }
+
+    public void setRewardsDistributed(boolean rewardsDistributed) {
+        this.rewardsDistributed = rewardsDistributed;
+    }
+
+    public double getGroupsPerSecond() {
+        return groupsPerSecond;
+    }
+
+    public void setGroupsPerSecond(double groupsPerSecond) {
+        this.groupsPerSecond = groupsPerSecond;
+    }
+}
@@ -0,0 +1,28 @@
+package com.dreamgames.backendengineeringcasestudy.dto;
+
+public class UserScore {
+    private Long userId;
+    private int score;
+
+    public UserScore(Long userId, int score) {
+        this.userId = userId;
+        this.score = score;
+    }
+
+    // Getters and setters
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public void setScore(int score) {
+        this.score = score;
+    }
+}
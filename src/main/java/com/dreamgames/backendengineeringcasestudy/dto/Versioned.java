@@ -0,0 +1,24 @@
+package com.dreamgames.backendengineeringcasestudy.dto;
+
+/**
+ * A response body together with the entity tag of the state it was built from.
+ *
+ * @param <T> the type of the body
+ */
+public class Versioned<T> {
+    private final String eTag;
+    private final T value;
+
+    public Versioned(String eTag, T value) {
+        this.eTag = eTag;
+        this.value = value;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public T getValue() {
+        return value;
+    }
+}
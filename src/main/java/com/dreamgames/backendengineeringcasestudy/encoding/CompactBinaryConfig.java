@@ -0,0 +1,21 @@
+package com.dreamgames.backendengineeringcasestudy.encoding;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+/**
+ * Offers the {@link CompactBinaryHttpMessageConverter} to clients that ask for
+ * it. It is registered after the JSON converter, so requests that accept any
+ * type, or do not say, still get JSON.
+ */
+@Configuration
+public class CompactBinaryConfig implements WebMvcConfigurer {
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new CompactBinaryHttpMessageConverter());
+    }
+}
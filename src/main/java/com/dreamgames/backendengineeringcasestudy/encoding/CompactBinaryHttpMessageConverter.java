@@ -0,0 +1,213 @@
+package com.dreamgames.backendengineeringcasestudy.encoding;
+
+import com.dreamgames.backendengineeringcasestudy.dto.CountryScore;
+import com.dreamgames.backendengineeringcasestudy.dto.GroupLeaderboardEntry;
+import com.dreamgames.backendengineeringcasestudy.model.Country;
+import com.dreamgames.backendengineeringcasestudy.model.User;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes leaderboards, ranks and users in a compact binary encoding for
+ * clients that send {@code Accept: application/vnd.dreamgames.compact}.
+ * <p>
+ * A response starts with a kind byte, lists follow with their size. Numbers
+ * are unsigned varints, scores and coins zigzag varints, countries a varint of
+ * their ordinal plus one and strings a varint of their UTF-8 length plus one,
+ * where 0 stands for none. Field names are not repeated, and the values are
+ * written straight to the response stream as they are read from the objects.
+ * <ul>
+ *     <li>{@link GroupLeaderboardEntry}: userId, username, country, score, rank</li>
+ *     <li>{@link CountryScore}: country, totalScore</li>
+ *     <li>{@link User}: id, username, level, coins, country</li>
+ * </ul>
+ */
+public class CompactBinaryHttpMessageConverter extends AbstractHttpMessageConverter<Object> {
+
+    public static final MediaType MEDIA_TYPE = MediaType.parseMediaType("application/vnd.dreamgames.compact");
+
+    static final int EMPTY_LIST = 0;
+    static final int ENTRY_LIST = 1;
+    static final int COUNTRY_SCORE_LIST = 2;
+    static final int USER_LIST = 3;
+    static final int ENTRY = 4;
+    static final int USER = 5;
+
+    private static final Map<String, Integer> COUNTRY_CODES = new HashMap<>();
+
+    static {
+        for (Country country : Country.values()) {
+            COUNTRY_CODES.put(country.name(), country.ordinal() + 1);
+        }
+    }
+
+    public CompactBinaryHttpMessageConverter() {
+        super(MEDIA_TYPE);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return List.class.isAssignableFrom(clazz) || GroupLeaderboardEntry.class == clazz || User.class == clazz;
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Compact binary requests are not supported", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(Object value, HttpOutputMessage outputMessage) throws IOException {
+        encode(value, outputMessage.getBody());
+    }
+
+    /**
+     * Encodes a response body.
+     *
+     * @param value the body, a list of leaderboard entries, country scores or users, an entry or a user
+     * @param out   the stream, which is flushed but not closed
+     * @throws IOException                     if writing fails
+     * @throws HttpMessageNotWritableException if the body has no compact encoding
+     */
+    public static void encode(Object value, OutputStream out) throws IOException {
+        Output output = new Output(out);
+        if (value instanceof GroupLeaderboardEntry entry) {
+            output.writeVarint(ENTRY);
+            writeEntry(output, entry);
+        } else if (value instanceof User user) {
+            output.writeVarint(USER);
+            writeUser(output, user);
+        } else if (value instanceof List<?> list) {
+            writeList(output, list);
+        } else {
+            throw new HttpMessageNotWritableException("No compact encoding for " + value.getClass().getName());
+        }
+        output.flush();
+    }
+
+    private static void writeList(Output output, List<?> list) throws IOException {
+        if (list.isEmpty()) {
+            output.writeVarint(EMPTY_LIST);
+            output.writeVarint(0);
+            return;
+        }
+        Object first = list.get(0);
+        int kind = first instanceof GroupLeaderboardEntry ? ENTRY_LIST
+                : first instanceof CountryScore ? COUNTRY_SCORE_LIST
+                : first instanceof User ? USER_LIST
+                : -1;
+        if (kind < 0) {
+            throw new HttpMessageNotWritableException("No compact encoding for lists of " + first.getClass().getName());
+        }
+        output.writeVarint(kind);
+        output.writeVarint(list.size());
+        for (Object element : list) {
+            switch (kind) {
+                case ENTRY_LIST -> writeEntry(output, (GroupLeaderboardEntry) element);
+                case COUNTRY_SCORE_LIST -> writeCountryScore(output, (CountryScore) element);
+                default -> writeUser(output, (User) element);
+            }
+        }
+    }
+
+    private static void writeEntry(Output output, GroupLeaderboardEntry entry) throws IOException {
+        output.writeId(entry.getUserId());
+        output.writeString(entry.getUsername());
+        output.writeVarint(countryCode(entry.getCountry()));
+        output.writeSigned(entry.getScore());
+        output.writeVarint(entry.getRank());
+    }
+
+    private static void writeCountryScore(Output output, CountryScore countryScore) throws IOException {
+        output.writeVarint(countryCode(countryScore.getCountry()));
+        output.writeSigned(countryScore.getTotalScore());
+    }
+
+    private static void writeUser(Output output, User user) throws IOException {
+        output.writeId(user.getId());
+        output.writeString(user.getUsername());
+        output.writeVarint(user.getLevel());
+        output.writeSigned(user.getCoins());
+        output.writeVarint(user.getCountry() == null ? 0 : user.getCountry().ordinal() + 1);
+    }
+
+    private static int countryCode(String country) {
+        return country == null ? 0 : COUNTRY_CODES.getOrDefault(country, 0);
+    }
+
+    /**
+     * A buffered varint writer. Unlike a {@code DataOutputStream} over a
+     * {@code BufferedOutputStream} it does not synchronize on every byte.
+     */
+    private static class Output {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[1024];
+        private int position;
+
+        Output(OutputStream out) {
+            this.out = out;
+        }
+
+        void writeVarint(long value) throws IOException {
+            if (position > buffer.length - 10) {
+                drain();
+            }
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void writeSigned(int value) throws IOException {
+            writeVarint(Integer.toUnsignedLong((value << 1) ^ (value >> 31)));
+        }
+
+        void writeId(Long id) throws IOException {
+            writeVarint(id == null ? 0 : id);
+        }
+
+        void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length + 1L);
+            if (bytes.length > buffer.length - position) {
+                drain();
+            }
+            if (bytes.length > buffer.length) {
+                out.write(bytes);
+            } else {
+                System.arraycopy(bytes, 0, buffer, position, bytes.length);
+                position += bytes.length;
+            }
+        }
+
+        void flush() throws IOException {
+            drain();
+            out.flush();
+        }
+
+        private void drain() throws IOException {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.dreamgames.backendengineeringcasestudy.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Written to the primary database periodically and read back from the replica
+ * to measure how stale the replica is, see
+ * {@link com.dreamgames.backendengineeringcasestudy.replica.ReplicaLagMonitor}.
+ */
+@Entity
+@Table(name = "replication_heartbeats")
+public class ReplicationHeartbeat {
+
+    @Id
+    private Integer id;
+
+    @Column(nullable = false)
+    private LocalDateTime beatAt;
+
+    // Getters and Setters
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public LocalDateTime getBeatAt() {
+        return beatAt;
+    }
+
+    public void setBeatAt(LocalDateTime beatAt) {
+        this.beatAt = beatAt;
+    }
+}
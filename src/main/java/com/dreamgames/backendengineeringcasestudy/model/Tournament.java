@@ -9,7 +9,9 @@ import java.util.List;
 public class Tournament {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "tournaments_id")
+    @TableGenerator(name = "tournaments_id", table = "id_generators", pkColumnName = "sequence_name",
+            valueColumnName = "next_val", pkColumnValue = "tournaments", allocationSize = 10)
     private Long id;
 
     @Column(nullable = false)
@@ -24,6 +26,15 @@ public class Tournament {
     @Column(nullable = false)
     private boolean isActive;
 
+    @Column(nullable = false)
+    private boolean rewardsDistributed; // Set once every close chunk has been processed
+
+    @Column(nullable = false)
+    private boolean lazyRewards; // Rewards are computed per group on first access instead of at close
+
+    @Column(nullable = false)
+    private boolean upcoming; // Prepared ahead of its start time and not activated yet
+
     // Getters and Setters
     public Long getId() {
         return id;
@@ -64,4 +75,28 @@ public class Tournament {
     public void setActive(boolean active) {
         isActive = active;
     }
+
+    public boolean isRewardsDistributed() {
+        return rewardsDistributed;
+    }
+
+    public void setRewardsDistributed(boolean rewardsDistributed) {
+        this.rewardsDistributed = rewardsDistributed;
+    }
+
+    public boolean isLazyRewards() {
+        return lazyRewards;
+    }
+
+    public void setLazyRewards(boolean lazyRewards) {
+        this.lazyRewards = lazyRewards;
+    }
+
+    public boolean isUpcoming() {
+        return upcoming;
+    }
+
+    public void setUpcoming(boolean upcoming) {
+        this.upcoming = upcoming;
+    }
 }
@@ -0,0 +1,101 @@
+package com.dreamgames.backendengineeringcasestudy.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "tournament_close_chunks", indexes = @Index(name = "idx_tournament_close_chunks_pending",
+        columnList = "completed, tournament_id"))
+public class TournamentCloseChunk {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "tournament_close_chunks_id")
+    @TableGenerator(name = "tournament_close_chunks_id", table = "id_generators", pkColumnName = "sequence_name",
+            valueColumnName = "next_val", pkColumnValue = "tournament_close_chunks", allocationSize = 100)
+    private Long id;
+
+    @Column(name = "tournament_id", nullable = false)
+    private Long tournamentId;
+
+    @Column(nullable = false)
+    private Long firstGroupId;
+
+    @Column(nullable = false)
+    private Long lastGroupId;
+
+    @Column(nullable = false)
+    private int groupCount;
+
+    @Column(nullable = false)
+    private boolean completed;
+
+    private LocalDateTime completedAt;
+
+    public TournamentCloseChunk() {
+    }
+
+    public TournamentCloseChunk(Long tournamentId, Long firstGroupId, Long lastGroupId, int groupCount) {
+        this.tournamentId = tournamentId;
+        this.firstGroupId = firstGroupId;
+        this.lastGroupId = lastGroupId;
+        this.groupCount = groupCount;
+        this.completed = false;
+    }
+
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getTournamentId() {
+        return tournamentId;
+    }
+
+    public void setTournamentId(Long tournamentId) {
+        this.tournamentId = tournamentId;
+    }
+
+    public Long getFirstGroupId() {
+        return firstGroupId;
+    }
+
+    public void setFirstGroupId(Long firstGroupId) {
+        this.firstGroupId = firstGroupId;
+    }
+
+    public Long getLastGroupId() {
+        return lastGroupId;
+    }
+
+    public void setLastGroupId(Long lastGroupId) {
+        this.lastGroupId = lastGroupId;
+    }
+
+    public int getGroupCount() {
+        return groupCount;
+    }
+
+    public void setGroupCount(int groupCount) {
+        this.groupCount = groupCount;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public void setCompleted(boolean completed) {
+        this.completed = completed;
+    }
+
+    public LocalDateTime getCompletedAt() {
+        return completedAt;
+    }
+
+    public void setCompletedAt(LocalDateTime completedAt) {
+        this.completedAt = completedAt;
+    }
+}
@@ -0,0 +1,76 @@
+package com.dreamgames.backendengineeringcasestudy.model;
+
+import jakarta.persistence.*;
+import java.io.Serializable;
+import java.util.Objects;
+
+@Entity
+@Table(name = "tournament_country_scores")
+@IdClass(TournamentCountryScore.Key.class)
+public class TournamentCountryScore {
+
+    @Id
+    @Column(name = "tournament_id")
+    private Long tournamentId;
+
+    @Id
+    @Enumerated(EnumType.STRING)
+    private Country country;
+
+    @Column(nullable = false)
+    private long totalScore;
+
+    // Getters and Setters
+    public Long getTournamentId() {
+        return tournamentId;
+    }
+
+    public void setTournamentId(Long tournamentId) {
+        this.tournamentId = tournamentId;
+    }
+
+    public Country getCountry() {
+        return country;
+    }
+
+    public void setCountry(Country country) {
+        this.country = country;
+    }
+
+    public long getTotalScore() {
+        return totalScore;
+    }
+
+    public void setTotalScore(long totalScore) {
+        this.totalScore = totalScore;
+    }
+
+    public static class Key implements Serializable {
+        private Long tournamentId;
+        private Country country;
+
+        public Key() {
+        }
+
+        public Key(Long tournamentId, Country country) {
+            this.tournamentId = tournamentId;
+            this.country = country;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key key)) {
+                return false;
+            }
+            return Objects.equals(tournamentId, key.tournamentId) && country == key.country;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tournamentId, country);
+        }
+    }
+}
@@ -5,11 +5,14 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "tournament_groups")
+@Table(name = "tournament_groups", indexes = @Index(name = "idx_tournament_groups_open",
+        columnList = "tournament_id, competition_started, occupied_countries"))
 public class TournamentGroup {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "tournament_groups_id")
+    @TableGenerator(name = "tournament_groups_id", table = "id_generators", pkColumnName = "sequence_name",
+            valueColumnName = "next_val", pkColumnValue = "tournament_groups", allocationSize = 100)
     private Long id;
 
     @ManyToOne
@@ -21,6 +24,16 @@ public class TournamentGroup {
 
     private boolean competitionStarted;
 
+    @Column(nullable = false)
+    private int occupiedCountries; // Bitmask of the Country ordinals already in the group
+
+    @Column(nullable = false)
+    private boolean rewardsComputed; // Only used by tournaments with lazy rewards
+
+    // Leaderboard version, only bumped by bulk updates of entries and scores, so saving a group never writes it
+    @Column(nullable = false, updatable = false)
+    private long version;
+
     // Getters and Setters
     public Long getId() {
         return id;
@@ -53,4 +66,28 @@ public class TournamentGroup {
     public void setCompetitionStarted(boolean competitionStarted) {
         this.competitionStarted = competitionStarted;
     }
+
+    public int getOccupiedCountries() {
+        return occupiedCountries;
+    }
+
+    public void setOccupiedCountries(int occupiedCountries) {
+        this.occupiedCountries = occupiedCountries;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public boolean isRewardsComputed() {
+        return rewardsComputed;
+    }
+
+    public void setRewardsComputed(boolean rewardsComputed) {
+        this.rewardsComputed = rewardsComputed;
+    }
 }
@@ -7,7 +7,9 @@ import jakarta.persistence.*;
 public class TournamentUser {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "tournament_users_id")
+    @TableGenerator(name = "tournament_users_id", table = "id_generators", pkColumnName = "sequence_name",
+            valueColumnName = "next_val", pkColumnValue = "tournament_users", allocationSize = 500)
     private Long id;
 
     @ManyToOne
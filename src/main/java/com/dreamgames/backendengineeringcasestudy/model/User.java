@@ -1,5 +1,6 @@
 package com.dreamgames.backendengineeringcasestudy.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 
 @Entity
@@ -7,7 +8,9 @@ import jakarta.persistence.*;
 public class User {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "users_id")
+    @TableGenerator(name = "users_id", table = "id_generators", pkColumnName = "sequence_name",
+            valueColumnName = "next_val", pkColumnValue = "users", allocationSize = 500)
     private Long id;
 
     @Column(nullable = false)
@@ -23,6 +26,14 @@ public class User {
     @Column(nullable = false)
     private Country country;
 
+    @JsonIgnore
+    @Column(nullable = true) // ID of the user's most recent TournamentUser, null if never entered
+    private Long latestTournamentUserId;
+
+    @JsonIgnore
+    @Column(nullable = false, updatable = false) // Unclaimed reward, only written by UserRepository's bulk updates
+    private int pendingReward;
+
     // Getters and Setters
     public Long getId() {
         return id;
@@ -63,4 +74,20 @@ public class User {
     public void setCountry(Country country) {
         this.country = country;
     }
+
+    public Long getLatestTournamentUserId() {
+        return latestTournamentUserId;
+    }
+
+    public void setLatestTournamentUserId(Long latestTournamentUserId) {
+        this.latestTournamentUserId = latestTournamentUserId;
+    }
+
+    public int getPendingReward() {
+        return pendingReward;
+    }
+
+    public void setPendingReward(int pendingReward) {
+        this.pendingReward = pendingReward;
+    }
 }
@@ -0,0 +1,88 @@
+package com.dreamgames.backendengineeringcasestudy.replica;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Decides whether read-only transactions may use the replica.
+ * <p>
+ * Every {@code replica.heartbeat-ms} the heartbeat row last replicated is read
+ * from the replica, then a new heartbeat is written to the primary. The
+ * replica has applied every write made before its latest heartbeat, so the
+ * time since that heartbeat bounds its staleness. While the staleness exceeds
+ * {@code replica.max-staleness-ms}, or the replica cannot be read, reads fall
+ * back to the primary. The tolerance has to be larger than the heartbeat
+ * interval.
+ */
+public class ReplicaLagMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaLagMonitor.class);
+
+    private static final int HEARTBEAT_ID = 1;
+
+    private final JdbcTemplate primary;
+
+    private final JdbcTemplate replica;
+
+    private final long maxStalenessMs;
+
+    private volatile boolean replicaUsable;
+
+    public ReplicaLagMonitor(JdbcTemplate primary, JdbcTemplate replica, long maxStalenessMs) {
+        this.primary = primary;
+        this.replica = replica;
+        this.maxStalenessMs = maxStalenessMs;
+    }
+
+    /**
+     * Measures the replica's staleness and writes the next heartbeat.
+     */
+    @Scheduled(fixedDelayString = "${replica.heartbeat-ms:500}", initialDelayString = "${replica.heartbeat-ms:500}")
+    public void check() {
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        boolean usable = false;
+        try {
+            Timestamp beatAt = replica.query("SELECT beat_at FROM replication_heartbeats WHERE id = ?",
+                    resultSet -> resultSet.next() ? resultSet.getTimestamp(1) : null, HEARTBEAT_ID);
+            if (beatAt != null) {
+                long stalenessMs = Duration.between(beatAt.toLocalDateTime(), now).toMillis();
+                usable = stalenessMs <= maxStalenessMs;
+                logger.debug("Replica is {} ms behind", stalenessMs);
+            }
+        } catch (DataAccessException e) {
+            logger.debug("Could not read the replica heartbeat", e);
+        }
+        if (usable != replicaUsable) {
+            logger.info(usable ? "Read-only transactions use the replica again"
+                    : "Read-only transactions fall back to the primary, the replica is unavailable or too stale");
+            replicaUsable = usable;
+        }
+        try {
+            if (primary.update("UPDATE replication_heartbeats SET beat_at = ? WHERE id = ?", now, HEARTBEAT_ID) == 0) {
+                primary.update("INSERT INTO replication_heartbeats (id, beat_at) VALUES (?, ?)", HEARTBEAT_ID, now);
+            }
+        } catch (DuplicateKeyException e) {
+            // Another node inserted the first heartbeat
+        } catch (DataAccessException e) {
+            logger.warn("Could not write the replication heartbeat", e);
+        }
+    }
+
+    /**
+     * Checks whether the replica was fresh enough at the last check.
+     *
+     * @return true if read-only transactions may use the replica
+     */
+    public boolean isReplicaUsable() {
+        return replicaUsable;
+    }
+}
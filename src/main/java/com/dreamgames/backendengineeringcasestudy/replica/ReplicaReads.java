@@ -0,0 +1,52 @@
+package com.dreamgames.backendengineeringcasestudy.replica;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.function.Supplier;
+
+/**
+ * Runs reads that tolerate replica staleness in a read-only transaction that
+ * may be served by the replica, see {@link ReplicaDataSourceConfig}.
+ * <p>
+ * Only reads run through here are routed. Other read-only transactions, e.g.
+ * the default ones of Spring Data repositories, stay on the primary, as write
+ * paths use them to read what they are about to update. Without a replica the
+ * reads run in a read-only transaction on the primary.
+ */
+@Component
+public class ReplicaReads {
+
+    private static final ThreadLocal<Boolean> REQUESTED = new ThreadLocal<>();
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * Runs the given reads, joining the caller's transaction if there is one.
+     *
+     * @param reads the reads
+     * @param <T>   the type of the result
+     * @return the result of the reads
+     */
+    public <T> T read(Supplier<T> reads) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return reads.get(); // The caller's connection is already chosen
+        }
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+        REQUESTED.set(Boolean.TRUE);
+        try {
+            return transaction.execute(status -> reads.get());
+        } finally {
+            REQUESTED.remove();
+        }
+    }
+
+    static boolean isRequested() {
+        return REQUESTED.get() != null;
+    }
+}
@@ -0,0 +1,31 @@
+package com.dreamgames.backendengineeringcasestudy.replica;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Hands out replica connections to read-only transactions started by
+ * {@link ReplicaReads} while the {@link ReplicaLagMonitor} considers the
+ * replica fresh enough, and primary connections to everything else. It is
+ * wrapped in a lazy connection proxy, so the target is picked at the first
+ * statement of a transaction, once its read-only flag is known.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    static final String PRIMARY = "primary";
+
+    static final String REPLICA = "replica";
+
+    private final ReplicaLagMonitor lagMonitor;
+
+    public ReplicaRoutingDataSource(ReplicaLagMonitor lagMonitor) {
+        this.lagMonitor = lagMonitor;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        boolean replicaRead = ReplicaReads.isRequested()
+                && TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+        return replicaRead && lagMonitor.isReplicaUsable() ? REPLICA : PRIMARY;
+    }
+}
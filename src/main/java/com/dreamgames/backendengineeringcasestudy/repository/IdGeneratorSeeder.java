@@ -0,0 +1,76 @@
+package com.dreamgames.backendengineeringcasestudy.repository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.TableGenerator;
+import jakarta.persistence.metamodel.EntityType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Field;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the {@code id_generators} table ahead of the existing rows.
+ * <p>
+ * Entities take their IDs in blocks from a pooled table generator, so a node
+ * inserts a whole block of rows without asking the database for each ID and
+ * Hibernate can batch the inserts. The tables were filled by auto-increment
+ * columns before, so on startup every generator is moved past the highest
+ * existing ID. The value only ever moves forward, so nodes starting while
+ * others hand out IDs do not reissue a block.
+ */
+@Component
+public class IdGeneratorSeeder {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdGeneratorSeeder.class);
+
+    private static final String GENERATOR_TABLE = "id_generators";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory; // The schema exists once it is built
+
+    @PostConstruct
+    void seed() {
+        generators().forEach((table, allocationSize) -> {
+            if (jdbcTemplate.queryForList("SELECT next_val FROM id_generators WHERE sequence_name = ?",
+                    Long.class, table).isEmpty()) {
+                try {
+                    jdbcTemplate.update("INSERT INTO id_generators (sequence_name, next_val) VALUES (?, 0)", table);
+                } catch (DuplicateKeyException e) {
+                    // Inserted by another node
+                }
+            }
+            // The pooled optimizer hands out the block just below the value it reads
+            int moved = jdbcTemplate.update("UPDATE id_generators SET next_val = "
+                    + "(SELECT COALESCE(MAX(id), 0) FROM " + table + ") + ? WHERE sequence_name = ? "
+                    + "AND next_val < (SELECT COALESCE(MAX(id), 0) FROM " + table + ") + ?",
+                    allocationSize, table, allocationSize);
+            if (moved > 0) {
+                logger.info("Moved the ID generator of {} past the existing rows", table);
+            }
+        });
+    }
+
+    // Generator name, which is also the table name, and its allocation size as declared on the entities
+    private Map<String, Integer> generators() {
+        Map<String, Integer> generators = new LinkedHashMap<>();
+        for (EntityType<?> entity : entityManagerFactory.getMetamodel().getEntities()) {
+            for (Field field : entity.getJavaType().getDeclaredFields()) {
+                TableGenerator generator = field.getAnnotation(TableGenerator.class);
+                if (generator != null && GENERATOR_TABLE.equals(generator.table())) {
+                    generators.put(generator.pkColumnValue(), generator.allocationSize());
+                }
+            }
+        }
+        return generators;
+    }
+}
@@ -0,0 +1,45 @@
+package com.dreamgames.backendengineeringcasestudy.repository;
+
+import com.dreamgames.backendengineeringcasestudy.model.SchedulerLease;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+@Repository
+public interface SchedulerLeaseRepository extends JpaRepository<SchedulerLease, String> {
+
+    // Creates the lease for its first holder, fails with a duplicate key if another node was first
+    @Transactional
+    @Modifying
+    @Query(value = "insert into scheduler_leases (name, owner, token, expires_at) "
+            + "values (:name, :owner, 1, :expiresAt)", nativeQuery = true)
+    int create(@Param("name") String name, @Param("owner") String owner,
+            @Param("expiresAt") LocalDateTime expiresAt);
+
+    // Takes over an expired lease and issues a new fencing token, only one node's update matches
+    @Transactional
+    @Modifying
+    @Query("update SchedulerLease l set l.owner = :owner, l.token = l.token + 1, l.expiresAt = :expiresAt "
+            + "where l.name = :name and l.expiresAt <= :now")
+    int takeOver(@Param("name") String name, @Param("owner") String owner, @Param("now") LocalDateTime now,
+            @Param("expiresAt") LocalDateTime expiresAt);
+
+    // Extends the lease as long as it was not taken over
+    @Transactional
+    @Modifying
+    @Query("update SchedulerLease l set l.expiresAt = :expiresAt where l.name = :name and l.token = :token")
+    int renew(@Param("name") String name, @Param("token") long token, @Param("expiresAt") LocalDateTime expiresAt);
+
+    // Locks the lease row until the end of the caller's transaction, see SchedulerLeader.fence
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select l from SchedulerLease l where l.name = :name")
+    Optional<SchedulerLease> findForUpdate(@Param("name") String name);
+}
@@ -0,0 +1,28 @@
+package com.dreamgames.backendengineeringcasestudy.repository;
+
+import com.dreamgames.backendengineeringcasestudy.model.TournamentCloseChunk;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface TournamentCloseChunkRepository extends JpaRepository<TournamentCloseChunk, Long> {
+    List<TournamentCloseChunk> findByCompletedFalseOrderByIdAsc();
+
+    List<TournamentCloseChunk> findByTournamentId(Long tournamentId);
+
+    long countByTournamentIdAndCompletedFalse(Long tournamentId);
+
+    // Checkpoints a chunk, only the transaction that flips the flag processes it
+    @Transactional
+    @Modifying
+    @Query("update TournamentCloseChunk c set c.completed = true, c.completedAt = :completedAt "
+            + "where c.id = :id and c.completed = false")
+    int markCompleted(@Param("id") Long id, @Param("completedAt") LocalDateTime completedAt);
+}
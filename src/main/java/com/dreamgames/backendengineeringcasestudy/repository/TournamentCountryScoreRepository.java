@@ -0,0 +1,13 @@
+package com.dreamgames.backendengineeringcasestudy.repository;
+
+import com.dreamgames.backendengineeringcasestudy.model.TournamentCountryScore;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface TournamentCountryScoreRepository
+        extends JpaRepository<TournamentCountryScore, TournamentCountryScore.Key> {
+    List<TournamentCountryScore> findByTournamentId(Long tournamentId);
+}
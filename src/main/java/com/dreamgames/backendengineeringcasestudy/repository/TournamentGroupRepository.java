@@ -3,14 +3,72 @@ package com.dreamgames.backendengineeringcasestudy.repository;
 import com.dreamgames.backendengineeringcasestudy.model.TournamentGroup;
 import com.dreamgames.backendengineeringcasestudy.model.User;
 import com.dreamgames.backendengineeringcasestudy.model.Tournament;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface TournamentGroupRepository extends JpaRepository<TournamentGroup, Long> {
     List<TournamentGroup> findByTournament(Tournament tournament);
 
+    List<TournamentGroup> findByTournamentAndIdBetween(Tournament tournament, Long firstId, Long lastId);
+
+    @Query("select g.id from TournamentGroup g where g.tournament = :tournament order by g.id")
+    List<Long> findIdsByTournament(@Param("tournament") Tournament tournament);
+
+    List<TournamentGroup> findByTournamentAndCompetitionStartedFalse(Tournament tournament);
+
+    @Query("select g.id from TournamentGroup g where g.id in :ids and g.competitionStarted = true")
+    List<Long> findStartedIds(@Param("ids") Collection<Long> ids);
+
     boolean existsByTournamentAndParticipants_User(Tournament tournament, User user);
-}
\ No newline at end of file
+
+    @Query("select g from TournamentGroup g where g.tournament = :tournament "
+            + "and g.competitionStarted = false and g.occupiedCountries in :masks order by g.id")
+    List<TournamentGroup> findOpenGroups(@Param("tournament") Tournament tournament,
+            @Param("masks") Collection<Integer> masks, Pageable pageable);
+
+    // Claims a country slot only if the country is still free, see GroupMatchmaker.openMasksWithout
+    @Transactional
+    @Modifying
+    @Query("update TournamentGroup g set "
+            + "g.competitionStarted = case when g.occupiedCountries + :bit = :fullMask then true else false end, "
+            + "g.occupiedCountries = g.occupiedCountries + :bit, g.version = g.version + 1 "
+            + "where g.id = :id and g.occupiedCountries in :masks")
+    int claimSlot(@Param("id") Long id, @Param("bit") int bit, @Param("masks") Collection<Integer> masks,
+            @Param("fullMask") int fullMask);
+
+    @Query("select g.version from TournamentGroup g where g.id = :id")
+    Optional<Long> findVersionById(@Param("id") Long id);
+
+    // Marks a change of the group's scores, see GroupLeaderboardCache
+    @Transactional
+    @Modifying
+    @Query("update TournamentGroup g set g.version = g.version + 1 where g.id = :id")
+    int bumpVersion(@Param("id") Long id);
+
+    // Removes the pre-allocated groups nobody entered
+    @Transactional
+    @Modifying
+    @Query("delete from TournamentGroup g where g.tournament.id = :tournamentId and g.occupiedCountries = 0")
+    int deleteEmptyGroups(@Param("tournamentId") Long tournamentId);
+
+    // Claims the lazy reward computation of a group, see TournamentService.materializeLazyRewards
+    @Transactional
+    @Modifying
+    @Query("update TournamentGroup g set g.rewardsComputed = true where g.id = :id and g.rewardsComputed = false")
+    int markRewardsComputed(@Param("id") Long id);
+
+    // Started groups of ended tournaments whose lazy rewards nobody computed yet
+    @Query("select count(g) > 0 from TournamentGroup g where g.rewardsComputed = false and g.competitionStarted = true "
+            + "and g.tournament.lazyRewards = true and g.tournament.isActive = false")
+    boolean existsPendingLazyRewards();
+}
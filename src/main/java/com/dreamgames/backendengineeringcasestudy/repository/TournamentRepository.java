@@ -2,14 +2,44 @@ package com.dreamgames.backendengineeringcasestudy.repository;
 
 import com.dreamgames.backendengineeringcasestudy.model.Tournament;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface TournamentRepository extends JpaRepository<Tournament, Long> {
     List<Tournament> findByIsActiveTrue();
 
+    @Query("select t.id from Tournament t where t.isActive = true")
+    List<Long> findActiveIds();
+
     List<Tournament> findByEndTimeBefore(LocalDateTime dateTime);
+
+    Optional<Tournament> findFirstByUpcomingTrueOrderByIdDesc();
+
+    Optional<Tournament> findFirstByUpcomingFalseOrderByIdDesc();
+
+    // Ended, and its rewards distributed or computed lazily, so neither scores nor ranks change anymore
+    @Query("select count(t) > 0 from Tournament t where t.id = :id and t.isActive = false and t.upcoming = false "
+            + "and (t.rewardsDistributed = true or t.lazyRewards = true)")
+    boolean isFinished(@Param("id") Long id);
+
+    // Starts a prepared tournament, only one node's update matches
+    @Transactional
+    @Modifying
+    @Query("update Tournament t set t.isActive = true, t.upcoming = false, t.startTime = :startTime, "
+            + "t.endTime = :endTime where t.id = :id and t.upcoming = true")
+    int activateUpcoming(@Param("id") Long id, @Param("startTime") LocalDateTime startTime,
+            @Param("endTime") LocalDateTime endTime);
+
+    @Transactional
+    @Modifying
+    @Query("update Tournament t set t.rewardsDistributed = true where t.id = :id and t.rewardsDistributed = false")
+    int markRewardsDistributed(@Param("id") Long id);
 }
@@ -1,14 +1,23 @@
 package com.dreamgames.backendengineeringcasestudy.repository;
 
+import com.dreamgames.backendengineeringcasestudy.dto.CountryScore;
+import com.dreamgames.backendengineeringcasestudy.dto.ParticipantScore;
+import com.dreamgames.backendengineeringcasestudy.dto.UserScore;
 import com.dreamgames.backendengineeringcasestudy.model.TournamentUser;
 import com.dreamgames.backendengineeringcasestudy.model.User;
 import com.dreamgames.backendengineeringcasestudy.model.TournamentGroup;
 import com.dreamgames.backendengineeringcasestudy.model.Country;
 import com.dreamgames.backendengineeringcasestudy.model.Tournament;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface TournamentUserRepository extends JpaRepository<TournamentUser, Long> {
@@ -16,9 +25,85 @@ public interface TournamentUserRepository extends JpaRepository<TournamentUser,
 
     List<TournamentUser> findByUser(User user);
 
+    Optional<TournamentUser> findFirstByUserOrderByIdDesc(User user);
+
+    /**
+     * Finds the most recent tournament participation of a user through the
+     * pointer kept on the user row, so the user's history is not scanned.
+     * Users who entered before the pointer existed fall back to a lookup of
+     * their latest row.
+     *
+     * @param user the user entity
+     * @return the latest participation, or empty if the user never entered
+     */
+    default Optional<TournamentUser> findLatestByUser(User user) {
+        if (user.getLatestTournamentUserId() != null) {
+            return findById(user.getLatestTournamentUserId());
+        }
+        return findFirstByUserOrderByIdDesc(user);
+    }
+
     List<TournamentUser> findByTournamentGroup(TournamentGroup tournamentGroup);
 
     boolean existsByTournamentGroupAndUser_Country(TournamentGroup group, Country country);
 
     boolean existsByTournamentGroup_TournamentAndUser(Tournament tournament, User user);
+
+    long countByTournamentGroup_Tournament(Tournament tournament);
+
+    @Query("select distinct tu.tournamentGroup.id from TournamentUser tu "
+            + "where tu.user.id in :userIds and tu.tournamentGroup.rewardsComputed = false "
+            + "and tu.tournamentGroup.tournament.lazyRewards = true and tu.tournamentGroup.tournament.isActive = false")
+    List<Long> findGroupIdsWithLazyRewards(@Param("userIds") Collection<Long> userIds);
+
+    @Query("select tu.user.id from TournamentUser tu "
+            + "where tu.tournamentGroup.tournament = :tournament and tu.user.id in :userIds")
+    List<Long> findUserIdsInTournament(@Param("tournament") Tournament tournament,
+            @Param("userIds") Collection<Long> userIds);
+
+    // Reads only the leaderboard columns of the groups' participants and their groups' versions
+    @Query("select new com.dreamgames.backendengineeringcasestudy.dto.ParticipantScore("
+            + "tu.id, g.id, u.id, u.username, u.country, tu.score, g.version, g.tournament.id) "
+            + "from TournamentUser tu join tu.user u join tu.tournamentGroup g where g.id in :groupIds")
+    List<ParticipantScore> findParticipantScoresByGroupIds(@Param("groupIds") Collection<Long> groupIds);
+
+    @Query("select new com.dreamgames.backendengineeringcasestudy.dto.ParticipantScore("
+            + "tu.id, g.id, u.id, u.username, u.country, tu.score, g.version, g.tournament.id) "
+            + "from TournamentUser tu join tu.user u join tu.tournamentGroup g "
+            + "where g.tournament.id = :tournamentId order by g.id")
+    List<ParticipantScore> findParticipantScoresByTournamentId(@Param("tournamentId") Long tournamentId);
+
+    @Query("select new com.dreamgames.backendengineeringcasestudy.dto.CountryScore(u.country, sum(tu.score)) "
+            + "from TournamentUser tu join tu.user u where tu.tournamentGroup.tournament.id = :tournamentId "
+            + "group by u.country order by sum(tu.score) desc")
+    List<CountryScore> sumScoresByCountry(@Param("tournamentId") Long tournamentId);
+
+    @Query("select new com.dreamgames.backendengineeringcasestudy.dto.UserScore(tu.user.id, tu.score) "
+            + "from TournamentUser tu where tu.tournamentGroup.tournament.id = :tournamentId")
+    List<UserScore> findUserScoresByTournamentId(@Param("tournamentId") Long tournamentId);
+
+    @Transactional
+    @Modifying
+    @Query("update TournamentUser tu set tu.score = tu.score + 1 where tu.id = :id")
+    int incrementScore(@Param("id") Long id);
+
+    @Transactional
+    @Modifying
+    @Query("update TournamentUser tu set tu.rewardClaimed = true "
+            + "where tu.user.id = :userId and tu.reward > 0 and tu.rewardClaimed = false")
+    int markRewardsClaimed(@Param("userId") Long userId);
+
+    // Rewards every participant whose dense score rank within a started group in the ID range is the given rank,
+    // unless it was rewarded before, so a resumed close cannot reopen a claimed reward
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE tournament_users SET reward = :reward, reward_claimed = false WHERE reward = 0 AND id IN ("
+            + "SELECT ranked.id FROM (SELECT tu.id, DENSE_RANK() OVER "
+            + "(PARTITION BY tu.tournament_group_id ORDER BY tu.score DESC) AS score_rank "
+            + "FROM tournament_users tu JOIN tournament_groups g ON g.id = tu.tournament_group_id "
+            + "WHERE g.tournament_id = :tournamentId AND g.competition_started = true "
+            + "AND g.id BETWEEN :firstGroupId AND :lastGroupId) ranked "
+            + "WHERE ranked.score_rank = :rank)", nativeQuery = true)
+    int rewardScoreRank(@Param("tournamentId") Long tournamentId, @Param("firstGroupId") Long firstGroupId,
+            @Param("lastGroupId") Long lastGroupId, @Param("rank") int rank, @Param("reward") int reward);
 }
@@ -2,8 +2,77 @@ package com.dreamgames.backendengineeringcasestudy.repository;
 
 import com.dreamgames.backendengineeringcasestudy.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
+    @Query("select max(u.id) from User u")
+    Long findMaxId();
+
+    // Deducts the entry fee only from an eligible user, the row count is the decision
+    @Transactional
+    @Modifying
+    @Query("update User u set u.coins = u.coins - :fee "
+            + "where u.id = :id and u.coins >= :fee and u.level >= :minLevel and u.pendingReward = 0")
+    int deductEntryFee(@Param("id") Long id, @Param("fee") int fee, @Param("minLevel") int minLevel);
+
+    @Transactional
+    @Modifying
+    @Query("update User u set u.latestTournamentUserId = :tournamentUserId where u.id = :id")
+    int setLatestTournamentUserId(@Param("id") Long id, @Param("tournamentUserId") Long tournamentUserId);
+
+    // Relative, so entry fees and rewards written concurrently are kept; clears the stale entities it bypassed
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update User u set u.level = u.level + 1, u.coins = u.coins + :coins where u.id = :id")
+    int levelUp(@Param("id") Long id, @Param("coins") int coins);
+
+    // Only fills a missing pointer, so it cannot overwrite the one a concurrent entry just set
+    @Transactional
+    @Modifying
+    @Query("update User u set u.latestTournamentUserId = :tournamentUserId "
+            + "where u.id = :id and u.latestTournamentUserId is null")
+    int backfillLatestTournamentUserId(@Param("id") Long id, @Param("tournamentUserId") Long tournamentUserId);
+
+    @Transactional
+    @Modifying
+    @Query("update User u set u.pendingReward = :reward where u.id in :ids")
+    int setPendingReward(@Param("ids") Collection<Long> ids, @Param("reward") int reward);
+
+    // Only pays out the reward that was read, so two concurrent claims cannot both pay it out. Relative,
+    // so coins written concurrently are kept; clears the stale entities it bypassed
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update User u set u.coins = u.coins + u.pendingReward, u.pendingReward = 0 "
+            + "where u.id = :id and u.pendingReward = :reward")
+    int payPendingReward(@Param("id") Long id, @Param("reward") int reward);
+
+    // Sets the pending reward of the unclaimed winners of the started groups in the ID range
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE users SET pending_reward = (SELECT tu.reward FROM tournament_users tu "
+            + "JOIN tournament_groups g ON g.id = tu.tournament_group_id "
+            + "WHERE tu.user_id = users.id AND g.tournament_id = :tournamentId) "
+            + "WHERE id IN (SELECT tu.user_id FROM tournament_users tu "
+            + "JOIN tournament_groups g ON g.id = tu.tournament_group_id "
+            + "WHERE g.tournament_id = :tournamentId AND g.id BETWEEN :firstGroupId AND :lastGroupId "
+            + "AND tu.reward > 0 AND tu.reward_claimed = false)", nativeQuery = true)
+    int markPendingRewards(@Param("tournamentId") Long tournamentId, @Param("firstGroupId") Long firstGroupId,
+            @Param("lastGroupId") Long lastGroupId);
+
+    // Recomputes the pending rewards of the users in the ID range from their participations
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE users SET pending_reward = COALESCE((SELECT SUM(tu.reward) FROM tournament_users tu "
+            + "WHERE tu.user_id = users.id AND tu.reward > 0 AND tu.reward_claimed = false), 0) "
+            + "WHERE id BETWEEN :firstId AND :lastId AND pending_reward <> COALESCE((SELECT SUM(tu.reward) "
+            + "FROM tournament_users tu WHERE tu.user_id = users.id AND tu.reward > 0 AND tu.reward_claimed = false), 0)",
+            nativeQuery = true)
+    int recomputePendingRewards(@Param("firstId") Long firstId, @Param("lastId") Long lastId);
 }
@@ -0,0 +1,192 @@
+package com.dreamgames.backendengineeringcasestudy.scheduler;
+
+import com.dreamgames.backendengineeringcasestudy.model.SchedulerLease;
+import com.dreamgames.backendengineeringcasestudy.repository.SchedulerLeaseRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+/**
+ * Elects the node that runs the scheduled tournament jobs.
+ * <p>
+ * The leader holds a lease row in {@code scheduler_leases} and renews it every
+ * {@code scheduler.lease.renew-ms}. If it stops renewing, e.g. because it died,
+ * another node takes the lease over once it expired after
+ * {@code scheduler.lease.duration-ms}. Every takeover increments the lease's
+ * fencing token. Jobs run under the token they were started with and check it
+ * with {@link #fence(long)} in the transaction of their writes, so a leader
+ * that lost the lease while paused cannot write after the takeover. Expiry is
+ * compared with the nodes' clocks, which must be much closer than the lease
+ * duration.
+ */
+@Component
+public class SchedulerLeader {
+
+    static final String LEASE_NAME = "tournament-scheduler";
+
+    private static final Logger logger = LoggerFactory.getLogger(SchedulerLeader.class);
+
+    @Value("${scheduler.lease.duration-ms:30000}")
+    private long leaseDurationMs;
+
+    @Autowired
+    private SchedulerLeaseRepository schedulerLeaseRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private volatile long token; // 0 while another node holds the lease
+
+    private volatile long validUntilNanos;
+
+    /**
+     * Tries to take the lease before the other startup listeners run, so the
+     * first leader's {@link LeadershipAcquired} listeners run on startup.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void start() {
+        heartbeat();
+    }
+
+    /**
+     * Renews the lease while this node holds it, otherwise tries to take it
+     * over.
+     */
+    @Scheduled(fixedDelayString = "${scheduler.lease.renew-ms:10000}",
+            initialDelayString = "${scheduler.lease.renew-ms:10000}")
+    public synchronized void heartbeat() {
+        long started = System.nanoTime();
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        LocalDateTime expiresAt = now.plusNanos(leaseDurationMs * 1_000_000);
+        if (token != 0) {
+            if (schedulerLeaseRepository.renew(LEASE_NAME, token, expiresAt) == 1) {
+                validUntilNanos = started + leaseDurationMs * 1_000_000;
+                return;
+            }
+            logger.warn("Lost the scheduler lease with token {}", token);
+            token = 0;
+        }
+        Long acquired = acquire(now, expiresAt);
+        if (acquired != null) {
+            validUntilNanos = started + leaseDurationMs * 1_000_000;
+            token = acquired;
+            logger.info("Node {} is now running the scheduled jobs with token {}", nodeId, acquired);
+            eventPublisher.publishEvent(new LeadershipAcquired(acquired));
+        }
+    }
+
+    private Long acquire(LocalDateTime now, LocalDateTime expiresAt) {
+        try {
+            return transactionTemplate.execute(status -> {
+                if (schedulerLeaseRepository.takeOver(LEASE_NAME, nodeId, now, expiresAt) == 1) {
+                    return schedulerLeaseRepository.findById(LEASE_NAME).map(SchedulerLease::getToken).orElse(null);
+                }
+                if (!schedulerLeaseRepository.existsById(LEASE_NAME)) {
+                    schedulerLeaseRepository.create(LEASE_NAME, nodeId, expiresAt);
+                    return 1L;
+                }
+                return null;
+            });
+        } catch (DataIntegrityViolationException e) {
+            return null; // Another node created the lease first
+        }
+    }
+
+    /**
+     * Lets another node take over right away when this node shuts down.
+     */
+    @PreDestroy
+    public synchronized void release() {
+        if (token != 0) {
+            schedulerLeaseRepository.renew(LEASE_NAME, token, LocalDateTime.now(ZoneOffset.UTC));
+            token = 0;
+        }
+    }
+
+    /**
+     * Checks whether this node currently holds the lease.
+     *
+     * @return true if this node runs the scheduled jobs
+     */
+    public boolean isLeader() {
+        return currentToken() != null;
+    }
+
+    /**
+     * Retrieves the fencing token of the lease if this node holds it and it
+     * has not expired locally.
+     *
+     * @return the fencing token, or null if this node is not the leader
+     */
+    public Long currentToken() {
+        long heldToken = token;
+        return heldToken != 0 && System.nanoTime() - validUntilNanos < 0 ? heldToken : null;
+    }
+
+    /**
+     * Checks in the current transaction that the lease still has the given
+     * token. The lease row stays locked until the transaction ends, so a
+     * takeover waits for the caller's writes to commit.
+     *
+     * @param expectedToken the token the job was started with
+     * @throws IllegalStateException if the lease was taken over since
+     */
+    public void fence(long expectedToken) {
+        long leaseToken = schedulerLeaseRepository.findForUpdate(LEASE_NAME).map(SchedulerLease::getToken).orElse(0L);
+        if (leaseToken != expectedToken) {
+            throw new IllegalStateException("Scheduler lease token " + expectedToken
+                    + " was superseded by " + leaseToken);
+        }
+    }
+
+    /**
+     * Runs a job in one transaction that starts with {@link #fence(long)}.
+     *
+     * @param expectedToken the token the job was started with
+     * @param job           the job
+     * @throws IllegalStateException if the lease was taken over since
+     */
+    public void runFenced(long expectedToken, Runnable job) {
+        transactionTemplate.executeWithoutResult(status -> {
+            fence(expectedToken);
+            job.run();
+        });
+    }
+
+    /**
+     * Published when this node takes the lease, e.g. to catch up on jobs the
+     * previous leader missed.
+     */
+    public static class LeadershipAcquired {
+        private final long token;
+
+        public LeadershipAcquired(long token) {
+            this.token = token;
+        }
+
+        public long getToken() {
+            return token;
+        }
+    }
+}
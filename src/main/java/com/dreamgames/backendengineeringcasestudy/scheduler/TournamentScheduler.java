@@ -1,25 +1,79 @@
 package com.dreamgames.backendengineeringcasestudy.scheduler;
 
+import com.dreamgames.backendengineeringcasestudy.service.TournamentCloseJob;
 import com.dreamgames.backendengineeringcasestudy.service.TournamentService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+/**
+ * Runs the daily tournament jobs on the node that holds the scheduler lease,
+ * see {@link SchedulerLeader}. The jobs' writes are fenced with the lease's
+ * token, so a node that lost the lease cannot run them a second time.
+ */
 @Component
 public class TournamentScheduler {
 
     @Autowired
     private TournamentService tournamentService;
 
-    // Automatically starts a new tournament at 00:00 UTC
+    @Autowired
+    private SchedulerLeader schedulerLeader;
+
+    @Autowired
+    private TournamentCloseJob tournamentCloseJob;
+
+    @Value("${user.pending-reward.repair-on-startup:false}")
+    private boolean repairPendingRewardsOnStartup;
+
+    @Value("${tournament.preallocation.enabled:false}")
+    private boolean preallocationEnabled;
+
+    // Prepares the next tournament and its groups shortly before 00:00 UTC
+    @Scheduled(cron = "${tournament.preallocation.cron:0 55 23 * * ?}", zone = "UTC")
+    public void prepareNextTournament() {
+        Long token = schedulerLeader.currentToken();
+        if (preallocationEnabled && token != null) {
+            // Fenced per batch of groups, the lease row is not locked while all of them are inserted
+            tournamentService.prepareNextTournament(() -> schedulerLeader.fence(token));
+        }
+    }
+
+    // Automatically starts a new tournament at 00:00 UTC, activating the prepared one if there is one
     @Scheduled(cron = "0 0 0 * * ?", zone = "UTC")
     public void createDailyTournament() {
-        tournamentService.createTournament();
+        Long token = schedulerLeader.currentToken();
+        if (token != null) {
+            schedulerLeader.runFenced(token, tournamentService::startDailyTournament);
+        }
     }
 
-    // Automatically ends the current tournament at 20:00 UTC
+    // Automatically ends the current tournament at 20:00 UTC, rewards are distributed by the close job's workers
     @Scheduled(cron = "0 0 20 * * ?", zone = "UTC")
     public void endDailyTournaments() {
-        tournamentService.endTournaments();
+        Long token = schedulerLeader.currentToken();
+        if (token != null) {
+            tournamentCloseJob.closeActiveTournaments(() -> schedulerLeader.fence(token));
+        }
+    }
+
+    // Catches up when the leader starts, or takes over: closes tournaments whose 20:00 close was missed, then
+    // starts a tournament if there is none during tournament hours
+    @EventListener(SchedulerLeader.LeadershipAcquired.class)
+    public void startMissingTournament(SchedulerLeader.LeadershipAcquired event) {
+        long token = event.getToken();
+        tournamentCloseJob.closeOverdueTournaments(() -> schedulerLeader.fence(token));
+        schedulerLeader.runFenced(token, tournamentService::startTournamentIfMissing);
+    }
+
+    // Backfills the pending rewards of users rewarded before they were recorded on the user row
+    @EventListener(ApplicationReadyEvent.class)
+    public void repairPendingRewards() {
+        if (repairPendingRewardsOnStartup) {
+            tournamentService.repairPendingRewards();
+        }
     }
 }
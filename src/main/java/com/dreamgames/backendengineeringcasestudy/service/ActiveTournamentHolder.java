@@ -0,0 +1,114 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import com.dreamgames.backendengineeringcasestudy.model.Tournament;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the current active tournament in memory.
+ * <p>
+ * Entries and level-ups read the tournament from here instead of querying for
+ * it on every request. The holder is loaded on startup and swapped atomically
+ * when this node starts or ends a tournament. Transitions made by other nodes
+ * are picked up by periodically polling the IDs of the active tournaments,
+ * which only reloads the tournament if they changed, so another node's
+ * transition is seen within {@code tournament.active.refresh-ms}.
+ * <p>
+ * The cached tournament is detached and shared between threads, it must only
+ * be read or used as a query parameter.
+ */
+@Component
+public class ActiveTournamentHolder {
+
+    private static final Logger logger = LoggerFactory.getLogger(ActiveTournamentHolder.class);
+
+    @Autowired
+    private TournamentRepository tournamentRepository;
+
+    private final AtomicReference<Tournament> current = new AtomicReference<>();
+
+    @PostConstruct
+    void load() {
+        reload(tournamentRepository.findByIsActiveTrue());
+    }
+
+    /**
+     * Picks up tournaments started or ended by other nodes.
+     */
+    @Scheduled(fixedDelayString = "${tournament.active.refresh-ms:1000}",
+            initialDelayString = "${tournament.active.refresh-ms:1000}")
+    public void refresh() {
+        List<Long> activeIds = tournamentRepository.findActiveIds();
+        Tournament tournament = current.get();
+        Long currentId = tournament == null ? null : tournament.getId();
+        Long latestId = activeIds.stream().max(Comparator.naturalOrder()).orElse(null);
+        if (!Objects.equals(currentId, latestId)) {
+            reload(tournamentRepository.findByIsActiveTrue());
+        }
+    }
+
+    private void reload(List<Tournament> activeTournaments) {
+        if (activeTournaments.size() > 1) {
+            logger.warn("Found {} active tournaments, entries go to the latest one", activeTournaments.size());
+        }
+        Tournament latest = activeTournaments.stream()
+                .max(Comparator.comparing(Tournament::getId))
+                .orElse(null);
+        Tournament previous = current.getAndSet(latest);
+        if (!Objects.equals(previous == null ? null : previous.getId(), latest == null ? null : latest.getId())) {
+            logger.info("Current tournament is now {}", latest == null ? "none" : latest.getId());
+        }
+    }
+
+    /**
+     * Makes the given tournament the current one.
+     *
+     * @param tournament the newly started tournament
+     */
+    public void activate(Tournament tournament) {
+        current.set(tournament);
+        logger.info("Current tournament is now {}", tournament.getId());
+    }
+
+    /**
+     * Clears the current tournament if it is the given one.
+     *
+     * @param tournamentId the ID of the ended tournament
+     */
+    public void deactivate(Long tournamentId) {
+        Tournament tournament = current.get();
+        if (tournament != null && tournament.getId().equals(tournamentId) && current.compareAndSet(tournament, null)) {
+            logger.info("Current tournament {} ended", tournamentId);
+        }
+    }
+
+    /**
+     * Retrieves the current tournament.
+     *
+     * @return the current tournament, or null if no tournament is active
+     */
+    public Tournament get() {
+        return current.get();
+    }
+
+    /**
+     * Checks whether the given tournament is the current one.
+     *
+     * @param tournamentId the ID of the tournament
+     * @return true if the tournament is active
+     */
+    public boolean isActive(Long tournamentId) {
+        Tournament tournament = current.get();
+        return tournament != null && tournament.getId().equals(tournamentId);
+    }
+}
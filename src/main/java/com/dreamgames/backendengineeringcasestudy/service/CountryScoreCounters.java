@@ -0,0 +1,220 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import com.dreamgames.backendengineeringcasestudy.dto.CountryScore;
+import com.dreamgames.backendengineeringcasestudy.model.Country;
+import com.dreamgames.backendengineeringcasestudy.model.TournamentCountryScore;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentCountryScoreRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-tournament, per-country score totals maintained as scores change.
+ * <p>
+ * Increments land in striped {@link LongAdder} counters, so concurrent
+ * level-ups do not contend. The accumulated deltas are periodically added to
+ * the {@code tournament_country_scores} table, which also lets several nodes
+ * share the totals. Reading a leaderboard is the persisted totals plus the
+ * local deltas, i.e. O(#countries) regardless of the number of participants.
+ */
+@Component
+public class CountryScoreCounters {
+
+    private static final Logger logger = LoggerFactory.getLogger(CountryScoreCounters.class);
+
+    private static final Country[] COUNTRIES = Country.values();
+
+    @Autowired
+    private TournamentCountryScoreRepository tournamentCountryScoreRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private final Map<Long, TournamentCounters> tournaments = new ConcurrentHashMap<>();
+
+    private final Object flushMonitor = new Object(); // Held from draining the deltas until the totals are reset
+
+    /**
+     * Records that a user of the given country joined the tournament, so the
+     * country is listed even before it scores.
+     *
+     * @param tournamentId the ID of the tournament
+     * @param country      the country of the user
+     */
+    public void join(Long tournamentId, Country country) {
+        counters(tournamentId).joined.getAndUpdate(mask -> mask | GroupMatchmaker.bit(country));
+    }
+
+    /**
+     * Adds one point to the total of the given country.
+     *
+     * @param tournamentId the ID of the tournament
+     * @param country      the country of the user who scored
+     */
+    public void increment(Long tournamentId, Country country) {
+        counters(tournamentId).pending[country.ordinal()].increment();
+    }
+
+    /**
+     * Retrieves the country totals of a tournament, sorted from highest to lowest.
+     *
+     * @param tournamentId the ID of the tournament
+     * @return a list of country scores, empty if no country has joined yet
+     */
+    public List<CountryScore> getLeaderboard(Long tournamentId) {
+        TournamentCounters counters = counters(tournamentId);
+        long[] totals = new long[COUNTRIES.length];
+        int present = 0;
+        boolean read = false;
+        while (!read) {
+            if (counters.base == null) {
+                // Not while a flush is writing, the totals could already include its in-flight deltas
+                synchronized (flushMonitor) {
+                    synchronized (counters) {
+                        if (counters.base == null) {
+                            loadBase(tournamentId, counters);
+                        }
+                    }
+                }
+            }
+            synchronized (counters) {
+                // Pending deltas are read under the lock a flush holds while moving them to inFlight
+                if (counters.base != null) {
+                    for (int i = 0; i < COUNTRIES.length; i++) {
+                        totals[i] = counters.base[i] + counters.inFlight[i] + counters.pending[i].sum();
+                    }
+                    present = counters.basePresent | counters.inFlightJoined | counters.joined.get();
+                    read = true;
+                }
+            }
+        }
+
+        List<CountryScore> leaderboard = new ArrayList<>();
+        for (int i = 0; i < COUNTRIES.length; i++) {
+            if ((present & (1 << i)) != 0 || totals[i] > 0) {
+                leaderboard.add(new CountryScore(COUNTRIES[i].name(), (int) totals[i]));
+            }
+        }
+        leaderboard.sort((cs1, cs2) -> cs2.getTotalScore() - cs1.getTotalScore());
+        return leaderboard;
+    }
+
+    /**
+     * Adds the accumulated deltas to the persisted totals. Persisted totals are
+     * reloaded on the next read, which picks up the deltas of other nodes.
+     */
+    @Scheduled(fixedDelayString = "${tournament.country-scores.flush-interval-ms:1000}")
+    @PreDestroy
+    public void flush() {
+        synchronized (flushMonitor) {
+            flushPending();
+        }
+    }
+
+    private void flushPending() {
+        List<Object[]> rows = new ArrayList<>();
+        List<TournamentCounters> flushed = new ArrayList<>();
+        tournaments.forEach((tournamentId, counters) -> {
+            synchronized (counters) {
+                int joined = counters.joined.getAndSet(0);
+                for (int i = 0; i < COUNTRIES.length; i++) {
+                    long delta = counters.pending[i].sumThenReset();
+                    counters.inFlight[i] = delta;
+                    if (delta != 0 || (joined & (1 << i)) != 0) {
+                        rows.add(new Object[] { tournamentId, COUNTRIES[i].name(), delta });
+                    }
+                }
+                counters.inFlightJoined = joined;
+            }
+            flushed.add(counters);
+        });
+
+        if (!rows.isEmpty()) {
+            try {
+                // All or nothing, the deltas of a failed flush are added again by the next one
+                transactionTemplate.execute(status -> jdbcTemplate.batchUpdate(
+                        "INSERT INTO tournament_country_scores (tournament_id, country, total_score) "
+                        + "VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE total_score = total_score + VALUES(total_score)",
+                        rows));
+            } catch (RuntimeException e) {
+                logger.error("Failed to persist {} country score deltas, keeping them for the next flush", rows.size(), e);
+                for (TournamentCounters counters : flushed) {
+                    synchronized (counters) {
+                        for (int i = 0; i < COUNTRIES.length; i++) {
+                            counters.pending[i].add(counters.inFlight[i]);
+                        }
+                        counters.joined.getAndUpdate(mask -> mask | counters.inFlightJoined);
+                        counters.inFlight = new long[COUNTRIES.length];
+                        counters.inFlightJoined = 0;
+                    }
+                }
+                return;
+            }
+        }
+
+        for (TournamentCounters counters : flushed) {
+            synchronized (counters) {
+                counters.base = null;
+                counters.inFlight = new long[COUNTRIES.length];
+                counters.inFlightJoined = 0;
+            }
+        }
+    }
+
+    /**
+     * Drops the counters of a finished tournament, whose totals are read from
+     * its snapshot from now on. Its scores stopped changing when it ended, so
+     * its deltas were flushed long before.
+     *
+     * @param tournamentId the ID of the tournament
+     */
+    public void evict(Long tournamentId) {
+        tournaments.remove(tournamentId);
+    }
+
+    private TournamentCounters counters(Long tournamentId) {
+        return tournaments.computeIfAbsent(tournamentId, id -> new TournamentCounters());
+    }
+
+    private void loadBase(Long tournamentId, TournamentCounters counters) {
+        long[] base = new long[COUNTRIES.length];
+        int present = 0;
+        for (TournamentCountryScore score : tournamentCountryScoreRepository.findByTournamentId(tournamentId)) {
+            base[score.getCountry().ordinal()] = score.getTotalScore();
+            present |= GroupMatchmaker.bit(score.getCountry());
+        }
+        counters.base = base;
+        counters.basePresent = present;
+    }
+
+    private static class TournamentCounters {
+        private final LongAdder[] pending = new LongAdder[COUNTRIES.length];
+        private final AtomicInteger joined = new AtomicInteger(); // Countries joined since the last flush
+        // Deltas being written by the current flush, still counted until the totals are reloaded
+        private long[] inFlight = new long[COUNTRIES.length];
+        private int inFlightJoined;
+        private volatile long[] base; // Persisted totals, null until (re)loaded
+        private int basePresent;
+
+        TournamentCounters() {
+            for (int i = 0; i < COUNTRIES.length; i++) {
+                pending[i] = new LongAdder();
+            }
+        }
+    }
+}
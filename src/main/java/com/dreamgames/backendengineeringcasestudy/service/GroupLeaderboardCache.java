@@ -0,0 +1,210 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import com.dreamgames.backendengineeringcasestudy.dto.GroupLeaderboardEntry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computed group leaderboards keyed by the version of their group.
+ * <p>
+ * A group's version is bumped in the database whenever a member joins or its
+ * scores change, so a leaderboard computed at a version stays valid until the
+ * version moves on. Entries are trusted for {@code revalidate-ms} after they
+ * were last checked; after that only the version is read again and the
+ * leaderboard is recomputed if it changed. Changes made by this node evict
+ * the group right away, changes made by other nodes are seen within
+ * {@code revalidate-ms}.
+ * <p>
+ * The cache also remembers which group each user plays in, so rank requests
+ * can be answered from here as long as the user's tournament is active. Both
+ * maps are bounded and drop their least recently used entries.
+ */
+@Component
+public class GroupLeaderboardCache {
+
+    @Value("${tournament.leaderboard-cache.revalidate-ms:1000}")
+    private long revalidateMs = 1000;
+
+    @Value("${tournament.leaderboard-cache.max-groups:100000}")
+    private int maxGroups = 100000;
+
+    private final Map<Long, CachedLeaderboard> leaderboards = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, CachedLeaderboard> eldest) {
+                    return size() > maxGroups;
+                }
+            });
+
+    private final Map<Long, Membership> memberships = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Membership> eldest) {
+                    return size() > maxGroups * GroupMatchmaker.GROUP_SIZE;
+                }
+            });
+
+    /**
+     * Builds the entity tag of a group leaderboard. Level-ups buffered by this
+     * node are part of the leaderboard but not of the version yet, so their
+     * points are part of the tag until they are flushed.
+     *
+     * @param groupId      the ID of the group
+     * @param version      the version of the group
+     * @param pendingScore the buffered score points of the group's participants
+     * @return the quoted entity tag
+     */
+    public static String eTag(Long groupId, long version, int pendingScore) {
+        return "\"g" + groupId + "v" + version + (pendingScore == 0 ? "" : "p" + pendingScore) + "\"";
+    }
+
+    /**
+     * Retrieves the leaderboard of a group if it was checked recently enough
+     * to be returned without reading its version.
+     *
+     * @param groupId the ID of the group
+     * @return the cached leaderboard, or null if it has to be revalidated
+     */
+    public CachedLeaderboard getFresh(Long groupId) {
+        CachedLeaderboard cached = leaderboards.get(groupId);
+        return cached != null && System.nanoTime() - cached.checkedAt < revalidateMs * 1_000_000 ? cached : null;
+    }
+
+    /**
+     * Retrieves the leaderboard of a group regardless of when it was checked.
+     *
+     * @param groupId the ID of the group
+     * @return the cached leaderboard, or null if none is cached
+     */
+    public CachedLeaderboard get(Long groupId) {
+        return leaderboards.get(groupId);
+    }
+
+    /**
+     * Caches the leaderboard of a group at the given version.
+     *
+     * @param groupId      the ID of the group
+     * @param version      the version the leaderboard was computed at
+     * @param pendingScore the buffered score points included in the leaderboard
+     * @param leaderboard  the leaderboard entries
+     * @return the cached leaderboard
+     */
+    public CachedLeaderboard put(Long groupId, long version, int pendingScore,
+            List<GroupLeaderboardEntry> leaderboard) {
+        CachedLeaderboard cached = new CachedLeaderboard(version, eTag(groupId, version, pendingScore),
+                Collections.unmodifiableList(leaderboard));
+        leaderboards.put(groupId, cached);
+        return cached;
+    }
+
+    /**
+     * Marks a cached leaderboard whose version was read again and did not
+     * change as checked.
+     *
+     * @param groupId the ID of the group
+     * @param cached  the cached leaderboard
+     * @return the cached leaderboard
+     */
+    public CachedLeaderboard revalidated(Long groupId, CachedLeaderboard cached) {
+        CachedLeaderboard checked = new CachedLeaderboard(cached.version, cached.eTag, cached.entries);
+        leaderboards.replace(groupId, cached, checked);
+        return checked;
+    }
+
+    /**
+     * Drops the leaderboard of a group this node changed. Within a transaction
+     * the group is dropped after the commit, so a concurrent read cannot cache
+     * the leaderboard as it was before the change once more.
+     *
+     * @param groupId the ID of the group
+     */
+    public void evict(Long groupId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    leaderboards.remove(groupId);
+                }
+            });
+        } else {
+            leaderboards.remove(groupId);
+        }
+    }
+
+    /**
+     * Retrieves the group a user was last seen playing in.
+     *
+     * @param userId the ID of the user
+     * @return the membership, or null if unknown
+     */
+    public Membership getMembership(Long userId) {
+        return memberships.get(userId);
+    }
+
+    /**
+     * Remembers the group a user plays in.
+     *
+     * @param userId       the ID of the user
+     * @param tournamentId the ID of the group's tournament
+     * @param groupId      the ID of the group
+     */
+    public void putMembership(Long userId, Long tournamentId, Long groupId) {
+        memberships.put(userId, new Membership(tournamentId, groupId));
+    }
+
+    /**
+     * A computed leaderboard and the group version it belongs to.
+     */
+    public static class CachedLeaderboard {
+        private final long version;
+        private final String eTag;
+        private final List<GroupLeaderboardEntry> entries;
+        private final long checkedAt = System.nanoTime();
+
+        CachedLeaderboard(long version, String eTag, List<GroupLeaderboardEntry> entries) {
+            this.version = version;
+            this.eTag = eTag;
+            this.entries = entries;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public List<GroupLeaderboardEntry> getEntries() {
+            return entries;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+    }
+
+    /**
+     * The group a user plays in.
+     */
+    public static class Membership {
+        private final Long tournamentId;
+        private final Long groupId;
+
+        Membership(Long tournamentId, Long groupId) {
+            this.tournamentId = tournamentId;
+            this.groupId = groupId;
+        }
+
+        public Long getTournamentId() {
+            return tournamentId;
+        }
+
+        public Long getGroupId() {
+            return groupId;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import com.dreamgames.backendengineeringcasestudy.model.Country;
+import com.dreamgames.backendengineeringcasestudy.model.TournamentGroup;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * In-memory matchmaking index of the open groups of each active tournament.
+ * <p>
+ * For every country the index keeps a FIFO queue of the open groups that are
+ * still missing that country. Placing a user is a single poll of the queue of
+ * their country, so no database scan is needed to find a slot. The oldest open
+ * group is always offered first, matching the previous "lowest group id first"
+ * behavior.
+ * <p>
+ * When several nodes share the database the index is only a hint: the slot is
+ * claimed with a conditional update on the group's country bitmask, and a slot
+ * that turns out to be taken on another node is simply skipped.
+ */
+@Component
+public class GroupMatchmaker {
+
+    public static final int GROUP_SIZE = Country.values().length;
+
+    public static final int FULL_MASK = (1 << GROUP_SIZE) - 1;
+
+    private static final List<List<Integer>> OPEN_MASKS_WITHOUT = new ArrayList<>();
+
+    static {
+        for (int i = 0; i < GROUP_SIZE; i++) {
+            List<Integer> masks = new ArrayList<>();
+            for (int mask = 0; mask < FULL_MASK; mask++) {
+                if ((mask & (1 << i)) == 0) {
+                    masks.add(mask);
+                }
+            }
+            OPEN_MASKS_WITHOUT.add(Collections.unmodifiableList(masks));
+        }
+    }
+
+    private final Map<Long, TournamentIndex> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the bit of the given country in a group's occupied-countries mask.
+     *
+     * @param country the country
+     * @return the country bit
+     */
+    public static int bit(Country country) {
+        return 1 << country.ordinal();
+    }
+
+    /**
+     * Returns every occupied-countries mask of an open group that still has a
+     * free slot for the given country.
+     *
+     * @param country the country
+     * @return the matching masks
+     */
+    public static List<Integer> openMasksWithout(Country country) {
+        return OPEN_MASKS_WITHOUT.get(country.ordinal());
+    }
+
+    /**
+     * Reserves a slot for a user of the given country in the oldest open group
+     * that is still missing that country.
+     *
+     * @param tournamentId the ID of the tournament
+     * @param country      the country of the user
+     * @param openGroups   loads the open groups of the tournament if it is not
+     *                     indexed yet
+     * @return the reserved slot, or null if a new group has to be created
+     */
+    public Slot reserveSlot(Long tournamentId, Country country, Supplier<List<TournamentGroup>> openGroups) {
+        return indexes.computeIfAbsent(tournamentId, id -> TournamentIndex.of(openGroups.get()))
+                .reserve(country);
+    }
+
+    /**
+     * Indexes the open groups of a tournament up front, e.g. the pre-allocated
+     * groups of a tournament that is about to receive its first entries.
+     *
+     * @param tournamentId the ID of the tournament
+     * @param openGroups   the open groups of the tournament
+     */
+    public void load(Long tournamentId, List<TournamentGroup> openGroups) {
+        indexes.put(tournamentId, TournamentIndex.of(openGroups));
+    }
+
+    /**
+     * Registers a newly created group that already holds a user of the given
+     * country.
+     *
+     * @param tournamentId the ID of the tournament
+     * @param groupId      the ID of the new group
+     * @param country      the country of the first participant
+     */
+    public void addGroup(Long tournamentId, Long groupId, Country country) {
+        TournamentIndex index = indexes.get(tournamentId);
+        if (index != null) {
+            index.add(groupId, bit(country));
+        }
+    }
+
+    /**
+     * Updates the index with the occupied countries of a group as seen in the
+     * database, e.g. after other nodes placed users into it.
+     *
+     * @param tournamentId      the ID of the tournament
+     * @param groupId           the ID of the group
+     * @param occupiedCountries the occupied-countries mask of the group
+     */
+    public void syncGroup(Long tournamentId, Long groupId, int occupiedCountries) {
+        TournamentIndex index = indexes.get(tournamentId);
+        if (index != null) {
+            index.sync(groupId, occupiedCountries);
+        }
+    }
+
+    /**
+     * Gives back a slot that was reserved but could not be persisted.
+     *
+     * @param tournamentId the ID of the tournament
+     * @param groupId      the ID of the group
+     * @param country      the country of the reserved slot
+     */
+    public void releaseSlot(Long tournamentId, Long groupId, Country country) {
+        TournamentIndex index = indexes.get(tournamentId);
+        if (index != null) {
+            index.release(groupId, country);
+        }
+    }
+
+    /**
+     * Drops the index of a tournament, e.g. once it has ended.
+     *
+     * @param tournamentId the ID of the tournament
+     */
+    public void evict(Long tournamentId) {
+        indexes.remove(tournamentId);
+    }
+
+    /**
+     * A reserved slot in an open group.
+     */
+    public static class Slot {
+        private final Long groupId;
+        private final boolean completesGroup;
+
+        public Slot(Long groupId, boolean completesGroup) {
+            this.groupId = groupId;
+            this.completesGroup = completesGroup;
+        }
+
+        public Long getGroupId() {
+            return groupId;
+        }
+
+        public boolean completesGroup() {
+            return completesGroup;
+        }
+    }
+
+    private static class OpenGroup {
+        private final Long id;
+        private int occupied; // Bitmask of Country ordinals already in the group
+
+        OpenGroup(Long id, int occupied) {
+            this.id = id;
+            this.occupied = occupied;
+        }
+    }
+
+    private static class TournamentIndex {
+        private final Map<Long, OpenGroup> groups = new HashMap<>();
+        private final ArrayDeque<OpenGroup>[] missing;
+
+        @SuppressWarnings("unchecked")
+        TournamentIndex() {
+            missing = new ArrayDeque[GROUP_SIZE];
+            for (int i = 0; i < GROUP_SIZE; i++) {
+                missing[i] = new ArrayDeque<>();
+            }
+        }
+
+        static TournamentIndex of(List<TournamentGroup> openGroups) {
+            TournamentIndex index = new TournamentIndex();
+            openGroups.stream()
+                    .filter(group -> !group.getCompetitionStarted())
+                    .sorted(Comparator.comparing(TournamentGroup::getId))
+                    .forEach(group -> index.add(group.getId(), group.getOccupiedCountries()));
+            return index;
+        }
+
+        synchronized void add(Long groupId, int occupied) {
+            if (occupied == FULL_MASK || groups.containsKey(groupId)) {
+                return;
+            }
+            OpenGroup group = new OpenGroup(groupId, occupied);
+            groups.put(groupId, group);
+            for (int i = 0; i < GROUP_SIZE; i++) {
+                if ((occupied & (1 << i)) == 0) {
+                    missing[i].addLast(group);
+                }
+            }
+        }
+
+        synchronized Slot reserve(Country country) {
+            int bit = bit(country);
+            OpenGroup group;
+            do {
+                group = missing[country.ordinal()].pollFirst();
+                // Skip entries of groups that were filled or synced from another node in the meantime
+            } while (group != null && (groups.get(group.id) != group || (group.occupied & bit) != 0));
+            if (group == null) {
+                return null;
+            }
+            group.occupied |= bit;
+            boolean full = group.occupied == FULL_MASK;
+            if (full) {
+                groups.remove(group.id);
+            }
+            return new Slot(group.id, full);
+        }
+
+        synchronized void sync(Long groupId, int occupied) {
+            OpenGroup group = groups.get(groupId);
+            if (group == null) {
+                add(groupId, occupied);
+                return;
+            }
+            if (occupied == FULL_MASK) {
+                groups.remove(groupId);
+                return;
+            }
+            for (int i = 0; i < GROUP_SIZE; i++) {
+                int bit = 1 << i;
+                if ((occupied & bit) == 0 && (group.occupied & bit) != 0) {
+                    missing[i].addFirst(group);
+                }
+            }
+            group.occupied = occupied;
+        }
+
+        synchronized void release(Long groupId, Country country) {
+            int bit = bit(country);
+            OpenGroup group = groups.get(groupId);
+            if (group == null) {
+                // The reservation completed the group, so it has to be reopened
+                group = new OpenGroup(groupId, FULL_MASK);
+                groups.put(groupId, group);
+            }
+            if ((group.occupied & bit) != 0) {
+                group.occupied &= ~bit;
+                missing[country.ordinal()].addFirst(group);
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import com.dreamgames.backendengineeringcasestudy.dto.GroupLeaderboardEntry;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentGroupRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lets users wait for their tournament group to start without polling.
+ * <p>
+ * Waiting requests are parked as futures per group and hold no thread. The
+ * entry that completes a group on this node publishes {@link GroupStarted},
+ * which wakes the group's waiters with its leaderboard once the entry is
+ * committed. Groups completed on other
+ * nodes are found by checking all waited-for groups with one query every
+ * {@code tournament.start-wait.poll-ms}.
+ */
+@Component
+public class GroupStartWaiters {
+
+    private static final Logger logger = LoggerFactory.getLogger(GroupStartWaiters.class);
+
+    @Autowired
+    private TournamentService tournamentService;
+
+    @Autowired
+    private TournamentGroupRepository tournamentGroupRepository;
+
+    private final Map<Long, Set<CompletableFuture<List<GroupLeaderboardEntry>>>> waiters = new ConcurrentHashMap<>();
+
+    /**
+     * Waits for the group of a user in the active tournament to start. The
+     * caller cancels the returned future when it stops waiting.
+     *
+     * @param userId the ID of the user
+     * @return completes with the group's leaderboard once the group started
+     * @throws IllegalArgumentException if the user is not found or not part of the
+     *                                  active tournament
+     */
+    public CompletableFuture<List<GroupLeaderboardEntry>> awaitStart(Long userId) {
+        Long groupId = tournamentService.getActiveGroupId(userId);
+        CompletableFuture<List<GroupLeaderboardEntry>> started = new CompletableFuture<>();
+        waiters.computeIfAbsent(groupId, id -> ConcurrentHashMap.newKeySet()).add(started);
+        started.whenComplete((leaderboard, error) -> waiters.computeIfPresent(groupId, (id, groupWaiters) -> {
+            groupWaiters.remove(started);
+            return groupWaiters.isEmpty() ? null : groupWaiters;
+        }));
+        // Checked after registering, so a group that starts in between still wakes the waiter
+        if (!tournamentGroupRepository.findStartedIds(Collections.singleton(groupId)).isEmpty()) {
+            started.complete(tournamentService.getLeaderboard(groupId));
+        }
+        return started;
+    }
+
+    /**
+     * Wakes the waiters of a group that was completed on this node, once the
+     * entry that completed it is committed.
+     *
+     * @param event the started group
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void groupStarted(GroupStarted event) {
+        wake(event.getGroupId(), event.getLeaderboard());
+    }
+
+    /**
+     * Wakes the waiters of groups that were completed on other nodes.
+     */
+    @Scheduled(fixedDelayString = "${tournament.start-wait.poll-ms:1000}")
+    public void pollStartedGroups() {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        try {
+            for (Long groupId : tournamentGroupRepository.findStartedIds(waiters.keySet())) {
+                wake(groupId, tournamentService.getLeaderboard(groupId));
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Failed to check the groups users are waiting for", e);
+        }
+    }
+
+    /**
+     * Counts the requests waiting on this node.
+     *
+     * @return the number of waiting requests
+     */
+    public int waiterCount() {
+        return waiters.values().stream().mapToInt(Set::size).sum();
+    }
+
+    private void wake(Long groupId, List<GroupLeaderboardEntry> leaderboard) {
+        Set<CompletableFuture<List<GroupLeaderboardEntry>>> groupWaiters = waiters.remove(groupId);
+        if (groupWaiters != null) {
+            groupWaiters.forEach(waiter -> waiter.complete(leaderboard));
+        }
+    }
+
+    /**
+     * Published by the entry that fills a group and starts its competition.
+     */
+    public static class GroupStarted {
+        private final Long groupId;
+        private final List<GroupLeaderboardEntry> leaderboard;
+
+        public GroupStarted(Long groupId, List<GroupLeaderboardEntry> leaderboard) {
+            this.groupId = groupId;
+            this.leaderboard = leaderboard;
+        }
+
+        public Long getGroupId() {
+            return groupId;
+        }
+
+        public List<GroupLeaderboardEntry> getLeaderboard() {
+            return leaderboard;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import com.dreamgames.backendengineeringcasestudy.dto.GroupLeaderboardEntry;
+import com.dreamgames.backendengineeringcasestudy.dto.Versioned;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Pushes group and country leaderboards to Server-Sent Events subscribers.
+ * <p>
+ * Subscriptions are asynchronous requests, so an idle subscriber holds a
+ * connection but no thread. Score changes only mark the subscribed
+ * leaderboards as changed. Every {@code leaderboard.stream.interval-ms} each
+ * changed leaderboard is read once, serialized once and sent to all of its
+ * subscribers, so a burst of level-ups results in at most one frame per
+ * subscriber and interval. Frames are only sent if the leaderboard differs
+ * from the last frame. Changes made on other nodes, and entries, are picked
+ * up by marking every subscribed leaderboard as changed every
+ * {@code leaderboard.stream.refresh-ms}.
+ */
+@Component
+public class LeaderboardStreams {
+
+    private static final Logger logger = LoggerFactory.getLogger(LeaderboardStreams.class);
+
+    static final String LEADERBOARD_EVENT = "leaderboard";
+
+    @Value("${leaderboard.stream.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    @Value("${leaderboard.stream.senders:4}")
+    private int senders;
+
+    @Autowired
+    private TournamentService tournamentService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private ExecutorService executor;
+
+    private final Map<Long, Topic> groupTopics = new ConcurrentHashMap<>();
+
+    private final Map<Long, Topic> countryTopics = new ConcurrentHashMap<>(); // By tournament ID
+
+    @PostConstruct
+    void start() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(senders, runnable -> {
+            Thread thread = new Thread(runnable, "leaderboard-stream-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+        allTopics().forEach(Topic::completeAll);
+    }
+
+    /**
+     * Subscribes to the leaderboard of a tournament group. The current
+     * leaderboard is sent right away.
+     *
+     * @param groupId the ID of the tournament group
+     * @return the event stream
+     * @throws IllegalArgumentException if the group is not found
+     */
+    public SseEmitter subscribeGroup(Long groupId) {
+        Frame frame = readGroup(groupId);
+        return subscribe(groupTopics, groupId, frame);
+    }
+
+    /**
+     * Subscribes to the country leaderboard of a tournament. The current
+     * leaderboard is sent right away.
+     *
+     * @param tournamentId the ID of the tournament
+     * @return the event stream
+     * @throws IllegalArgumentException if the tournament is not found
+     */
+    public SseEmitter subscribeCountries(Long tournamentId) {
+        Frame frame = readCountries(tournamentId);
+        return subscribe(countryTopics, tournamentId, frame);
+    }
+
+    /**
+     * Marks the leaderboards a score change shows up in as changed.
+     *
+     * @param tournamentId the ID of the tournament
+     * @param groupId      the ID of the tournament group
+     */
+    public void scoreChanged(Long tournamentId, Long groupId) {
+        Topic group = groupTopics.get(groupId);
+        if (group != null) {
+            group.changed.set(true);
+        }
+        Topic countries = countryTopics.get(tournamentId);
+        if (countries != null) {
+            countries.changed.set(true);
+        }
+    }
+
+    /**
+     * Sends the changed leaderboards to their subscribers.
+     */
+    @Scheduled(fixedDelayString = "${leaderboard.stream.interval-ms:1000}")
+    public void publish() {
+        groupTopics.forEach((groupId, topic) -> {
+            if (topic.startPublishing()) {
+                executor.execute(() -> publish(topic, () -> readGroup(groupId)));
+            }
+        });
+        countryTopics.forEach((tournamentId, topic) -> {
+            if (topic.startPublishing()) {
+                executor.execute(() -> publish(topic, () -> readCountries(tournamentId)));
+            }
+        });
+    }
+
+    /**
+     * Marks every subscribed leaderboard as changed, for changes this node
+     * was not told about.
+     */
+    @Scheduled(fixedDelayString = "${leaderboard.stream.refresh-ms:5000}")
+    public void refresh() {
+        allTopics().forEach(topic -> topic.changed.set(true));
+    }
+
+    /**
+     * Sends a comment to all subscribers, which keeps proxies from closing
+     * idle streams and finds the subscribers that went away.
+     */
+    @Scheduled(fixedDelayString = "${leaderboard.stream.keepalive-ms:15000}")
+    public void keepAlive() {
+        allTopics().forEach(topic -> executor.execute(() -> topic.sendAll(() -> SseEmitter.event().comment(""))));
+    }
+
+    /**
+     * Counts the subscribers of this node.
+     *
+     * @return the number of open streams
+     */
+    public int subscriberCount() {
+        return allTopics().mapToInt(topic -> topic.subscribers.size()).sum();
+    }
+
+    private Stream<Topic> allTopics() {
+        return Stream.concat(groupTopics.values().stream(), countryTopics.values().stream());
+    }
+
+    private SseEmitter subscribe(Map<Long, Topic> topics, Long key, Frame frame) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Runnable unsubscribe = () -> topics.computeIfPresent(key, (id, topic) -> {
+            topic.subscribers.remove(emitter);
+            return topic.subscribers.isEmpty() ? null : topic;
+        });
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(unsubscribe);
+        emitter.onError(error -> unsubscribe.run());
+        Topic topic = topics.compute(key, (id, existing) -> {
+            Topic subscribed = existing == null ? new Topic(frame) : existing;
+            subscribed.subscribers.add(emitter);
+            return subscribed;
+        });
+        try {
+            emitter.send(frame.event());
+        } catch (IOException e) {
+            topic.subscribers.remove(emitter);
+        }
+        return emitter;
+    }
+
+    private void publish(Topic topic, FrameReader reader) {
+        try {
+            Frame frame = reader.read();
+            if (!frame.id.equals(topic.lastFrameId)) {
+                topic.lastFrameId = frame.id;
+                topic.sendAll(frame::event);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Failed to publish a streamed leaderboard", e);
+        } finally {
+            topic.publishing.set(false);
+        }
+    }
+
+    private Frame readGroup(Long groupId) {
+        Versioned<List<GroupLeaderboardEntry>> leaderboard = tournamentService.getVersionedLeaderboard(groupId);
+        return new Frame(leaderboard.getETag(), toJson(leaderboard.getValue()));
+    }
+
+    private Frame readCountries(Long tournamentId) {
+        String json = toJson(tournamentService.getCountryLeaderboard(tournamentId));
+        return new Frame(json, json); // Small enough to compare as a whole
+    }
+
+    private String toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private interface FrameReader {
+        Frame read();
+    }
+
+    /**
+     * A leaderboard serialized once for all subscribers.
+     */
+    private static class Frame {
+        private final String id;
+        private final String json;
+
+        Frame(String id, String json) {
+            this.id = id;
+            this.json = json;
+        }
+
+        // Builders append to themselves when they are sent, so every subscriber gets a new one
+        SseEmitter.SseEventBuilder event() {
+            return SseEmitter.event().name(LEADERBOARD_EVENT).data(json, MediaType.APPLICATION_JSON);
+        }
+    }
+
+    /**
+     * The subscribers of one leaderboard.
+     */
+    private static class Topic {
+        private final Set<SseEmitter> subscribers = ConcurrentHashMap.newKeySet();
+        private final AtomicBoolean changed = new AtomicBoolean();
+        private final AtomicBoolean publishing = new AtomicBoolean();
+        private volatile String lastFrameId;
+
+        Topic(Frame initial) {
+            lastFrameId = initial.id;
+        }
+
+        // Claims the next frame, a frame still being sent picks the change up next interval
+        boolean startPublishing() {
+            if (!changed.get() || !publishing.compareAndSet(false, true)) {
+                return false;
+            }
+            changed.set(false);
+            return true;
+        }
+
+        void sendAll(Supplier<SseEmitter.SseEventBuilder> event) {
+            for (SseEmitter subscriber : subscribers) {
+                try {
+                    subscriber.send(event.get());
+                } catch (IOException | IllegalStateException e) {
+                    subscribers.remove(subscriber); // Gone, the container completes the stream
+                }
+            }
+        }
+
+        void completeAll() {
+            subscribers.forEach(SseEmitter::complete);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import com.dreamgames.backendengineeringcasestudy.dto.TournamentCloseProgress;
+import com.dreamgames.backendengineeringcasestudy.model.Tournament;
+import com.dreamgames.backendengineeringcasestudy.model.TournamentCloseChunk;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentCloseChunkRepository;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentGroupRepository;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentRepository;
+import com.dreamgames.backendengineeringcasestudy.scheduler.SchedulerLeader;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Closes tournaments as a chunked, resumable job.
+ * <p>
+ * Closing a tournament deactivates it and splits its groups into chunks of
+ * consecutive group IDs, all in one transaction. The chunks are then rewarded
+ * in parallel by a bounded pool of workers. Each chunk is checkpointed in the
+ * same transaction that writes its rewards, so a chunk is rewarded exactly once
+ * even if a node dies midway or several nodes pick it up. Chunks left behind
+ * by a crash are resumed periodically.
+ * <p>
+ * The number of workers bounds the database connections the job takes away
+ * from live traffic, and an optional pause between chunks slows it down further.
+ * In the lazy rewards mode no chunks are planned at all, see
+ * {@link TournamentService#materializeLazyRewards}.
+ * <p>
+ * Once a tournament is finished its {@link TournamentSnapshot} is taken, so
+ * reads of its leaderboards no longer reach the database.
+ */
+@Component
+public class TournamentCloseJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(TournamentCloseJob.class);
+
+    @Value("${tournament.close.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${tournament.close.workers:4}")
+    private int workers;
+
+    @Value("${tournament.close.chunk-pause-ms:0}")
+    private long chunkPauseMs;
+
+    @Autowired
+    private TournamentService tournamentService;
+
+    @Autowired
+    private TournamentRepository tournamentRepository;
+
+    @Autowired
+    private TournamentGroupRepository tournamentGroupRepository;
+
+    @Autowired
+    private TournamentCloseChunkRepository tournamentCloseChunkRepository;
+
+    @Autowired
+    private UserProgressBuffer userProgressBuffer;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private SchedulerLeader schedulerLeader;
+
+    private ExecutorService executor;
+
+    private final Set<Long> queuedChunkIds = ConcurrentHashMap.newKeySet();
+
+    private final Map<Long, Throughput> throughputs = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void start() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "tournament-close-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stop() {
+        // Interrupted chunks roll back and are resumed after the restart
+        executor.shutdownNow();
+    }
+
+    /**
+     * Ends all active tournaments and starts distributing their rewards.
+     *
+     * @return completes once the rewards of the ended tournaments are distributed
+     */
+    public CompletableFuture<Void> closeActiveTournaments() {
+        return closeActiveTournaments(() -> { });
+    }
+
+    /**
+     * Ends all active tournaments and starts distributing their rewards, after
+     * running the given check in the transaction that ends them, e.g.
+     * {@link SchedulerLeader#fence(long)}.
+     *
+     * @param check runs before the tournaments are ended and aborts by throwing
+     * @return completes once the rewards of the ended tournaments are distributed
+     */
+    public CompletableFuture<Void> closeActiveTournaments(Runnable check) {
+        return close(check, tournament -> true, new ArrayList<>());
+    }
+
+    /**
+     * Ends all active tournaments like {@link #closeActiveTournaments(Runnable)}
+     * without waiting for their rewards to be distributed.
+     *
+     * @param check runs before the tournaments are ended and aborts by throwing
+     * @return the IDs of the ended tournaments, see {@link #getProgress(Long)}
+     */
+    public List<Long> startClosingActiveTournaments(Runnable check) {
+        List<Long> closedIds = new ArrayList<>();
+        close(check, tournament -> true, closedIds);
+        return closedIds;
+    }
+
+    /**
+     * Ends the active tournaments whose end time has passed, e.g. because the
+     * 20:00 close was missed while no node held the scheduler lease, and
+     * starts distributing their rewards.
+     *
+     * @param check runs before the tournaments are ended and aborts by throwing
+     * @return completes once the rewards of the ended tournaments are distributed
+     */
+    public CompletableFuture<Void> closeOverdueTournaments(Runnable check) {
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        return close(check, tournament -> tournament.getEndTime() != null && !tournament.getEndTime().isAfter(now),
+                new ArrayList<>());
+    }
+
+    private CompletableFuture<Void> close(Runnable check, Predicate<Tournament> due, List<Long> closedIds) {
+        userProgressBuffer.flush(); // Rewards are based on the persisted scores
+        List<Long> finishedIds = new ArrayList<>();
+        List<TournamentCloseChunk> chunks = transactionTemplate.execute(status -> {
+            check.run();
+            closedIds.clear();
+            finishedIds.clear();
+            List<TournamentCloseChunk> planned = new ArrayList<>();
+            for (Tournament tournament : tournamentRepository.findByIsActiveTrue()) {
+                if (!due.test(tournament)) {
+                    continue;
+                }
+                tournamentService.deactivateTournament(tournament);
+                closedIds.add(tournament.getId());
+                if (tournament.isLazyRewards()) {
+                    logger.info("Closed tournament {}, its rewards are computed when its users return",
+                            tournament.getId());
+                    finishedIds.add(tournament.getId());
+                } else {
+                    planned.addAll(planChunks(tournament));
+                }
+            }
+            return planned;
+        });
+        finishedIds.forEach(tournamentId -> executor.execute(() -> takeSnapshot(tournamentId)));
+        return submit(chunks);
+    }
+
+    /**
+     * Resumes the chunks of tournaments whose closing was interrupted. Only the
+     * node that runs the scheduled jobs resumes them.
+     */
+    @Scheduled(fixedDelayString = "${tournament.close.resume-interval-ms:60000}",
+            initialDelayString = "${tournament.close.resume-initial-delay-ms:10000}")
+    public void resumePendingChunks() {
+        if (!schedulerLeader.isLeader()) {
+            return;
+        }
+        List<TournamentCloseChunk> pending = tournamentCloseChunkRepository.findByCompletedFalseOrderByIdAsc();
+        if (!pending.isEmpty()) {
+            logger.info("Resuming {} pending tournament close chunks", pending.size());
+            submit(pending);
+        }
+    }
+
+    /**
+     * Retrieves the progress of closing a tournament.
+     *
+     * @param tournamentId the ID of the tournament
+     * @return the close progress
+     * @throws IllegalArgumentException if the tournament is not found
+     */
+    public TournamentCloseProgress getProgress(Long tournamentId) {
+        Tournament tournament = tournamentRepository.findById(tournamentId)
+                .orElseThrow(() -> new IllegalArgumentException("Tournament not found"));
+        List<TournamentCloseChunk> chunks = tournamentCloseChunkRepository.findByTournamentId(tournamentId);
+        int completedChunks = 0;
+        long totalGroups = 0;
+        long completedGroups = 0;
+        for (TournamentCloseChunk chunk : chunks) {
+            totalGroups += chunk.getGroupCount();
+            if (chunk.isCompleted()) {
+                completedChunks++;
+                completedGroups += chunk.getGroupCount();
+            }
+        }
+        Throughput throughput = throughputs.get(tournamentId);
+        return new TournamentCloseProgress(tournamentId, chunks.size(), completedChunks, totalGroups,
+                completedGroups, tournament.isRewardsDistributed(),
+                throughput == null ? 0 : throughput.groupsPerSecond());
+    }
+
+    private List<TournamentCloseChunk> planChunks(Tournament tournament) {
+        List<Long> groupIds = tournamentGroupRepository.findIdsByTournament(tournament);
+        if (groupIds.isEmpty()) {
+            tournamentRepository.markRewardsDistributed(tournament.getId());
+            return new ArrayList<>();
+        }
+        List<TournamentCloseChunk> chunks = new ArrayList<>();
+        for (int from = 0; from < groupIds.size(); from += chunkSize) {
+            int to = Math.min(from + chunkSize, groupIds.size());
+            chunks.add(new TournamentCloseChunk(tournament.getId(), groupIds.get(from), groupIds.get(to - 1),
+                    to - from));
+        }
+        logger.info("Closing tournament {} with {} groups in {} chunks",
+                tournament.getId(), groupIds.size(), chunks.size());
+        return tournamentCloseChunkRepository.saveAll(chunks);
+    }
+
+    private CompletableFuture<Void> submit(List<TournamentCloseChunk> chunks) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (TournamentCloseChunk chunk : chunks) {
+            if (queuedChunkIds.add(chunk.getId())) {
+                futures.add(CompletableFuture.runAsync(() -> process(chunk), executor)
+                        .whenComplete((result, e) -> queuedChunkIds.remove(chunk.getId())));
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    private void process(TournamentCloseChunk chunk) {
+        Long tournamentId = chunk.getTournamentId();
+        Throughput throughput = throughputs.computeIfAbsent(tournamentId, id -> new Throughput());
+        long started = System.nanoTime();
+        try {
+            Boolean processed = transactionTemplate.execute(status -> {
+                LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+                if (tournamentCloseChunkRepository.markCompleted(chunk.getId(), now) == 0) {
+                    return false; // Already processed, e.g. by another node
+                }
+                tournamentService.distributeRewards(tournamentRepository.getReferenceById(tournamentId),
+                        chunk.getFirstGroupId(), chunk.getLastGroupId());
+                return true;
+            });
+            if (Boolean.TRUE.equals(processed)) {
+                throughput.record(chunk.getGroupCount(), started);
+            }
+            if (tournamentCloseChunkRepository.countByTournamentIdAndCompletedFalse(tournamentId) == 0
+                    && tournamentRepository.markRewardsDistributed(tournamentId) == 1) {
+                logger.info("Distributed the rewards of tournament {} at {} groups/s",
+                        tournamentId, String.format("%.0f", throughput.groupsPerSecond()));
+                takeSnapshot(tournamentId);
+            }
+            if (chunkPauseMs > 0) {
+                TimeUnit.MILLISECONDS.sleep(chunkPauseMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.error("Failed to close chunk {} of tournament {}, it will be retried", chunk.getId(), tournamentId, e);
+            throw e;
+        }
+    }
+
+    // Readers take a missing snapshot themselves, so a failure here is not retried
+    private void takeSnapshot(Long tournamentId) {
+        try {
+            tournamentService.getSnapshot(tournamentId);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to take the snapshot of tournament {}", tournamentId, e);
+        }
+    }
+
+    private static class Throughput {
+        private final LongAdder groups = new LongAdder();
+        private final AtomicLong firstStart = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong lastEnd = new AtomicLong();
+
+        void record(int groupCount, long started) {
+            groups.add(groupCount);
+            firstStart.accumulateAndGet(started, Math::min);
+            lastEnd.accumulateAndGet(System.nanoTime(), Math::max);
+        }
+
+        double groupsPerSecond() {
+            long elapsed = lastEnd.get() - firstStart.get();
+            return elapsed <= 0 ? 0 : groups.sum() * 1e9 / elapsed;
+        }
+    }
+}
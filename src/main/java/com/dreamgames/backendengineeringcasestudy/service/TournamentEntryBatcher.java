@@ -0,0 +1,376 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import com.dreamgames.backendengineeringcasestudy.debug.SqlStatistics;
+import com.dreamgames.backendengineeringcasestudy.dto.GroupLeaderboardEntry;
+import com.dreamgames.backendengineeringcasestudy.dto.ParticipantScore;
+import com.dreamgames.backendengineeringcasestudy.model.Country;
+import com.dreamgames.backendengineeringcasestudy.model.Tournament;
+import com.dreamgames.backendengineeringcasestudy.model.TournamentUser;
+import com.dreamgames.backendengineeringcasestudy.model.User;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentGroupRepository;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentUserRepository;
+import com.dreamgames.backendengineeringcasestudy.repository.UserRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Opt-in micro-batching of tournament entries.
+ * <p>
+ * Entry requests are collected for a short window and then validated, matched
+ * into groups and persisted together: the coin deductions, participant inserts
+ * and group updates of a batch are each sent as one JDBC batch, and the
+ * leaderboards of all touched groups are read with a single query. Every caller
+ * still receives the leaderboard of its own group. If a batch fails, its
+ * entries are retried one at a time, so only the failing entries fail.
+ */
+@Component
+public class TournamentEntryBatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(TournamentEntryBatcher.class);
+
+    private static final int ENTRY_FEE = TournamentService.ENTRY_FEE;
+
+    private static final int MIN_LEVEL = TournamentService.MIN_LEVEL;
+
+    private static final int MAX_CLAIM_ATTEMPTS = 10;
+
+    // Same claim as TournamentGroupRepository.claimSlot, with one placeholder per open mask
+    private static final String CLAIM_SLOT_SQL = "UPDATE tournament_groups SET "
+            + "competition_started = CASE WHEN occupied_countries + ? = ? THEN TRUE ELSE FALSE END, "
+            + "occupied_countries = occupied_countries + ?, version = version + 1 "
+            + "WHERE id = ? AND occupied_countries IN ("
+            + String.join(", ", Collections.nCopies(GroupMatchmaker.openMasksWithout(Country.TURKEY).size(), "?"))
+            + ")";
+
+    @Value("${tournament.entry.batching.enabled:false}")
+    private boolean enabled;
+
+    @Value("${tournament.entry.batching.window-ms:5}")
+    private long windowMs;
+
+    @Value("${tournament.entry.batching.max-size:500}")
+    private int maxBatchSize;
+
+    @Autowired
+    private TournamentService tournamentService;
+
+    @Autowired
+    private GroupMatchmaker groupMatchmaker;
+
+    @Autowired
+    private UserProgressBuffer userProgressBuffer;
+
+    @Autowired
+    private GroupLeaderboardCache groupLeaderboardCache;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TournamentGroupRepository tournamentGroupRepository;
+
+    @Autowired
+    private TournamentUserRepository tournamentUserRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    private final BlockingQueue<PendingEntry> queue = new LinkedBlockingQueue<>();
+
+    private Thread worker;
+
+    @PostConstruct
+    void start() {
+        if (enabled) {
+            worker = new Thread(this::run, "tournament-entry-batcher");
+            worker.setDaemon(true);
+            worker.start();
+            logger.info("Tournament entry batching enabled with a {} ms window", windowMs);
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        if (worker != null) {
+            worker.interrupt();
+        }
+        List<PendingEntry> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        remaining.forEach(entry -> entry.result.completeExceptionally(
+                new IllegalStateException("Server is shutting down")));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues the user for the next entry batch and waits for its result.
+     *
+     * @param userId the ID of the user
+     * @return the leaderboard of the user's tournament group
+     * @throws IllegalArgumentException if the user does not meet the requirements
+     */
+    public List<GroupLeaderboardEntry> enterTournament(Long userId) {
+        PendingEntry entry = new PendingEntry(userId);
+        queue.add(entry);
+        try {
+            return entry.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                List<PendingEntry> batch = new ArrayList<>();
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMs);
+                while (batch.size() < maxBatchSize) {
+                    PendingEntry next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                // The statements of the batch count for each request in it
+                SqlStatistics.recordFor(batch.stream().map(entry -> entry.statistics).collect(Collectors.toList()),
+                        () -> {
+                            processBatch(batch);
+                            return null;
+                        });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                logger.error("Unexpected error in tournament entry batcher", e);
+            }
+        }
+    }
+
+    private void processBatch(List<PendingEntry> batch) {
+        Tournament tournament;
+        try {
+            tournament = tournamentService.getCurrentActiveTournament();
+        } catch (RuntimeException e) {
+            batch.forEach(entry -> entry.result.completeExceptionally(e));
+            return;
+        }
+
+        try {
+            // Entry checks read the persisted coins, levels and rewards
+            Set<Long> userIds = batch.stream().map(entry -> entry.userId).collect(Collectors.toSet());
+            userProgressBuffer.flushUsers(userIds);
+            tournamentService.materializeLazyRewards(userIds);
+            Map<Long, List<GroupLeaderboardEntry>> leaderboards = transactionTemplate
+                    .execute(status -> enterBatch(tournament, batch));
+            batch.stream()
+                    .filter(entry -> !entry.result.isDone())
+                    .forEach(entry -> entry.result.complete(leaderboards.get(entry.groupId)));
+            leaderboards.forEach((groupId, leaderboard) -> {
+                if (leaderboard.size() == GroupMatchmaker.GROUP_SIZE) {
+                    eventPublisher.publishEvent(new GroupStartWaiters.GroupStarted(groupId, leaderboard));
+                }
+            });
+            logger.info("Entered a batch of {} users into tournament {}", batch.size(), tournament.getId());
+        } catch (RuntimeException e) {
+            // The slots claimed by the rolled back batch were given back to the index
+            logger.warn("Failed to persist a batch of {} tournament entries, entering them one at a time",
+                    batch.size(), e);
+            batch.stream()
+                    .filter(entry -> !entry.result.isDone())
+                    .forEach(this::enterAlone);
+        }
+    }
+
+    private void enterAlone(PendingEntry entry) {
+        try {
+            entry.result.complete(tournamentService.enterTournament(entry.userId));
+        } catch (RuntimeException e) {
+            entry.result.completeExceptionally(e);
+        }
+    }
+
+    private Map<Long, List<GroupLeaderboardEntry>> enterBatch(Tournament tournament, List<PendingEntry> batch) {
+        Set<Long> userIds = batch.stream().map(entry -> entry.userId).collect(Collectors.toSet());
+        Map<Long, User> users = userRepository.findAllById(userIds).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+        Set<Long> entered = new HashSet<>(tournamentUserRepository.findUserIdsInTournament(tournament, userIds));
+
+        // Same checks, in the same order, as TournamentService.enterTournament
+        List<PendingEntry> accepted = new ArrayList<>();
+        for (PendingEntry entry : batch) {
+            User user = users.get(entry.userId);
+            if (user == null) {
+                entry.fail("User not found");
+            } else if (user.getLevel() < MIN_LEVEL || user.getCoins() < ENTRY_FEE) {
+                entry.fail("User does not meet the requirements to enter the tournament");
+            } else if (user.getPendingReward() > 0) {
+                entry.fail("User has unclaimed rewards and cannot enter a new tournament");
+            } else if (!entered.add(entry.userId)) {
+                entry.fail("User already entered the current tournament");
+            } else {
+                entry.user = user;
+                accepted.add(entry);
+            }
+        }
+        if (accepted.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        int[] deducted = rowCounts(jdbcTemplate.batchUpdate(
+                "UPDATE users SET coins = coins - ? WHERE id = ? AND coins >= ? AND level >= ? AND pending_reward = 0",
+                accepted, accepted.size(), (ps, entry) -> {
+                    ps.setInt(1, ENTRY_FEE);
+                    ps.setLong(2, entry.userId);
+                    ps.setInt(3, ENTRY_FEE);
+                    ps.setInt(4, MIN_LEVEL);
+                })[0]);
+        List<PendingEntry> paid = new ArrayList<>();
+        for (int i = 0; i < accepted.size(); i++) {
+            if (deducted[i] == 0) { // Coins were spent, or a reward was computed, concurrently
+                accepted.get(i).fail("User does not meet the requirements to enter the tournament");
+            } else {
+                paid.add(accepted.get(i));
+            }
+        }
+
+        if (paid.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        // Claim the reserved slots with one batch of conditional updates and re-place the losers
+        List<PendingEntry> unplaced = paid;
+        for (int attempt = 0; !unplaced.isEmpty(); attempt++) {
+            List<PendingEntry> claiming = new ArrayList<>();
+            boolean created = false;
+            for (PendingEntry entry : unplaced) {
+                Country country = entry.user.getCountry();
+                GroupMatchmaker.Slot slot = attempt < MAX_CLAIM_ATTEMPTS
+                        ? tournamentService.reserveSlot(tournament, country)
+                        : null;
+                if (slot == null) {
+                    entry.groupId = tournamentService.createTournamentGroup(tournament, country).getId();
+                    created = true;
+                } else {
+                    entry.groupId = slot.getGroupId();
+                    claiming.add(entry);
+                }
+            }
+            if (created) {
+                tournamentGroupRepository.flush(); // New groups are claimed and referenced with plain JDBC below
+            }
+            int[] claimed;
+            try {
+                claimed = claiming.isEmpty() ? new int[0] : rowCounts(
+                        jdbcTemplate.batchUpdate(CLAIM_SLOT_SQL, claiming, claiming.size(), (ps, entry) -> {
+                            int bit = GroupMatchmaker.bit(entry.user.getCountry());
+                            ps.setInt(1, bit);
+                            ps.setInt(2, GroupMatchmaker.FULL_MASK);
+                            ps.setInt(3, bit);
+                            ps.setLong(4, entry.groupId);
+                            List<Integer> masks = GroupMatchmaker.openMasksWithout(entry.user.getCountry());
+                            for (int i = 0; i < masks.size(); i++) {
+                                ps.setInt(5 + i, masks.get(i));
+                            }
+                        })[0]);
+            } catch (RuntimeException e) {
+                claiming.forEach(entry -> groupMatchmaker.releaseSlot(tournament.getId(), entry.groupId,
+                        entry.user.getCountry()));
+                throw e;
+            }
+            unplaced = new ArrayList<>();
+            for (int i = 0; i < claiming.size(); i++) {
+                PendingEntry entry = claiming.get(i);
+                if (claimed[i] == 0) { // Taken on another node
+                    unplaced.add(entry);
+                } else {
+                    tournamentService.releaseSlotOnRollback(tournament.getId(), entry.groupId,
+                            entry.user.getCountry());
+                }
+            }
+        }
+
+        // Participant IDs come from the pooled generator, so Hibernate inserts them as one JDBC batch
+        List<TournamentUser> newParticipants = new ArrayList<>();
+        for (PendingEntry entry : paid) {
+            newParticipants.add(new TournamentUser(entry.user,
+                    tournamentGroupRepository.getReferenceById(entry.groupId)));
+        }
+        tournamentUserRepository.saveAllAndFlush(newParticipants); // Referenced by the pointers below
+        // Users are not modified through the entities, which still hold the coins read before the deduction
+        jdbcTemplate.batchUpdate("UPDATE users SET latest_tournament_user_id = ? WHERE id = ?",
+                newParticipants, newParticipants.size(), (ps, participant) -> {
+                    ps.setLong(1, participant.getId());
+                    ps.setLong(2, participant.getUser().getId());
+                });
+        paid.forEach(entry -> tournamentService.indexEntry(tournament.getId(), entry.userId, entry.user.getCountry()));
+
+        Set<Long> groupIds = paid.stream().map(entry -> entry.groupId).collect(Collectors.toSet());
+        groupIds.forEach(groupLeaderboardCache::evict);
+        return tournamentUserRepository.findParticipantScoresByGroupIds(groupIds).stream()
+                .collect(Collectors.groupingBy(ParticipantScore::getGroupId))
+                .entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey,
+                        participants -> tournamentService.buildLeaderboard(participants.getValue())));
+    }
+
+    /**
+     * Returns the row counts of a batch. Drivers that rewrite batches, like
+     * MySQL with {@code rewriteBatchedStatements}, may report
+     * {@link Statement#SUCCESS_NO_INFO} instead, which does not tell which of
+     * the conditional updates matched, so the batch is rolled back and its
+     * entries are retried one at a time.
+     */
+    private static int[] rowCounts(int[] counts) {
+        for (int count : counts) {
+            if (count == Statement.SUCCESS_NO_INFO) {
+                throw new IllegalStateException("The JDBC driver did not report the row counts of a batch");
+            }
+        }
+        return counts;
+    }
+
+    private static class PendingEntry {
+        private final Long userId;
+        private final CompletableFuture<List<GroupLeaderboardEntry>> result = new CompletableFuture<>();
+        private final SqlStatistics statistics = SqlStatistics.current(); // Of the request thread
+        private User user;
+        private Long groupId;
+
+        PendingEntry(Long userId) {
+            this.userId = userId;
+        }
+
+        void fail(String message) {
+            result.completeExceptionally(new IllegalArgumentException(message));
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import com.dreamgames.backendengineeringcasestudy.dto.UserScore;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentUserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tournament-wide individual rankings of the active tournaments.
+ * <p>
+ * Every tournament keeps its entrants in score buckets, with a Fenwick tree over
+ * the bucket sizes, so the rank of a user is an O(log n) prefix sum and the top N
+ * is read from the highest buckets. Ranks follow the group leaderboard: users
+ * with the same score share a rank and the next rank skips the tied positions.
+ * <p>
+ * Scores only ever go up, so every update keeps the higher of the known and the
+ * new score. That makes the initial load from the database, live updates and
+ * the periodic refresh that picks up other nodes' level-ups order-independent.
+ */
+@Component
+public class TournamentRankIndex {
+
+    @Autowired
+    private TournamentUserRepository tournamentUserRepository;
+
+    private final Map<Long, RankTree> trees = new ConcurrentHashMap<>();
+
+    /**
+     * Records the current score of an entrant. Rankings that are not loaded,
+     * e.g. because the tournament has ended, are left alone; they include the
+     * persisted score once they are read.
+     *
+     * @param tournamentId the ID of the tournament
+     * @param userId       the ID of the user
+     * @param score        the user's tournament score
+     */
+    public void updateScore(Long tournamentId, Long userId, int score) {
+        RankTree tree = trees.get(tournamentId);
+        if (tree != null) {
+            tree.update(userId, score);
+        }
+    }
+
+    /**
+     * Adds the point of a level-up to the ranked score of an entrant. Unlike a
+     * score read before the level-up, the ranked score includes the concurrent
+     * level-ups of the same user on this node.
+     *
+     * @param tournamentId the ID of the tournament
+     * @param userId       the ID of the user
+     * @param knownScore   a score the user has reached including this level-up,
+     *                     used if it is higher than the ranked score plus one
+     */
+    public void incrementScore(Long tournamentId, Long userId, int knownScore) {
+        RankTree tree = trees.get(tournamentId);
+        if (tree != null) {
+            tree.increment(userId, knownScore);
+        }
+    }
+
+    /**
+     * Retrieves the rank of a user among all entrants of the tournament.
+     *
+     * @param tournamentId the ID of the tournament
+     * @param userId       the ID of the user
+     * @return the user's score and rank, or null if the user did not enter
+     */
+    public RankedScore getRank(Long tournamentId, Long userId) {
+        return loadedTree(tournamentId).rank(userId);
+    }
+
+    /**
+     * Retrieves the highest ranked entrants of the tournament.
+     *
+     * @param tournamentId the ID of the tournament
+     * @param limit        the maximum number of entries
+     * @return the ranked entries, from highest to lowest score
+     */
+    public List<RankedScore> getTop(Long tournamentId, int limit) {
+        return loadedTree(tournamentId).top(limit);
+    }
+
+    /**
+     * Drops the rankings of a tournament, e.g. once it has ended.
+     *
+     * @param tournamentId the ID of the tournament
+     */
+    public void evict(Long tournamentId) {
+        trees.remove(tournamentId);
+    }
+
+    /**
+     * Merges the scores persisted by other nodes into the loaded rankings.
+     */
+    @Scheduled(fixedDelayString = "${tournament.rank-index.refresh-ms:60000}")
+    public void refresh() {
+        trees.forEach((tournamentId, tree) -> {
+            if (tree.loaded) {
+                load(tournamentId, tree);
+            }
+        });
+    }
+
+    private RankTree loadedTree(Long tournamentId) {
+        RankTree tree = trees.computeIfAbsent(tournamentId, id -> new RankTree());
+        if (!tree.loaded) {
+            synchronized (tree.loadLock) {
+                if (!tree.loaded) {
+                    load(tournamentId, tree);
+                    tree.loaded = true;
+                }
+            }
+        }
+        return tree;
+    }
+
+    private void load(Long tournamentId, RankTree tree) {
+        for (UserScore userScore : tournamentUserRepository.findUserScoresByTournamentId(tournamentId)) {
+            tree.update(userScore.getUserId(), userScore.getScore());
+        }
+    }
+
+    /**
+     * A user's score and tournament-wide rank.
+     */
+    public static class RankedScore {
+        private final Long userId;
+        private final int score;
+        private final int rank;
+
+        public RankedScore(Long userId, int score, int rank) {
+            this.userId = userId;
+            this.score = score;
+            this.rank = rank;
+        }
+
+        public Long getUserId() {
+            return userId;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        public int getRank() {
+            return rank;
+        }
+    }
+
+    static class RankTree {
+        private final Object loadLock = new Object();
+        private volatile boolean loaded;
+
+        private final Map<Long, Integer> scores = new HashMap<>();
+        private final List<TreeSet<Long>> buckets = new ArrayList<>(); // Users by score
+        private long[] fenwick = new long[65]; // 1-based, over the bucket sizes
+        private int maxScore = -1;
+
+        synchronized void update(Long userId, int score) {
+            Integer current = scores.get(userId);
+            if (current != null && current >= score) {
+                return;
+            }
+            if (current != null) {
+                buckets.get(current).remove(userId);
+                add(current, -1);
+            }
+            ensureCapacity(score);
+            scores.put(userId, score);
+            buckets.get(score).add(userId);
+            add(score, 1);
+            maxScore = Math.max(maxScore, score);
+        }
+
+        synchronized void increment(Long userId, int knownScore) {
+            Integer current = scores.get(userId);
+            update(userId, current == null ? knownScore : Math.max(current + 1, knownScore));
+        }
+
+        synchronized RankedScore rank(Long userId) {
+            Integer score = scores.get(userId);
+            if (score == null) {
+                return null;
+            }
+            // Everyone with a strictly higher score is ranked above the user
+            long higher = scores.size() - prefixCount(score);
+            return new RankedScore(userId, score, (int) higher + 1);
+        }
+
+        synchronized List<RankedScore> top(int limit) {
+            List<RankedScore> top = new ArrayList<>();
+            for (int score = maxScore; score >= 0 && top.size() < limit; score--) {
+                int rank = top.size() + 1;
+                for (Long userId : buckets.get(score)) {
+                    if (top.size() == limit) {
+                        break;
+                    }
+                    top.add(new RankedScore(userId, score, rank));
+                }
+            }
+            return top;
+        }
+
+        // Number of users with a score lower than or equal to the given score
+        private long prefixCount(int score) {
+            long count = 0;
+            for (int i = score + 1; i > 0; i -= i & -i) {
+                count += fenwick[i];
+            }
+            return count;
+        }
+
+        private void add(int score, int delta) {
+            for (int i = score + 1; i < fenwick.length; i += i & -i) {
+                fenwick[i] += delta;
+            }
+        }
+
+        private void ensureCapacity(int score) {
+            while (buckets.size() <= score) {
+                buckets.add(new TreeSet<>());
+            }
+            if (score + 1 < fenwick.length) {
+                return;
+            }
+            int capacity = fenwick.length - 1;
+            while (capacity <= score) {
+                capacity *= 2;
+            }
+            fenwick = new long[capacity + 1];
+            for (int s = 0; s < buckets.size(); s++) {
+                if (!buckets.get(s).isEmpty()) {
+                    add(s, buckets.get(s).size());
+                }
+            }
+        }
+    }
+}
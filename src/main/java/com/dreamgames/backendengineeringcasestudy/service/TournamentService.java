@@ -2,14 +2,28 @@ package com.dreamgames.backendengineeringcasestudy.service;
 
 import com.dreamgames.backendengineeringcasestudy.dto.CountryScore;
 import com.dreamgames.backendengineeringcasestudy.dto.GroupLeaderboardEntry;
+import com.dreamgames.backendengineeringcasestudy.dto.ParticipantScore;
+import com.dreamgames.backendengineeringcasestudy.dto.Versioned;
 import com.dreamgames.backendengineeringcasestudy.model.*;
+import com.dreamgames.backendengineeringcasestudy.replica.ReplicaReads;
 import com.dreamgames.backendengineeringcasestudy.repository.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
@@ -23,6 +37,30 @@ public class TournamentService {
 
     private static final Logger logger = LoggerFactory.getLogger(TournamentService.class);
 
+    private static final int MAX_CLAIM_ATTEMPTS = 10;
+
+    static final int ENTRY_FEE = 1000;
+
+    static final int MIN_LEVEL = 20;
+
+    private static final int MAX_GLOBAL_LEADERBOARD_SIZE = 1000;
+
+    private static final int PENDING_REWARD_REPAIR_BATCH_SIZE = 1000;
+
+    private static final int GROUP_PREALLOCATION_BATCH_SIZE = 500;
+
+    @Value("${tournament.rewards.engine:java}")
+    private String rewardsEngine;
+
+    @Value("${tournament.rewards.mode:eager}")
+    private String rewardsMode;
+
+    @Value("${tournament.preallocation.group-factor:1.2}")
+    private double preallocationGroupFactor;
+
+    @Value("${tournament.preallocation.max-groups:100000}")
+    private int preallocationMaxGroups;
+
     @Autowired
     private TournamentRepository tournamentRepository;
 
@@ -35,6 +73,47 @@ public class TournamentService {
     @Autowired
     private TournamentUserRepository tournamentUserRepository;
 
+    @Autowired
+    private GroupMatchmaker groupMatchmaker;
+
+    @Autowired
+    private ActiveTournamentHolder activeTournamentHolder;
+
+    @Autowired
+    private CountryScoreCounters countryScoreCounters;
+
+    @Autowired
+    private TournamentRankIndex tournamentRankIndex;
+
+    @Autowired
+    private UserProgressBuffer userProgressBuffer;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ReplicaReads replicaReads;
+
+    @Autowired
+    private GroupLeaderboardCache groupLeaderboardCache;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private TournamentSnapshots tournamentSnapshots;
+
+    private final Map<Long, Object> snapshotLocks = new ConcurrentHashMap<>();
+
+    private volatile Boolean lazyRewardsPending; // Unknown until first checked
+
+    private final Object lazyRewardsLock = new Object();
+
+    private long lazyRewardsMarks; // Tournaments this node ended with lazy rewards, guarded by lazyRewardsLock
+
     /**
      * Creates a new tournament with the current start time and a fixed end time
      * (20:00 UTC).
@@ -50,7 +129,124 @@ public class TournamentService {
         tournament.setEndTime(endTime);
         tournament.setActive(true);
 
-        return tournamentRepository.save(tournament);
+        Tournament savedTournament = tournamentRepository.save(tournament);
+        // Entries are routed to the tournament only once it is stored
+        afterCommit(() -> activeTournamentHolder.activate(savedTournament));
+        return savedTournament;
+    }
+
+    /**
+     * Prepares the next tournament ahead of 00:00 UTC. The tournament is stored
+     * inactive together with empty groups for the expected number of entries,
+     * estimated from the entries of the previous tournament, so the surge of
+     * entries after the start fills existing slots instead of creating groups.
+     * If an upcoming tournament was already prepared it is returned unchanged.
+     * 
+     * @return the upcoming tournament
+     */
+    public Tournament prepareNextTournament() {
+        return prepareNextTournament(() -> { });
+    }
+
+    /**
+     * Prepares the next tournament like {@link #prepareNextTournament()}. The
+     * tournament and every JDBC batch of its groups are written in their own
+     * short transaction, each starting with the given check, e.g.
+     * {@link com.dreamgames.backendengineeringcasestudy.scheduler.SchedulerLeader#fence(long)},
+     * so no lock taken by the check is held across all groups. If a batch
+     * fails, the groups written so far are kept and entries create the missing
+     * ones on demand.
+     * 
+     * @param check runs at the start of every transaction and aborts by throwing
+     * @return the upcoming tournament
+     */
+    public Tournament prepareNextTournament(Runnable check) {
+        Optional<Tournament> prepared = tournamentRepository.findFirstByUpcomingTrueOrderByIdDesc();
+        if (prepared.isPresent()) {
+            return prepared.get();
+        }
+        long previousEntries = tournamentRepository.findFirstByUpcomingFalseOrderByIdDesc()
+                .map(tournamentUserRepository::countByTournamentGroup_Tournament)
+                .orElse(0L);
+
+        LocalDateTime startTime = LocalDate.now(ZoneOffset.UTC).plusDays(1).atStartOfDay();
+        Tournament tournament = new Tournament();
+        tournament.setStartTime(startTime);
+        tournament.setEndTime(startTime.withHour(20));
+        tournament.setUpcoming(true);
+        Tournament upcoming = transactionTemplate.execute(status -> {
+            check.run();
+            // Checked again under the check's lock, another run may have prepared it in the meantime
+            return tournamentRepository.findFirstByUpcomingTrueOrderByIdDesc()
+                    .orElseGet(() -> tournamentRepository.save(tournament));
+        });
+        if (upcoming != tournament) {
+            return upcoming;
+        }
+
+        int groupCount = (int) Math.min(preallocationMaxGroups,
+                Math.ceil(previousEntries * preallocationGroupFactor / GroupMatchmaker.GROUP_SIZE));
+        for (int first = 0; first < groupCount; first += GROUP_PREALLOCATION_BATCH_SIZE) {
+            List<TournamentGroup> groups = new ArrayList<>();
+            for (int i = first; i < Math.min(groupCount, first + GROUP_PREALLOCATION_BATCH_SIZE); i++) {
+                TournamentGroup group = new TournamentGroup();
+                group.setTournament(upcoming);
+                groups.add(group);
+            }
+            transactionTemplate.execute(status -> {
+                check.run();
+                return tournamentGroupRepository.saveAll(groups);
+            });
+        }
+        logger.info("Prepared tournament {} with {} groups for {} entries of the previous tournament",
+                upcoming.getId(), groupCount, previousEntries);
+        return upcoming;
+    }
+
+    /**
+     * Starts the daily tournament. A prepared upcoming tournament is activated
+     * with a single conditional update and its pre-allocated groups are
+     * indexed for matchmaking right away, otherwise a new tournament is
+     * created. When several nodes start the same upcoming tournament only one
+     * update matches, the other nodes pick it up by refreshing the current
+     * tournament.
+     * 
+     * @return the started tournament
+     */
+    public Tournament startDailyTournament() {
+        Optional<Tournament> upcoming = tournamentRepository.findFirstByUpcomingTrueOrderByIdDesc();
+        if (upcoming.isEmpty()) {
+            return createTournament();
+        }
+        Tournament tournament = upcoming.get();
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        LocalDateTime endTime = now.withHour(20).withMinute(0).withSecond(0);
+        if (tournamentRepository.activateUpcoming(tournament.getId(), now, endTime) == 0) {
+            activeTournamentHolder.refresh();
+            return tournament;
+        }
+        tournament.setStartTime(now);
+        tournament.setEndTime(endTime);
+        tournament.setActive(true);
+        tournament.setUpcoming(false);
+        List<TournamentGroup> groups = tournamentGroupRepository.findByTournamentAndCompetitionStartedFalse(tournament);
+        // Entries are routed to the tournament only once its activation is committed
+        afterCommit(() -> {
+            groupMatchmaker.load(tournament.getId(), groups);
+            activeTournamentHolder.activate(tournament);
+        });
+        return tournament;
+    }
+
+    /**
+     * Starts a tournament if none is active during tournament hours, e.g. when
+     * the system starts for the first time or was down at 00:00 UTC.
+     */
+    public synchronized void startTournamentIfMissing() {
+        int hour = LocalDateTime.now(ZoneOffset.UTC).getHour();
+        if (tournamentRepository.findActiveIds().isEmpty() && hour < 20) {
+            startDailyTournament();
+        }
     }
 
     /**
@@ -86,21 +282,152 @@ public class TournamentService {
      * Ends all active tournaments and distributes rewards to the participants.
      */
     public void endTournaments() {
+        userProgressBuffer.flush(); // Rewards are based on the persisted scores
         List<Tournament> activeTournaments = tournamentRepository.findByIsActiveTrue();
         for (Tournament tournament : activeTournaments) {
-            tournament.setActive(false);
-            tournamentRepository.save(tournament);
-            distributeRewards(tournament);
+            deactivateTournament(tournament);
+            if (!tournament.isLazyRewards()) {
+                distributeRewards(tournament);
+                tournamentRepository.markRewardsDistributed(tournament.getId());
+            }
         }
     }
 
+    /**
+     * Marks the tournament as ended and drops its in-memory state once that is
+     * committed, so no more users can enter or score. Pre-allocated groups nobody entered are
+     * deleted. In the lazy rewards mode the tournament is flagged so its
+     * rewards are computed per group on first access instead.
+     * 
+     * @param tournament the tournament entity
+     */
+    void deactivateTournament(Tournament tournament) {
+        tournament.setActive(false);
+        if ("lazy".equals(rewardsMode)) {
+            tournament.setLazyRewards(true);
+            markLazyRewardsPending();
+        }
+        tournamentRepository.save(tournament);
+        // Kept while the close can still roll back, the tournament stays active until then
+        afterCommit(() -> {
+            activeTournamentHolder.deactivate(tournament.getId());
+            groupMatchmaker.evict(tournament.getId());
+            tournamentRankIndex.evict(tournament.getId());
+        });
+        tournamentGroupRepository.deleteEmptyGroups(tournament.getId());
+    }
+
     /**
      * Distributes rewards to the participants of the given tournament.
      * 
      * @param tournament the tournament entity
      */
     protected void distributeRewards(Tournament tournament) {
-        List<TournamentGroup> groups = tournamentGroupRepository.findByTournament(tournament);
+        if ("sql".equals(rewardsEngine)) {
+            distributeRewardsInSql(tournament, 0L, Long.MAX_VALUE);
+            return;
+        }
+        rewardGroups(tournamentGroupRepository.findByTournament(tournament));
+    }
+
+    /**
+     * Distributes rewards to the participants of the tournament's groups within
+     * the given ID range, e.g. one chunk of a {@link TournamentCloseJob}.
+     * 
+     * @param tournament   the tournament entity
+     * @param firstGroupId the lowest group ID of the range
+     * @param lastGroupId  the highest group ID of the range
+     */
+    void distributeRewards(Tournament tournament, Long firstGroupId, Long lastGroupId) {
+        if ("sql".equals(rewardsEngine)) {
+            distributeRewardsInSql(tournament, firstGroupId, lastGroupId);
+            return;
+        }
+        rewardGroups(tournamentGroupRepository.findByTournamentAndIdBetween(tournament, firstGroupId, lastGroupId));
+    }
+
+    /**
+     * Computes the rewards of the groups the given users played in, if their
+     * tournament ended with lazy rewards and nobody computed them yet. Each group
+     * is claimed with a conditional update in the transaction that writes its
+     * rewards, so concurrent requests of group members reward it exactly once.
+     * The rewards are committed in their own transaction, before the caller's
+     * transaction reads them, so a rejected entry does not roll them back. It
+     * must be called before the caller's transaction starts, a request holding
+     * one pooled connection while waiting for another could exhaust the pool.
+     * 
+     * @param userIds the IDs of the users
+     */
+    void materializeLazyRewards(Collection<Long> userIds) {
+        if (!hasLazyRewardsPending()) {
+            return;
+        }
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        transaction.executeWithoutResult(status -> {
+            for (Long groupId : tournamentUserRepository.findGroupIdsWithLazyRewards(userIds)) {
+                if (tournamentGroupRepository.markRewardsComputed(groupId) == 1) {
+                    // One group at a time, the Java loop keeps the loaded participants up to date
+                    tournamentGroupRepository.findById(groupId)
+                            .ifPresent(group -> rewardGroups(Collections.singletonList(group)));
+                    logger.debug("Computed the lazy rewards of group {}", groupId);
+                }
+            }
+        });
+    }
+
+    private boolean hasLazyRewardsPending() {
+        if (lazyRewardsPending == null) {
+            lazyRewardsPending = tournamentGroupRepository.existsPendingLazyRewards();
+        }
+        return lazyRewardsPending;
+    }
+
+    /**
+     * Flags lazy rewards as pending once the ended tournament is committed, so a
+     * concurrent {@link #refreshLazyRewardsPending()} cannot overwrite the flag
+     * with a result that did not see the tournament yet.
+     */
+    private void markLazyRewardsPending() {
+        afterCommit(() -> {
+            synchronized (lazyRewardsLock) {
+                lazyRewardsMarks++;
+                lazyRewardsPending = true;
+            }
+        });
+    }
+
+    /**
+     * Checks whether any group of an ended tournament still waits for its lazy
+     * rewards. Clears the flag once all of them were computed, so requests stop
+     * scanning for them, and picks up tournaments ended by other nodes in the
+     * lazy rewards mode.
+     */
+    @Scheduled(fixedDelayString = "${tournament.rewards.lazy-refresh-ms:5000}")
+    public void refreshLazyRewardsPending() {
+        if (!"lazy".equals(rewardsMode) && !Boolean.TRUE.equals(lazyRewardsPending)) {
+            return;
+        }
+        long marks;
+        synchronized (lazyRewardsLock) {
+            marks = lazyRewardsMarks;
+        }
+        boolean pending = tournamentGroupRepository.existsPendingLazyRewards();
+        synchronized (lazyRewardsLock) {
+            if (marks == lazyRewardsMarks) { // Otherwise this node ended a tournament during the check
+                lazyRewardsPending = pending;
+            }
+        }
+    }
+
+    /**
+     * Rewards the top two ranks of every started group and sets the winners'
+     * pending rewards.
+     * 
+     * @param groups the tournament groups
+     */
+    private void rewardGroups(List<TournamentGroup> groups) {
+        Map<Integer, List<Long>> winnersByReward = new HashMap<>();
         for (TournamentGroup group : groups) {
             if (group.getCompetitionStarted()) { // Only distribute rewards if the competition has started
                 List<TournamentUser> participants = group.getParticipants().stream()
@@ -122,141 +449,399 @@ public class TournamentService {
                             break; // Only top 2 ranks get rewards
                         }
 
-                        participant.setReward(rewardForRank);
-                        participant.setRewardClaimed(false);
+                        // Rewarded groups are skipped when a close is resumed, a claimed reward must stay claimed
+                        if (participant.getReward() == 0) {
+                            participant.setReward(rewardForRank);
+                            participant.setRewardClaimed(false);
+                            // Kept in sync with the bulk update below for callers that already loaded the user
+                            participant.getUser().setPendingReward(rewardForRank);
+                            winnersByReward.computeIfAbsent(rewardForRank, reward -> new ArrayList<>())
+                                    .add(participant.getUser().getId());
+                            tournamentUserRepository.save(participant);
+                        }
 
                         if (i < participants.size() - 1) {
                             if (participants.get(i).getScore() != participants.get(i + 1).getScore()) {
                                 currentRank++;
                             }
                         }
-
-                        tournamentUserRepository.save(participant);
                     }
                 }
             }
         }
+        winnersByReward.forEach((reward, userIds) -> userRepository.setPendingReward(userIds, reward));
+    }
+
+    /**
+     * Distributes the same rewards as {@link #distributeRewards(Tournament)} with
+     * one set-based update per rewarded rank. The ranks are dense, as in the
+     * Java loop: every participant tied for the highest score of a started group
+     * gets 10000 and everyone tied for the next distinct score gets 5000.
+     * 
+     * @param tournament   the tournament entity
+     * @param firstGroupId the lowest group ID to reward
+     * @param lastGroupId  the highest group ID to reward
+     */
+    private void distributeRewardsInSql(Tournament tournament, Long firstGroupId, Long lastGroupId) {
+        int[] rewarded = transactionTemplate.execute(status -> new int[] {
+                tournamentUserRepository.rewardScoreRank(tournament.getId(), firstGroupId, lastGroupId, 1, 10000),
+                tournamentUserRepository.rewardScoreRank(tournament.getId(), firstGroupId, lastGroupId, 2, 5000),
+                userRepository.markPendingRewards(tournament.getId(), firstGroupId, lastGroupId)
+        });
+        logger.debug("Rewarded {} first and {} second places of tournament {}",
+                rewarded[0], rewarded[1], tournament.getId());
     }
 
     /**
      * Allows a user to enter the current active tournament.
+     * The requirements are checked and the entry fee is deducted by one
+     * conditional update, so concurrent coin changes cannot be lost, and the
+     * user row stays locked only for the rest of this short transaction.
      * 
      * @param userId the ID of the user
      * @return the leaderboard of the user's tournament group
      * @throws IllegalArgumentException if the user does not meet the requirements
      */
     public List<GroupLeaderboardEntry> enterTournament(Long userId) {
-        Optional<User> userOpt = userRepository.findById(userId);
-        if (userOpt.isEmpty()) {
-            throw new IllegalArgumentException("User not found");
-        }
-
-        User user = userOpt.get();
-        if (user.getLevel() < 20 || user.getCoins() < 1000) {
-            throw new IllegalArgumentException("User does not meet the requirements to enter the tournament");
-        }
+        // Committed in their own transactions before the entry's one starts, a request holds one connection at a time
+        userProgressBuffer.flushUsers(Collections.singleton(userId));
+        materializeLazyRewards(Collections.singleton(userId));
+        return transactionTemplate.execute(status -> enter(userId));
+    }
 
-        if (hasUnclaimedReward(user)) {
-            throw new IllegalArgumentException("User has unclaimed rewards and cannot enter a new tournament");
+    private List<GroupLeaderboardEntry> enter(Long userId) {
+        if (userRepository.deductEntryFee(userId, ENTRY_FEE, MIN_LEVEL) == 0) {
+            throw new IllegalArgumentException(getEntryRejection(userId));
         }
+        User user = userRepository.findById(userId)
+                .orElseThrow(() -> new IllegalArgumentException("User not found"));
 
         Tournament currentTournament = getCurrentActiveTournament();
 
-        // Check if the user is already in the current tournament
+        // Check if the user is already in the current tournament, which also rolls back the fee
         if (tournamentGroupRepository.existsByTournamentAndParticipants_User(currentTournament, user)) {
             throw new IllegalArgumentException("User already entered the current tournament");
         }
 
-        user.setCoins(user.getCoins() - 1000); // Deduct 1000 coins
-        userRepository.save(user);
-
         TournamentGroup tournamentGroup = findOrCreateTournamentGroup(currentTournament, user);
+        indexEntry(currentTournament.getId(), user.getId(), user.getCountry());
+        List<GroupLeaderboardEntry> leaderboard = buildLeaderboard(tournamentUserRepository
+                .findParticipantScoresByGroupIds(Collections.singleton(tournamentGroup.getId())));
+        if (leaderboard.size() == GroupMatchmaker.GROUP_SIZE) {
+            eventPublisher.publishEvent(new GroupStartWaiters.GroupStarted(tournamentGroup.getId(), leaderboard));
+        }
 
         logger.info("User {} added to group {} which now has {} participants.",
-                user.getId(), tournamentGroup.getId(), tournamentGroup.getParticipants().size());
+                user.getId(), tournamentGroup.getId(), leaderboard.size());
 
-        return getLeaderboard(tournamentGroup);
+        return leaderboard;
+    }
+
+    /**
+     * Explains why the entry fee could not be deducted, in the order the entry
+     * requirements are documented.
+     * 
+     * @param userId the ID of the user
+     * @return the rejection message
+     */
+    private String getEntryRejection(Long userId) {
+        Optional<User> userOpt = userRepository.findById(userId);
+        if (userOpt.isEmpty()) {
+            return "User not found";
+        }
+        User user = userOpt.get();
+        if (user.getLevel() >= MIN_LEVEL && user.getCoins() >= ENTRY_FEE && user.getPendingReward() > 0) {
+            return "User has unclaimed rewards and cannot enter a new tournament";
+        }
+        return "User does not meet the requirements to enter the tournament";
     }
 
     /**
      * Finds or creates a tournament group for the user.
+     * The slot is picked by the in-memory {@link GroupMatchmaker} and claimed with
+     * a single conditional update on the group's country bitmask, so concurrent
+     * nodes can never overfill a group or place two users of the same country.
      * 
      * @param tournament the tournament entity
      * @param user       the user entity
      * @return the tournament group entity
      */
     private TournamentGroup findOrCreateTournamentGroup(Tournament tournament, User user) {
-        List<TournamentGroup> groups = tournamentGroupRepository.findByTournament(tournament)
-                .stream()
-                .sorted(Comparator.comparing(TournamentGroup::getId))
-                .collect(Collectors.toList());
-
-        for (TournamentGroup group : groups) {
-            long participantCount = tournamentUserRepository.countByTournamentGroup(group);
-            boolean hasSameCountry = tournamentUserRepository.existsByTournamentGroupAndUser_Country(group,
-                    user.getCountry());
+        Country country = user.getCountry();
+        for (int attempt = 0; attempt < MAX_CLAIM_ATTEMPTS; attempt++) {
+            GroupMatchmaker.Slot slot = reserveSlot(tournament, country);
+            if (slot == null) {
+                break;
+            }
+            try {
+                if (tournamentGroupRepository.claimSlot(slot.getGroupId(), GroupMatchmaker.bit(country),
+                        GroupMatchmaker.openMasksWithout(country), GroupMatchmaker.FULL_MASK) == 1) {
+                    releaseSlotOnRollback(tournament.getId(), slot.getGroupId(), country);
+                    TournamentGroup group = tournamentGroupRepository.getReferenceById(slot.getGroupId());
+                    addParticipant(user, group);
+                    return group;
+                }
+            } catch (RuntimeException e) {
+                groupMatchmaker.releaseSlot(tournament.getId(), slot.getGroupId(), country);
+                throw e;
+            }
+            // The slot was taken on another node, the local index skips it from now on
+        }
 
-            if (!hasSameCountry && participantCount < 5) { // Add user to the group
-                TournamentUser tournamentUser = new TournamentUser(user, group);
-                tournamentUserRepository.save(tournamentUser);
-                group.getParticipants().add(tournamentUser);
+        TournamentGroup newGroup = createTournamentGroup(tournament, country);
+        addParticipant(user, newGroup);
+        return newGroup;
+    }
 
-                if (participantCount == 4) { // Group is full
-                    group.setCompetitionStarted(true);
-                }
+    /**
+     * Adds the user to the group and points the user at the new participation,
+     * without writing the rest of the user row.
+     * 
+     * @param user  the user entity
+     * @param group the tournament group entity
+     */
+    private void addParticipant(User user, TournamentGroup group) {
+        TournamentUser participant = tournamentUserRepository.save(new TournamentUser(user, group));
+        userRepository.setLatestTournamentUserId(user.getId(), participant.getId());
+        groupLeaderboardCache.evict(group.getId());
+    }
 
-                tournamentGroupRepository.save(group);
-                return group;
+    /**
+     * Reserves a slot for a user of the given country, falling back to the
+     * database for open groups created by other nodes.
+     * 
+     * @param tournament the tournament entity
+     * @param country    the country of the user
+     * @return the reserved slot, or null if a new group has to be created
+     */
+    GroupMatchmaker.Slot reserveSlot(Tournament tournament, Country country) {
+        GroupMatchmaker.Slot slot = groupMatchmaker.reserveSlot(tournament.getId(), country,
+                () -> tournamentGroupRepository.findByTournamentAndCompetitionStartedFalse(tournament));
+        if (slot == null) {
+            List<TournamentGroup> openGroups = tournamentGroupRepository.findOpenGroups(tournament,
+                    GroupMatchmaker.openMasksWithout(country), PageRequest.of(0, 1));
+            if (!openGroups.isEmpty()) {
+                TournamentGroup openGroup = openGroups.get(0);
+                groupMatchmaker.syncGroup(tournament.getId(), openGroup.getId(), openGroup.getOccupiedCountries());
+                slot = groupMatchmaker.reserveSlot(tournament.getId(), country, Collections::emptyList);
             }
         }
+        return slot;
+    }
 
-        TournamentGroup newGroup = new TournamentGroup();
-        newGroup.setTournament(tournament);
+    /**
+     * Creates a new tournament group that already holds a user of the given
+     * country.
+     * 
+     * @param tournament the tournament entity
+     * @param country    the country of the first participant
+     * @return the new tournament group entity
+     */
+    TournamentGroup createTournamentGroup(Tournament tournament, Country country) {
+        TournamentGroup group = new TournamentGroup();
+        group.setTournament(tournament);
+        group.setOccupiedCountries(GroupMatchmaker.bit(country));
+
+        TournamentGroup savedGroup = tournamentGroupRepository.save(group);
+        groupMatchmaker.addGroup(tournament.getId(), savedGroup.getId(), country);
+        // A rolled back group does not exist, so it must never be offered again
+        afterRollback(() -> groupMatchmaker.syncGroup(tournament.getId(), savedGroup.getId(),
+                GroupMatchmaker.FULL_MASK));
+        return savedGroup;
+    }
 
-        TournamentGroup savedGroup = tournamentGroupRepository.save(newGroup);
+    /**
+     * Adds a new participant to the in-memory country totals and rank index
+     * once the entry is committed, so a rolled back entry is not counted.
+     * 
+     * @param tournamentId the ID of the tournament
+     * @param userId       the ID of the user
+     * @param country      the country of the user
+     */
+    void indexEntry(Long tournamentId, Long userId, Country country) {
+        afterCommit(() -> {
+            countryScoreCounters.join(tournamentId, country);
+            tournamentRankIndex.updateScore(tournamentId, userId, 0);
+        });
+    }
 
-        TournamentUser tournamentUser = new TournamentUser(user, savedGroup);
-        tournamentUserRepository.save(tournamentUser);
-        savedGroup.getParticipants().add(tournamentUser);
+    /**
+     * Gives a claimed slot back to the in-memory index if the current
+     * transaction does not commit, since the claim is rolled back with it.
+     * 
+     * @param tournamentId the ID of the tournament
+     * @param groupId      the ID of the claimed group
+     * @param country      the country of the user
+     */
+    void releaseSlotOnRollback(Long tournamentId, Long groupId, Country country) {
+        afterRollback(() -> groupMatchmaker.releaseSlot(tournamentId, groupId, country));
+    }
 
-        if (savedGroup.getParticipants().size() == 5) { // Group is full
-            savedGroup.setCompetitionStarted(true);
+    /**
+     * Runs an update of in-memory state once the current transaction commits,
+     * or right away outside of a transaction.
+     * 
+     * @param action the update
+     */
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
         }
+    }
 
-        tournamentGroupRepository.save(savedGroup);
+    /**
+     * Undoes an update of in-memory state if the current transaction does not
+     * commit. Outside of a transaction there is nothing to undo.
+     * 
+     * @param action the undo
+     */
+    private static void afterRollback(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        action.run();
+                    }
+                }
+            });
+        }
+    }
 
-        return savedGroup;
+    /**
+     * Retrieves the leaderboard for a given tournament group.
+     * 
+     * @param groupId the ID of the tournament group
+     * @return a list of leaderboard entries
+     * @throws IllegalArgumentException if the group is not found
+     */
+    public List<GroupLeaderboardEntry> getLeaderboard(Long groupId) {
+        return getVersionedLeaderboard(groupId).getValue();
     }
 
     /**
-     * Checks if the user has any unclaimed rewards.
+     * Retrieves the leaderboard for a given tournament group together with the
+     * entity tag of the group version it was computed at.
+     * Leaderboards are served from the {@link GroupLeaderboardCache} while they
+     * are fresh. Afterwards only the group's version is read and the
+     * leaderboard is recomputed if it moved on. The participants are read with
+     * a single projection query, the group itself is only looked up if it has
+     * none. Groups of finished tournaments are served from the tournament's
+     * {@link TournamentSnapshot}.
      * 
-     * @param user the user entity
-     * @return true if the user has unclaimed rewards, false otherwise
+     * @param groupId the ID of the tournament group
+     * @return the leaderboard entries and their entity tag
+     * @throws IllegalArgumentException if the group is not found
      */
-    private boolean hasUnclaimedReward(User user) {
-        return tournamentUserRepository.findByUser(user)
-                .stream()
-                .anyMatch(tu -> tu.getReward() > 0 && !tu.isRewardClaimed());
+    public Versioned<List<GroupLeaderboardEntry>> getVersionedLeaderboard(Long groupId) {
+        GroupLeaderboardCache.CachedLeaderboard cached = groupLeaderboardCache.getFresh(groupId);
+        if (cached != null) {
+            return new Versioned<>(cached.getETag(), cached.getEntries());
+        }
+        TournamentSnapshot snapshot = tournamentSnapshots.findGroup(groupId);
+        if (snapshot != null) {
+            return new Versioned<>(snapshot.eTag(groupId), snapshot.getGroupLeaderboard(groupId));
+        }
+        return replicaReads.read(() -> loadLeaderboard(groupId));
+    }
+
+    private Versioned<List<GroupLeaderboardEntry>> loadLeaderboard(Long groupId) {
+        GroupLeaderboardCache.CachedLeaderboard stale = groupLeaderboardCache.get(groupId);
+        if (stale != null) {
+            long version = tournamentGroupRepository.findVersionById(groupId)
+                    .orElseThrow(() -> new IllegalArgumentException("Group not found"));
+            if (version == stale.getVersion()) {
+                return versioned(groupLeaderboardCache.revalidated(groupId, stale));
+            }
+        }
+        List<ParticipantScore> participants = tournamentUserRepository
+                .findParticipantScoresByGroupIds(Collections.singleton(groupId));
+        Long tournamentId = participants.isEmpty() ? null : participants.get(0).getTournamentId();
+        if (tournamentId != null && !activeTournamentHolder.isActive(tournamentId)) {
+            TournamentSnapshot snapshot = getSnapshot(tournamentId);
+            if (snapshot != null && snapshot.containsGroup(groupId)) {
+                return new Versioned<>(snapshot.eTag(groupId), snapshot.getGroupLeaderboard(groupId));
+            }
+        }
+        long version = participants.isEmpty()
+                ? tournamentGroupRepository.findVersionById(groupId)
+                        .orElseThrow(() -> new IllegalArgumentException("Group not found"))
+                : participants.get(0).getGroupVersion();
+        int pendingScore = participants.stream()
+                .mapToInt(participant -> userProgressBuffer.pendingScore(participant.getParticipationId()))
+                .sum();
+        return versioned(groupLeaderboardCache.put(groupId, version, pendingScore, buildLeaderboard(participants)));
+    }
+
+    private static Versioned<List<GroupLeaderboardEntry>> versioned(GroupLeaderboardCache.CachedLeaderboard cached) {
+        return new Versioned<>(cached.getETag(), cached.getEntries());
     }
 
     /**
-     * Retrieves the leaderboard for a given tournament group.
+     * Retrieves the snapshot of a finished tournament, and takes it if there
+     * is none yet. A tournament is finished once it ended and its rewards are
+     * distributed, or are computed lazily, as its scores and ranks cannot
+     * change anymore. Only one snapshot of a tournament is taken at a time on
+     * this node.
      * 
-     * @param tournamentGroup the tournament group entity
+     * @param tournamentId the ID of the tournament
+     * @return the snapshot, or null if the tournament is not found or not finished
+     */
+    public TournamentSnapshot getSnapshot(Long tournamentId) {
+        TournamentSnapshot snapshot = tournamentSnapshots.get(tournamentId);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        synchronized (snapshotLocks.computeIfAbsent(tournamentId, id -> new Object())) {
+            try {
+                snapshot = tournamentSnapshots.get(tournamentId);
+                if (snapshot != null) {
+                    return snapshot;
+                }
+                if (!tournamentRepository.isFinished(tournamentId)) {
+                    return null;
+                }
+                SortedMap<Long, List<GroupLeaderboardEntry>> groups = new TreeMap<>();
+                tournamentUserRepository.findParticipantScoresByTournamentId(tournamentId).stream()
+                        .collect(Collectors.groupingBy(ParticipantScore::getGroupId))
+                        .forEach((groupId, participants) -> groups.put(groupId, buildLeaderboard(participants)));
+                // Summed from the final scores, the counters of this node may miss other nodes' unflushed deltas
+                snapshot = TournamentSnapshot.of(tournamentId, groups,
+                        tournamentUserRepository.sumScoresByCountry(tournamentId));
+                tournamentSnapshots.put(snapshot);
+                countryScoreCounters.evict(tournamentId);
+                logger.info("Took the snapshot of tournament {} with {} groups", tournamentId, groups.size());
+                return snapshot;
+            } finally {
+                // Threads still waiting for this lock find the cached snapshot
+                snapshotLocks.remove(tournamentId);
+            }
+        }
+    }
+
+    /**
+     * Builds a ranked leaderboard from the given group participants.
+     * 
+     * @param participants the participants of a tournament group
      * @return a list of leaderboard entries
      */
-    public List<GroupLeaderboardEntry> getLeaderboard(TournamentGroup tournamentGroup) {
-        List<GroupLeaderboardEntry> leaderboard = tournamentGroup.getParticipants().stream()
-                .sorted((u1, u2) -> u2.getScore() - u1.getScore())
+    List<GroupLeaderboardEntry> buildLeaderboard(Collection<ParticipantScore> participants) {
+        List<GroupLeaderboardEntry> leaderboard = participants.stream()
                 .map(participant -> new GroupLeaderboardEntry(
-                        participant.getUser().getId(),
-                        participant.getUser().getUsername(),
-                        participant.getUser().getCountry() == null ? "Unknown"
-                                : participant.getUser().getCountry().toString(),
-                        participant.getScore(),
+                        participant.getUserId(),
+                        participant.getUsername(),
+                        participant.getCountry() == null ? "Unknown" : participant.getCountry().toString(),
+                        participant.getScore() + userProgressBuffer.pendingScore(participant.getParticipationId()),
                         0 // rank will be set later
                 ))
+                .sorted((e1, e2) -> e2.getScore() - e1.getScore())
                 .collect(Collectors.toList());
 
         // Set ranks and handle draws
@@ -282,97 +867,75 @@ public class TournamentService {
      *                                  claimed
      */
     public User claimReward(Long userId) {
-        Optional<User> userOpt = userRepository.findById(userId);
-        if (userOpt.isEmpty()) { // Check if user is found
-            throw new IllegalArgumentException("User not found");
-        }
-
-        User user = userOpt.get();
-        List<TournamentUser> tournamentUsers = tournamentUserRepository.findByUser(user)
-                .stream()
-                .filter(tu -> tu.getReward() > 0 && !tu.isRewardClaimed())
-                .collect(Collectors.toList());
-
-        if (tournamentUsers.isEmpty()) { // Check if user has rewards to claim
-            throw new IllegalArgumentException("No rewards to claim or reward already claimed");
-        }
-
-        for (TournamentUser tournamentUser : tournamentUsers) {
-            user.setCoins(user.getCoins() + tournamentUser.getReward());
-            tournamentUser.setRewardClaimed(true);
-            tournamentUserRepository.save(tournamentUser);
-        }
+        userProgressBuffer.flushUsers(Collections.singleton(userId));
+        materializeLazyRewards(Collections.singleton(userId));
+        return transactionTemplate.execute(status -> {
+            Optional<User> userOpt = userRepository.findById(userId);
+            if (userOpt.isEmpty()) { // Check if user is found
+                throw new IllegalArgumentException("User not found");
+            }
 
-        userRepository.save(user);
+            int reward = userOpt.get().getPendingReward();
+            // Check if user has rewards to claim, the conditional payout loses to a concurrent claim
+            if (reward == 0 || userRepository.payPendingReward(userId, reward) == 0) {
+                throw new IllegalArgumentException("No rewards to claim or reward already claimed");
+            }
 
-        return user;
+            tournamentUserRepository.markRewardsClaimed(userId);
+            return userRepository.findById(userId)
+                    .orElseThrow(() -> new IllegalArgumentException("User not found"));
+        });
     }
 
     /**
-     * Finds the tournament group of a user for a given tournament.
+     * Recomputes the pending reward of every user from their tournament
+     * participations, e.g. to backfill users rewarded before the pending reward
+     * was recorded or to repair drifted rows. Users are processed in ranges of
+     * IDs, each in its own transaction, so live traffic is not blocked for long.
      * 
-     * @param user       the user entity
-     * @param tournament the tournament entity
-     * @return the tournament group entity, or null if not found
+     * @return the number of users whose pending reward was corrected
      */
-    private TournamentGroup findUserTournamentGroup(User user, Tournament tournament) {
-        logger.info("Finding tournament group for user {}", user.getId());
-        List<TournamentGroup> groups = tournamentGroupRepository.findByTournament(tournament);
-        for (TournamentGroup group : groups) {
-            logger.info("Checking group {}", group.getId());
-            for (TournamentUser participant : group.getParticipants()) {
-                if (participant.getUser().equals(user)) {
-                    logger.info("User {} found in group {}", user.getId(), group.getId());
-                    return group;
-                }
-            }
+    public int repairPendingRewards() {
+        Long maxId = userRepository.findMaxId();
+        int repaired = 0;
+        for (long firstId = 0; maxId != null && firstId <= maxId; firstId += PENDING_REWARD_REPAIR_BATCH_SIZE) {
+            repaired += userRepository.recomputePendingRewards(firstId,
+                    firstId + PENDING_REWARD_REPAIR_BATCH_SIZE - 1);
         }
-        logger.info("User {} not found in any group for tournament {}", user.getId(), tournament.getId());
-        return null;
+        logger.info("Repaired the pending rewards of {} users", repaired);
+        return repaired;
     }
 
     /**
-     * Retrieves the current active tournament, creating one if no active tournament
-     * exists.
+     * Retrieves the current active tournament from the {@link ActiveTournamentHolder}.
+     * Tournaments are only created by the scheduler and on startup, so concurrent
+     * entries cannot create several active tournaments.
      * 
      * @return the current active tournament
-     * @throws IllegalArgumentException if no active tournament is found and it's
-     *                                  not the appropriate time to create one
+     * @throws IllegalArgumentException if no tournament is active
      */
-    private Tournament getCurrentActiveTournament() {
-        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
-        List<Tournament> activeTournaments = tournamentRepository.findByIsActiveTrue();
-        // If system is started and there is no tournament create new one (Only for
-        // beginning of the system and for exceptions)
-        if (activeTournaments.isEmpty()) {
-            if (now.getHour() >= 0 && now.getHour() < 20) {
-                return createTournament();
-            } else {
-                throw new IllegalArgumentException("No active tournament found");
-            }
+    Tournament getCurrentActiveTournament() {
+        Tournament tournament = activeTournamentHolder.get();
+        if (tournament == null) {
+            throw new IllegalArgumentException("No active tournament found");
         }
-        return activeTournaments.get(0);
+        return tournament;
     }
 
     /**
-     * Finds the current active tournament that a user is participating in.
+     * Finds the participation of a user in the current active tournament.
      * 
      * @param user the user entity
-     * @return the current active tournament, or null if not found
+     * @return the user's participation, or null if the user is not in an active
+     *         tournament
      */
-    private Tournament getCurrentTournamentByUser(User user) {
-        logger.info("Finding current active tournament for user {}", user.getId());
-        List<TournamentUser> tournamentUsers = tournamentUserRepository.findByUser(user)
-                .stream()
-                .filter(tu -> tu.getTournamentGroup().getTournament().isActive())
-                .collect(Collectors.toList());
-
-        if (!tournamentUsers.isEmpty()) {
-            TournamentGroup group = tournamentUsers.get(0).getTournamentGroup();
-            if (group.getTournament().isActive()) {
-                logger.info("Found active tournament for user {}: {}", user.getId(), group.getTournament().getId());
-                return group.getTournament();
-            }
+    private TournamentUser getActiveParticipation(User user) {
+        TournamentUser tournamentUser = tournamentUserRepository.findLatestByUser(user).orElse(null);
+        if (tournamentUser != null
+                && activeTournamentHolder.isActive(tournamentUser.getTournamentGroup().getTournament().getId())) {
+            logger.info("Found active tournament for user {}: {}", user.getId(),
+                    tournamentUser.getTournamentGroup().getTournament().getId());
+            return tournamentUser;
         }
         logger.info("No active tournament found for user {}", user.getId());
         return null;
@@ -387,61 +950,170 @@ public class TournamentService {
      *                                  tournament group
      */
     public GroupLeaderboardEntry getGroupRank(Long userId) {
+        return getVersionedGroupRank(userId).getValue();
+    }
+
+    /**
+     * Retrieves the rank of a user within their tournament group together with
+     * the entity tag of the group leaderboard it was taken from.
+     * The user's group is remembered while their tournament is active, so
+     * repeated requests only need the group's leaderboard, see
+     * {@link #getActiveGroupId(Long)} and {@link #getVersionedLeaderboard(Long)}.
+     * 
+     * @param userId the ID of the user
+     * @return the user's rank and its entity tag
+     * @throws IllegalArgumentException if the user is not found or not part of any
+     *                                  tournament group
+     */
+    public Versioned<GroupLeaderboardEntry> getVersionedGroupRank(Long userId) {
+        Versioned<List<GroupLeaderboardEntry>> leaderboard = getVersionedLeaderboard(getActiveGroupId(userId));
+
+        GroupLeaderboardEntry userEntry = leaderboard.getValue().stream()
+                .filter(entry -> entry.getUserId().equals(userId))
+                .findFirst()
+                .orElse(null);
+
+        if (userEntry == null) {
+            throw new IllegalArgumentException("User is not found in the tournament group leaderboard");
+        }
+
+        return new Versioned<>(leaderboard.getETag(), userEntry);
+    }
+
+    /**
+     * Retrieves the group a user plays in in the active tournament. The group
+     * is remembered while the tournament is active.
+     * 
+     * @param userId the ID of the user
+     * @return the ID of the user's tournament group
+     * @throws IllegalArgumentException if the user is not found or not part of the
+     *                                  active tournament
+     */
+    public Long getActiveGroupId(Long userId) {
+        GroupLeaderboardCache.Membership membership = groupLeaderboardCache.getMembership(userId);
+        if (membership != null && activeTournamentHolder.isActive(membership.getTournamentId())) {
+            return membership.getGroupId();
+        }
+        materializeLazyRewards(Collections.singleton(userId));
+        return replicaReads.read(() -> {
+            Optional<User> userOpt = userRepository.findById(userId);
+            if (userOpt.isEmpty()) {
+                throw new IllegalArgumentException("User not found");
+            }
+
+            User user = userOpt.get();
+            TournamentUser participation = getActiveParticipation(user);
+
+            if (participation == null) {
+                throw new IllegalArgumentException("No active tournament found for user");
+            }
+
+            TournamentGroup group = participation.getTournamentGroup();
+            groupLeaderboardCache.putMembership(userId, group.getTournament().getId(), group.getId());
+            return group.getId();
+        });
+    }
+
+    /**
+     * Retrieves the rank of a user among all participants of their current
+     * tournament.
+     * 
+     * @param userId the ID of the user
+     * @return the user's tournament-wide rank and user information
+     * @throws IllegalArgumentException if the user is not found or not part of the
+     *                                  active tournament
+     */
+    public GroupLeaderboardEntry getGlobalRank(Long userId) {
+        materializeLazyRewards(Collections.singleton(userId));
         Optional<User> userOpt = userRepository.findById(userId);
         if (userOpt.isEmpty()) {
             throw new IllegalArgumentException("User not found");
         }
 
         User user = userOpt.get();
-        Tournament currentTournament = getCurrentTournamentByUser(user);
+        TournamentUser participation = getActiveParticipation(user);
 
-        if (currentTournament == null) {
+        if (participation == null) {
             throw new IllegalArgumentException("No active tournament found for user");
         }
 
-        TournamentGroup group = findUserTournamentGroup(user, currentTournament);
-        if (group == null) {
-            throw new IllegalArgumentException("User is not part of any tournament group");
+        TournamentRankIndex.RankedScore rankedScore = tournamentRankIndex.getRank(
+                participation.getTournamentGroup().getTournament().getId(), userId);
+        if (rankedScore == null) {
+            throw new IllegalArgumentException("User is not found in the tournament leaderboard");
         }
 
-        List<GroupLeaderboardEntry> leaderboard = getLeaderboard(group);
-
-        GroupLeaderboardEntry userEntry = leaderboard.stream()
-                .filter(entry -> entry.getUserId().equals(userId))
-                .findFirst()
-                .orElse(null);
+        return new GroupLeaderboardEntry(user.getId(), user.getUsername(),
+                user.getCountry() == null ? "Unknown" : user.getCountry().toString(),
+                rankedScore.getScore(), rankedScore.getRank());
+    }
 
-        if (userEntry == null) {
-            throw new IllegalArgumentException("User is not found in the tournament group leaderboard");
+    /**
+     * Retrieves the top participants of an active tournament across all groups.
+     * Ties share a rank, as in the group leaderboard.
+     * 
+     * @param tournamentId the ID of the tournament
+     * @param limit        the maximum number of entries, at most {@value #MAX_GLOBAL_LEADERBOARD_SIZE}
+     * @return a list of leaderboard entries
+     * @throws IllegalArgumentException if the tournament is not found or not active
+     */
+    public List<GroupLeaderboardEntry> getGlobalLeaderboard(Long tournamentId, int limit) {
+        if (limit < 1 || limit > MAX_GLOBAL_LEADERBOARD_SIZE) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_GLOBAL_LEADERBOARD_SIZE);
+        }
+        if (!activeTournamentHolder.isActive(tournamentId)) {
+            throw new IllegalArgumentException(tournamentRepository.existsById(tournamentId)
+                    ? "Tournament is not active" : "Tournament not found");
         }
 
-        return userEntry;
+        List<TournamentRankIndex.RankedScore> top = tournamentRankIndex.getTop(tournamentId, limit);
+        Map<Long, User> users = userRepository.findAllById(top.stream()
+                .map(TournamentRankIndex.RankedScore::getUserId)
+                .collect(Collectors.toList()))
+                .stream()
+                .collect(Collectors.toMap(User::getId, user -> user));
+
+        return top.stream()
+                .filter(rankedScore -> users.containsKey(rankedScore.getUserId()))
+                .map(rankedScore -> {
+                    User user = users.get(rankedScore.getUserId());
+                    return new GroupLeaderboardEntry(user.getId(), user.getUsername(),
+                            user.getCountry() == null ? "Unknown" : user.getCountry().toString(),
+                            rankedScore.getScore(), rankedScore.getRank());
+                })
+                .collect(Collectors.toList());
     }
 
     /**
      * Retrieves the country leaderboard for a specific tournament.
+     * The totals come from the incrementally maintained {@link CountryScoreCounters},
+     * those of finished tournaments from their {@link TournamentSnapshot}.
      * 
      * @param tournamentId the ID of the tournament
      * @return a list of country scores
      * @throws IllegalArgumentException if the tournament is not found
      */
     public List<CountryScore> getCountryLeaderboard(Long tournamentId) {
-        Tournament tournament = tournamentRepository.findById(tournamentId)
-                .orElseThrow(() -> new IllegalArgumentException("Tournament not found"));
-        List<TournamentGroup> groups = tournamentGroupRepository.findByTournament(tournament);
-        Map<String, Integer> countryScores = new HashMap<>();
-
-        for (TournamentGroup group : groups) {
-            for (TournamentUser participant : group.getParticipants()) {
-                String country = participant.getUser().getCountry().name();
-                countryScores.put(country, countryScores.getOrDefault(country, 0) + participant.getScore());
+        if (!activeTournamentHolder.isActive(tournamentId)) {
+            TournamentSnapshot snapshot = replicaReads.read(() -> getSnapshot(tournamentId));
+            if (snapshot != null) {
+                return snapshot.getCountryScores();
             }
         }
+        if (!replicaReads.read(() -> tournamentRepository.existsById(tournamentId))) {
+            throw new IllegalArgumentException("Tournament not found");
+        }
+        return countCountryScores(tournamentId);
+    }
 
-        return countryScores.entrySet().stream()
-                .map(entry -> new CountryScore(entry.getKey(), entry.getValue()))
-                .sorted((cs1, cs2) -> cs2.getTotalScore() - cs1.getTotalScore())
-                .collect(Collectors.toList());
+    private List<CountryScore> countCountryScores(Long tournamentId) {
+        List<CountryScore> counted = countryScoreCounters.getLeaderboard(tournamentId);
+        if (!counted.isEmpty()) {
+            return counted;
+        }
+
+        // Tournaments played before the counters were introduced are summed from their participants
+        return replicaReads.read(() -> tournamentUserRepository.sumScoresByCountry(tournamentId));
     }
 
     /**
@@ -461,11 +1133,14 @@ public class TournamentService {
      * This method is intended for test purposes.
      */
     public void endTournamentDirectly() {
+        userProgressBuffer.flush(); // Rewards are based on the persisted scores
         List<Tournament> activeTournaments = tournamentRepository.findByIsActiveTrue();
         for (Tournament tournament : activeTournaments) {
-            tournament.setActive(false);
-            tournamentRepository.save(tournament);
-            distributeRewards(tournament);
+            deactivateTournament(tournament);
+            if (!tournament.isLazyRewards()) {
+                distributeRewards(tournament);
+                tournamentRepository.markRewardsDistributed(tournament.getId());
+            }
         }
     }
 }
@@ -0,0 +1,278 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import com.dreamgames.backendengineeringcasestudy.dto.CountryScore;
+import com.dreamgames.backendengineeringcasestudy.dto.GroupLeaderboardEntry;
+import com.dreamgames.backendengineeringcasestudy.model.Country;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The final group rankings and country totals of a finished tournament.
+ * <p>
+ * The participants of all groups are kept in parallel arrays ordered by group
+ * ID, and the groups are found by a binary search over their IDs, so a
+ * snapshot costs a few dozen bytes per participant instead of an object per
+ * leaderboard entry. Snapshots are written as gzip compressed binary files.
+ */
+public class TournamentSnapshot {
+
+    private static final int MAGIC = 0x54534e31; // "TSN1"
+
+    private static final Country[] COUNTRIES = Country.values();
+
+    private static final byte UNKNOWN_COUNTRY = -1;
+
+    private final Long tournamentId;
+    private final List<CountryScore> countryScores;
+    private final long[] groupIds; // Sorted
+    private final int[] groupStarts; // Offset of each group's first participant, and the total at the end
+    private final long[] userIds;
+    private final String[] usernames;
+    private final byte[] countries;
+    private final int[] scores;
+    private final int[] ranks;
+
+    private TournamentSnapshot(Long tournamentId, List<CountryScore> countryScores, long[] groupIds,
+            int[] groupStarts, long[] userIds, String[] usernames, byte[] countries, int[] scores, int[] ranks) {
+        this.tournamentId = tournamentId;
+        this.countryScores = Collections.unmodifiableList(countryScores);
+        this.groupIds = groupIds;
+        this.groupStarts = groupStarts;
+        this.userIds = userIds;
+        this.usernames = usernames;
+        this.countries = countries;
+        this.scores = scores;
+        this.ranks = ranks;
+    }
+
+    /**
+     * Creates a snapshot from ranked group leaderboards.
+     *
+     * @param tournamentId  the ID of the tournament
+     * @param groups        the ranked leaderboards by group ID
+     * @param countryScores the country totals, sorted from highest to lowest
+     * @return the snapshot
+     */
+    public static TournamentSnapshot of(Long tournamentId, SortedMap<Long, List<GroupLeaderboardEntry>> groups,
+            List<CountryScore> countryScores) {
+        int participants = groups.values().stream().mapToInt(List::size).sum();
+        long[] groupIds = new long[groups.size()];
+        int[] groupStarts = new int[groups.size() + 1];
+        long[] userIds = new long[participants];
+        String[] usernames = new String[participants];
+        byte[] countries = new byte[participants];
+        int[] scores = new int[participants];
+        int[] ranks = new int[participants];
+        int group = 0;
+        int index = 0;
+        for (Map.Entry<Long, List<GroupLeaderboardEntry>> leaderboard : groups.entrySet()) {
+            groupIds[group] = leaderboard.getKey();
+            groupStarts[group++] = index;
+            for (GroupLeaderboardEntry entry : leaderboard.getValue()) {
+                userIds[index] = entry.getUserId();
+                usernames[index] = entry.getUsername();
+                countries[index] = countryIndex(entry.getCountry());
+                scores[index] = entry.getScore();
+                ranks[index++] = entry.getRank();
+            }
+        }
+        groupStarts[group] = index;
+        return new TournamentSnapshot(tournamentId, new ArrayList<>(countryScores), groupIds, groupStarts, userIds,
+                usernames, countries, scores, ranks);
+    }
+
+    public Long getTournamentId() {
+        return tournamentId;
+    }
+
+    public List<CountryScore> getCountryScores() {
+        return countryScores;
+    }
+
+    /**
+     * Checks whether a group belongs to this tournament.
+     *
+     * @param groupId the ID of the group
+     * @return true if the snapshot contains the group
+     */
+    public boolean containsGroup(Long groupId) {
+        return Arrays.binarySearch(groupIds, groupId) >= 0;
+    }
+
+    /**
+     * Retrieves the final leaderboard of a group.
+     *
+     * @param groupId the ID of the group
+     * @return the ranked leaderboard entries, or null if the group is not part of this tournament
+     */
+    public List<GroupLeaderboardEntry> getGroupLeaderboard(Long groupId) {
+        int group = Arrays.binarySearch(groupIds, groupId);
+        if (group < 0) {
+            return null;
+        }
+        List<GroupLeaderboardEntry> leaderboard = new ArrayList<>(groupStarts[group + 1] - groupStarts[group]);
+        for (int i = groupStarts[group]; i < groupStarts[group + 1]; i++) {
+            leaderboard.add(new GroupLeaderboardEntry(userIds[i], usernames[i], countryName(countries[i]),
+                    scores[i], ranks[i]));
+        }
+        return leaderboard;
+    }
+
+    /**
+     * Builds the entity tag of a group's final leaderboard, which never changes.
+     *
+     * @param groupId the ID of the group
+     * @return the quoted entity tag
+     */
+    public String eTag(Long groupId) {
+        return "\"t" + tournamentId + "g" + groupId + "\"";
+    }
+
+    /**
+     * Estimates the heap size of the snapshot.
+     *
+     * @return the approximate size in bytes
+     */
+    public long estimatedBytes() {
+        long bytes = 64L * (countryScores.size() + 10) + 12L * groupIds.length
+                + (8L + 8 + 1 + 4 + 4) * userIds.length;
+        for (String username : usernames) {
+            bytes += username == null ? 0 : 40 + 2L * username.length();
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the snapshot gzip compressed.
+     *
+     * @param out the stream, which is finished but not closed
+     * @throws IOException if writing fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(out, 64 * 1024);
+        DataOutputStream data = new DataOutputStream(gzip);
+        data.writeInt(MAGIC);
+        data.writeLong(tournamentId);
+        data.writeInt(countryScores.size());
+        for (CountryScore countryScore : countryScores) {
+            data.writeUTF(countryScore.getCountry());
+            data.writeInt(countryScore.getTotalScore());
+        }
+        data.writeInt(groupIds.length);
+        for (int group = 0; group < groupIds.length; group++) {
+            data.writeLong(groupIds[group]);
+            data.writeShort(groupStarts[group + 1] - groupStarts[group]);
+            for (int i = groupStarts[group]; i < groupStarts[group + 1]; i++) {
+                data.writeLong(userIds[i]);
+                data.writeBoolean(usernames[i] != null);
+                if (usernames[i] != null) {
+                    data.writeUTF(usernames[i]);
+                }
+                data.writeByte(countries[i]);
+                data.writeInt(scores[i]);
+                data.writeInt(ranks[i]);
+            }
+        }
+        data.flush();
+        gzip.finish();
+    }
+
+    /**
+     * Reads a snapshot written by {@link #writeTo(OutputStream)}.
+     *
+     * @param in the stream
+     * @return the snapshot
+     * @throws IOException if reading fails or the stream is not a snapshot
+     */
+    public static TournamentSnapshot readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new GZIPInputStream(in, 64 * 1024));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a tournament snapshot");
+        }
+        Long tournamentId = data.readLong();
+        int countryCount = data.readInt();
+        List<CountryScore> countryScores = new ArrayList<>(countryCount);
+        for (int i = 0; i < countryCount; i++) {
+            countryScores.add(new CountryScore(data.readUTF(), data.readInt()));
+        }
+        int groupCount = data.readInt();
+        long[] groupIds = new long[groupCount];
+        int[] groupStarts = new int[groupCount + 1];
+        GrowingArrays participants = new GrowingArrays(groupCount * GroupMatchmaker.GROUP_SIZE);
+        for (int group = 0; group < groupCount; group++) {
+            groupIds[group] = data.readLong();
+            groupStarts[group] = participants.size;
+            int size = data.readUnsignedShort();
+            for (int i = 0; i < size; i++) {
+                long userId = data.readLong();
+                String username = data.readBoolean() ? data.readUTF() : null;
+                participants.add(userId, username, data.readByte(), data.readInt(), data.readInt());
+            }
+        }
+        groupStarts[groupCount] = participants.size;
+        int size = participants.size;
+        return new TournamentSnapshot(tournamentId, countryScores, groupIds, groupStarts,
+                Arrays.copyOf(participants.userIds, size), Arrays.copyOf(participants.usernames, size),
+                Arrays.copyOf(participants.countries, size), Arrays.copyOf(participants.scores, size),
+                Arrays.copyOf(participants.ranks, size));
+    }
+
+    private static byte countryIndex(String country) {
+        for (Country candidate : COUNTRIES) {
+            if (candidate.toString().equals(country)) {
+                return (byte) candidate.ordinal();
+            }
+        }
+        return UNKNOWN_COUNTRY;
+    }
+
+    private static String countryName(byte index) {
+        return index == UNKNOWN_COUNTRY ? "Unknown" : COUNTRIES[index].toString();
+    }
+
+    private static class GrowingArrays {
+        private long[] userIds;
+        private String[] usernames;
+        private byte[] countries;
+        private int[] scores;
+        private int[] ranks;
+        private int size;
+
+        GrowingArrays(int capacity) {
+            capacity = Math.max(capacity, 16);
+            userIds = new long[capacity];
+            usernames = new String[capacity];
+            countries = new byte[capacity];
+            scores = new int[capacity];
+            ranks = new int[capacity];
+        }
+
+        void add(long userId, String username, byte country, int score, int rank) {
+            if (size == userIds.length) {
+                int capacity = size * 2;
+                userIds = Arrays.copyOf(userIds, capacity);
+                usernames = Arrays.copyOf(usernames, capacity);
+                countries = Arrays.copyOf(countries, capacity);
+                scores = Arrays.copyOf(scores, capacity);
+                ranks = Arrays.copyOf(ranks, capacity);
+            }
+            userIds[size] = userId;
+            usernames[size] = username;
+            countries[size] = country;
+            scores[size] = score;
+            ranks[size++] = rank;
+        }
+    }
+}
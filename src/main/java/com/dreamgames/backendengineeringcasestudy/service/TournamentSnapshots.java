@@ -0,0 +1,144 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshots of finished tournaments, kept in memory and in local files.
+ * <p>
+ * A finished tournament never changes again, so its snapshot is written once
+ * to {@code tournament.snapshot.dir} and read back from there after the
+ * snapshot was dropped from memory or the node restarted. The snapshots in
+ * memory are bounded by their estimated size, {@code cache-bytes}, and the
+ * least recently used ones are dropped first.
+ */
+@Component
+public class TournamentSnapshots {
+
+    private static final Logger logger = LoggerFactory.getLogger(TournamentSnapshots.class);
+
+    @Value("${tournament.snapshot.dir:${java.io.tmpdir}/tournament-snapshots}")
+    private String dir;
+
+    @Value("${tournament.snapshot.cache-bytes:134217728}")
+    private long cacheBytes = 134217728;
+
+    private final LinkedHashMap<Long, TournamentSnapshot> snapshots = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long cachedBytes;
+
+    /**
+     * Retrieves the snapshot of a tournament from memory, or from its file.
+     *
+     * @param tournamentId the ID of the tournament
+     * @return the snapshot, or null if the tournament has none
+     */
+    public TournamentSnapshot get(Long tournamentId) {
+        synchronized (this) {
+            TournamentSnapshot cached = snapshots.get(tournamentId);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        TournamentSnapshot read = read(tournamentId);
+        if (read != null) {
+            cache(read);
+        }
+        return read;
+    }
+
+    /**
+     * Stores the snapshot of a finished tournament in its file and in memory.
+     * A snapshot that cannot be written is still kept in memory.
+     *
+     * @param snapshot the snapshot
+     */
+    public void put(TournamentSnapshot snapshot) {
+        try {
+            write(snapshot);
+        } catch (IOException e) {
+            logger.warn("Failed to write the snapshot of tournament {}", snapshot.getTournamentId(), e);
+        }
+        cache(snapshot);
+    }
+
+    /**
+     * Finds a group among the snapshots in memory. Files are not searched, as
+     * the tournament of a group is not known here.
+     *
+     * @param groupId the ID of the group
+     * @return the snapshot containing the group, or null if none in memory does
+     */
+    public TournamentSnapshot findGroup(Long groupId) {
+        List<TournamentSnapshot> cached;
+        synchronized (this) {
+            cached = new ArrayList<>(snapshots.values());
+        }
+        for (TournamentSnapshot snapshot : cached) {
+            if (snapshot.containsGroup(groupId)) {
+                get(snapshot.getTournamentId()); // Marks it as used
+                return snapshot;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void cache(TournamentSnapshot snapshot) {
+        TournamentSnapshot replaced = snapshots.put(snapshot.getTournamentId(), snapshot);
+        if (replaced != null) {
+            cachedBytes -= replaced.estimatedBytes();
+        }
+        cachedBytes += snapshot.estimatedBytes();
+        Iterator<Map.Entry<Long, TournamentSnapshot>> eldest = snapshots.entrySet().iterator();
+        while (cachedBytes > cacheBytes && snapshots.size() > 1) { // The newest one is kept even if it is too large
+            cachedBytes -= eldest.next().getValue().estimatedBytes();
+            eldest.remove();
+        }
+    }
+
+    private TournamentSnapshot read(Long tournamentId) {
+        try (InputStream in = Files.newInputStream(file(tournamentId))) {
+            return TournamentSnapshot.readFrom(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.warn("Failed to read the snapshot of tournament {}, it will be rebuilt", tournamentId, e);
+            return null;
+        }
+    }
+
+    // Written to a temporary file first, so readers never see a partial snapshot
+    private void write(TournamentSnapshot snapshot) throws IOException {
+        Path target = file(snapshot.getTournamentId());
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                snapshot.writeTo(out);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private Path file(Long tournamentId) {
+        return Paths.get(dir, "tournament-" + tournamentId + ".snap.gz");
+    }
+}
@@ -0,0 +1,134 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import com.dreamgames.backendengineeringcasestudy.debug.SqlStatistics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Opt-in per-user command lanes.
+ * <p>
+ * Commands that read and write a user's row, i.e. level-ups, entries and reward
+ * claims, are routed by user ID to one of a fixed number of single-threaded
+ * lanes. The commands of a user therefore run one after another in arrival
+ * order, so a retried request never waits on the row lock of the original one
+ * or overwrites its update, while different users are spread over all lanes.
+ * <p>
+ * A lane runs one command at a time, so a slow command delays the other users
+ * mapped to the same lane. Every lane has a bounded queue and rejects commands
+ * once it is full, and a command that waited {@code queue-timeout-ms} without
+ * starting is dropped, so a saturated lane fails requests fast instead of
+ * piling up waiting callers. Several nodes still rely on the database to order
+ * the commands of a user they receive at the same time.
+ */
+@Component
+public class UserCommandLanes {
+
+    private static final ThreadLocal<Boolean> IN_LANE = ThreadLocal.withInitial(() -> false);
+
+    @Value("${user.lanes.enabled:false}")
+    private boolean enabled;
+
+    @Value("${user.lanes.count:16}")
+    private int laneCount;
+
+    @Value("${user.lanes.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${user.lanes.queue-timeout-ms:2000}")
+    private long queueTimeoutMs;
+
+    private ThreadPoolExecutor[] lanes;
+
+    @PostConstruct
+    void start() {
+        if (!enabled) {
+            return;
+        }
+        lanes = new ThreadPoolExecutor[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            String name = "user-lane-" + i;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(queueCapacity), runnable -> {
+                        Thread thread = new Thread(() -> {
+                            IN_LANE.set(true);
+                            runnable.run();
+                        }, name);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        if (lanes != null) {
+            for (ThreadPoolExecutor lane : lanes) {
+                lane.shutdown(); // Queued commands still run, their callers are waiting for them
+            }
+        }
+    }
+
+    /**
+     * Runs a command in the lane of the given user and waits for its result.
+     * Runs it on the calling thread if the lanes are disabled or the caller
+     * already is a lane.
+     *
+     * @param userId  the ID of the user the command reads and writes
+     * @param command the command
+     * @return the result of the command
+     * @throws RejectedExecutionException if the user's lane is full, or the
+     *                                    command did not start in time and was dropped
+     */
+    public <T> T execute(Long userId, Supplier<T> command) {
+        if (!enabled || IN_LANE.get()) {
+            return command.get();
+        }
+        AtomicBoolean claimed = new AtomicBoolean(); // By the lane to run the command, or by the caller to drop it
+        ThreadPoolExecutor lane = lanes[Math.floorMod(Long.hashCode(userId), lanes.length)];
+        List<SqlStatistics> statistics = Collections.singletonList(SqlStatistics.current());
+        Future<T> result;
+        try {
+            result = lane.submit(() -> claimed.compareAndSet(false, true)
+                    ? SqlStatistics.recordFor(statistics, command) : null);
+        } catch (RejectedExecutionException e) {
+            throw new RejectedExecutionException("The command lane of user " + userId + " is full", e);
+        }
+        try {
+            try {
+                return result.get(queueTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (claimed.compareAndSet(false, true)) {
+                    lane.remove((Runnable) result); // Frees its place in the queue for the next command
+                    throw new RejectedExecutionException("The command lane of user " + userId + " is busy", e);
+                }
+                return result.get(); // Already running, and it may have written, so its outcome is returned
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a command of user " + userId, e);
+        } catch (ExecutionException e) {
+            // Rethrown as is, so callers handle e.g. an IllegalArgumentException as before
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import com.dreamgames.backendengineeringcasestudy.model.User;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Opt-in write-behind buffer for level-ups.
+ * <p>
+ * Instead of saving the user and their participation on every level-up, the
+ * level, coin and score deltas are accumulated per user and per participation
+ * and periodically added to the database with batched
+ * {@code UPDATE ... SET x = x + ?} statements. Deltas are relative, so several
+ * nodes can buffer level-ups of the same user without overwriting each other.
+ * <p>
+ * Pending deltas are applied to the users and scores this node returns, they
+ * are flushed before entries and reward claims read a user's coins, before
+ * rewards are distributed and on shutdown.
+ */
+@Component
+public class UserProgressBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserProgressBuffer.class);
+
+    private static final String UPDATE_USER_SQL = "UPDATE users SET level = level + ?, coins = coins + ? WHERE id = ?";
+
+    private static final String UPDATE_SCORE_SQL = "UPDATE tournament_users SET score = score + ? WHERE id = ?";
+
+    // Marks the score change for GroupLeaderboardCache in the transaction of the scores
+    private static final String BUMP_GROUP_VERSION_SQL = "UPDATE tournament_groups SET version = version + 1 "
+            + "WHERE id = (SELECT tournament_group_id FROM tournament_users WHERE id = ?)";
+
+    @Value("${user.level-up.write-behind.enabled:false}")
+    private boolean enabled;
+
+    @Value("${user.level-up.write-behind.max-pending:10000}")
+    private int maxPending;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // Updated atomically per key by ConcurrentHashMap, whose locking is striped by bin
+    private final Map<Long, UserDelta> userDeltas = new ConcurrentHashMap<>();
+
+    private final Map<Long, Integer> scoreDeltas = new ConcurrentHashMap<>(); // By TournamentUser ID
+
+    // Deltas being written by a flush, still applied to reads until committed
+    private final Map<Long, UserDelta> inFlightUserDeltas = new ConcurrentHashMap<>();
+
+    private final Map<Long, Integer> inFlightScoreDeltas = new ConcurrentHashMap<>();
+
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    // Held by a flush while it commits and drops its in-flight deltas, so no read counts a delta twice
+    private final ReentrantReadWriteLock commitLock = new ReentrantReadWriteLock();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Buffers a level-up of a user.
+     *
+     * @param userId           the ID of the user
+     * @param coins            the coins earned by the level-up
+     * @param tournamentUserId the participation whose score goes up by one, or
+     *                         null if the user is not competing
+     */
+    public void recordLevelUp(Long userId, int coins, Long tournamentUserId) {
+        userDeltas.merge(userId, new UserDelta(1, coins), UserDelta::plus);
+        if (tournamentUserId != null) {
+            scoreDeltas.merge(tournamentUserId, 1, Integer::sum);
+        }
+        if (userDeltas.size() >= maxPending && flushLock.tryLock()) {
+            try {
+                flushPending();
+            } finally {
+                flushLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the user with its pending level and coin deltas applied.
+     *
+     * @param user the user as persisted, may be null
+     * @return a detached copy including the pending deltas, or the given user if
+     *         nothing is pending
+     */
+    public User applyPending(User user) {
+        if (user == null) {
+            return null;
+        }
+        UserDelta delta;
+        commitLock.readLock().lock();
+        try {
+            delta = UserDelta.sum(inFlightUserDeltas.get(user.getId()), userDeltas.get(user.getId()));
+        } finally {
+            commitLock.readLock().unlock();
+        }
+        if (delta == null) {
+            return user;
+        }
+        User view = new User();
+        view.setId(user.getId());
+        view.setUsername(user.getUsername());
+        view.setCountry(user.getCountry());
+        view.setLatestTournamentUserId(user.getLatestTournamentUserId());
+        view.setPendingReward(user.getPendingReward());
+        view.setLevel(user.getLevel() + delta.levels);
+        view.setCoins(user.getCoins() + delta.coins);
+        return view;
+    }
+
+    /**
+     * Returns the score points of a participation that are not persisted yet.
+     *
+     * @param tournamentUserId the ID of the participation
+     * @return the pending score delta
+     */
+    public int pendingScore(Long tournamentUserId) {
+        if (tournamentUserId == null) {
+            return 0;
+        }
+        commitLock.readLock().lock();
+        try {
+            int inFlight = inFlightScoreDeltas.getOrDefault(tournamentUserId, 0);
+            return inFlight + scoreDeltas.getOrDefault(tournamentUserId, 0);
+        } finally {
+            commitLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Persists the pending level and coin deltas of the given users in their
+     * own transaction, so a caller about to read their coins sees them. Call
+     * it before the caller's transaction starts, so a request never holds two
+     * pooled connections at once.
+     *
+     * @param userIds the IDs of the users
+     */
+    public void flushUsers(Collection<Long> userIds) {
+        if (userDeltas.isEmpty()) {
+            return;
+        }
+        Map<Long, UserDelta> drained = new HashMap<>();
+        for (Long userId : userIds) {
+            drainUser(userId, drained);
+        }
+        persist(drained, Map.of(), true);
+    }
+
+    /**
+     * Persists all pending deltas.
+     */
+    @Scheduled(fixedDelayString = "${user.level-up.write-behind.flush-interval-ms:200}")
+    @PreDestroy
+    public void flush() {
+        flushLock.lock();
+        try {
+            flushPending();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushPending() {
+        if (userDeltas.isEmpty() && scoreDeltas.isEmpty()) {
+            return;
+        }
+        Map<Long, UserDelta> drainedUsers = new HashMap<>();
+        for (Long userId : userDeltas.keySet()) {
+            drainUser(userId, drainedUsers);
+        }
+        Map<Long, Integer> drainedScores = new HashMap<>();
+        for (Long tournamentUserId : scoreDeltas.keySet()) {
+            scoreDeltas.computeIfPresent(tournamentUserId, (id, delta) -> {
+                inFlightScoreDeltas.merge(id, delta, Integer::sum);
+                drainedScores.put(id, delta);
+                return null;
+            });
+        }
+        persist(drainedUsers, drainedScores, false);
+    }
+
+    // Moves the pending delta of a user to the in-flight deltas in one atomic step
+    private void drainUser(Long userId, Map<Long, UserDelta> drained) {
+        userDeltas.computeIfPresent(userId, (id, delta) -> {
+            inFlightUserDeltas.merge(id, delta, UserDelta::plus);
+            drained.put(id, delta);
+            return null;
+        });
+    }
+
+    private void persist(Map<Long, UserDelta> users, Map<Long, Integer> scores, boolean rethrow) {
+        if (users.isEmpty() && scores.isEmpty()) {
+            return;
+        }
+        List<Object[]> userRows = new ArrayList<>();
+        users.forEach((userId, delta) -> userRows.add(new Object[] { delta.levels, delta.coins, userId }));
+        List<Object[]> scoreRows = new ArrayList<>();
+        List<Object[]> groupRows = new ArrayList<>();
+        scores.forEach((tournamentUserId, delta) -> {
+            scoreRows.add(new Object[] { delta, tournamentUserId });
+            groupRows.add(new Object[] { tournamentUserId });
+        });
+
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                releaseInFlight(users, scores);
+            }
+        };
+        try {
+            TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+            transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            transaction.executeWithoutResult(status -> {
+                if (!userRows.isEmpty()) {
+                    jdbcTemplate.batchUpdate(UPDATE_USER_SQL, userRows);
+                }
+                if (!scoreRows.isEmpty()) {
+                    jdbcTemplate.batchUpdate(UPDATE_SCORE_SQL, scoreRows);
+                    jdbcTemplate.batchUpdate(BUMP_GROUP_VERSION_SQL, groupRows);
+                }
+                if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+                    return;
+                }
+                // Reads see the committed rows only once the deltas are no longer in flight
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void beforeCommit(boolean readOnly) {
+                        commitLock.writeLock().lock();
+                    }
+
+                    @Override
+                    public void afterCompletion(int status) {
+                        try {
+                            release.run();
+                        } finally {
+                            if (commitLock.isWriteLockedByCurrentThread()) {
+                                commitLock.writeLock().unlock();
+                            }
+                        }
+                    }
+                });
+            });
+        } catch (RuntimeException e) {
+            logger.error("Failed to persist level-ups of {} users, keeping them for the next flush", users.size(), e);
+            release.run(); // Before they are pending again, a read in between would count them twice
+            users.forEach((userId, delta) -> userDeltas.merge(userId, delta, UserDelta::plus));
+            scores.forEach((tournamentUserId, delta) -> scoreDeltas.merge(tournamentUserId, delta, Integer::sum));
+            if (rethrow) {
+                throw e;
+            }
+        } finally {
+            release.run();
+        }
+    }
+
+    private void releaseInFlight(Map<Long, UserDelta> users, Map<Long, Integer> scores) {
+        users.forEach((userId, delta) -> inFlightUserDeltas.computeIfPresent(userId,
+                (id, inFlight) -> inFlight.minus(delta)));
+        scores.forEach((tournamentUserId, delta) -> inFlightScoreDeltas.computeIfPresent(tournamentUserId,
+                (id, inFlight) -> inFlight - delta == 0 ? null : inFlight - delta));
+    }
+
+    private static class UserDelta {
+        private final int levels;
+        private final int coins;
+
+        UserDelta(int levels, int coins) {
+            this.levels = levels;
+            this.coins = coins;
+        }
+
+        UserDelta plus(UserDelta other) {
+            return new UserDelta(levels + other.levels, coins + other.coins);
+        }
+
+        // Returns null once nothing is left, which removes the map entry
+        UserDelta minus(UserDelta other) {
+            if (levels == other.levels && coins == other.coins) {
+                return null;
+            }
+            return new UserDelta(levels - other.levels, coins - other.coins);
+        }
+
+        static UserDelta sum(UserDelta first, UserDelta second) {
+            if (first == null || second == null) {
+                return first == null ? second : first;
+            }
+            return first.plus(second);
+        }
+    }
+}
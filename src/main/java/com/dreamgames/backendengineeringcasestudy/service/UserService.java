@@ -4,13 +4,18 @@ import com.dreamgames.backendengineeringcasestudy.model.Country;
 import com.dreamgames.backendengineeringcasestudy.model.TournamentGroup;
 import com.dreamgames.backendengineeringcasestudy.model.TournamentUser;
 import com.dreamgames.backendengineeringcasestudy.model.User;
+import com.dreamgames.backendengineeringcasestudy.replica.ReplicaReads;
 import com.dreamgames.backendengineeringcasestudy.repository.UserRepository;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentGroupRepository;
 import com.dreamgames.backendengineeringcasestudy.repository.TournamentUserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.stream.Collectors;
 
 /**
  * Service class for managing users.
@@ -24,6 +29,33 @@ public class UserService {
     @Autowired
     private TournamentUserRepository tournamentUserRepository;
 
+    @Autowired
+    private TournamentGroupRepository tournamentGroupRepository;
+
+    @Autowired
+    private CountryScoreCounters countryScoreCounters;
+
+    @Autowired
+    private TournamentRankIndex tournamentRankIndex;
+
+    @Autowired
+    private UserProgressBuffer userProgressBuffer;
+
+    @Autowired
+    private ActiveTournamentHolder activeTournamentHolder;
+
+    @Autowired
+    private GroupLeaderboardCache groupLeaderboardCache;
+
+    @Autowired
+    private LeaderboardStreams leaderboardStreams;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ReplicaReads replicaReads;
+
     /**
      * Creates a new user with a given username.
      * If the username is not provided, it assigns a default username.
@@ -51,6 +83,37 @@ public class UserService {
         return savedUser;
     }
 
+    /**
+     * Creates the given number of users with default usernames.
+     * The users take their IDs from a preallocated block, so they are inserted
+     * with one JDBC batch and their usernames are set with another.
+     *
+     * @param count the number of users to create, between 1 and 1000
+     * @return the newly created users
+     * @throws IllegalArgumentException if the count is out of range
+     */
+    public List<User> createUsers(int count) {
+        if (count < 1 || count > 1000) {
+            throw new IllegalArgumentException("Count must be between 1 and 1000");
+        }
+        Country[] countries = Country.values();
+        Random random = new Random();
+        List<User> newUsers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            User newUser = new User();
+            newUser.setLevel(1); // Starting level
+            newUser.setCoins(5000); // Starting coins
+            newUser.setCountry(countries[random.nextInt(countries.length)]);
+            newUsers.add(newUser);
+        }
+        return transactionTemplate.execute(status -> {
+            List<User> savedUsers = userRepository.saveAll(newUsers);
+            // The IDs are assigned on save, the usernames are written when the transaction commits
+            savedUsers.forEach(savedUser -> savedUser.setUsername("username" + savedUser.getId()));
+            return savedUsers;
+        });
+    }
+
     /**
      * Saves the user entity.
      * 
@@ -67,7 +130,9 @@ public class UserService {
      * @return a list of all users
      */
     public List<User> getAllUsers() {
-        return userRepository.findAll();
+        return userRepository.findAll().stream()
+                .map(userProgressBuffer::applyPending)
+                .collect(Collectors.toList());
     }
 
     /**
@@ -77,7 +142,7 @@ public class UserService {
      * @return the user entity if found, null otherwise
      */
     public User getUserById(Long id) {
-        return userRepository.findById(id).orElse(null);
+        return userProgressBuffer.applyPending(replicaReads.read(() -> userRepository.findById(id).orElse(null)));
     }
 
     /**
@@ -102,27 +167,74 @@ public class UserService {
     /**
      * Updates the level and coins of a user by their ID.
      * If the user is in a tournament and the competition has started, their score
-     * is also updated.
+     * is also updated. With write-behind enabled the changes are buffered in
+     * {@link UserProgressBuffer} instead of being saved right away.
      * 
      * @param userId the ID of the user to update
      * @return the updated user entity if found, null otherwise
      */
     public User updateUserLevel(Long userId) {
-        User user = getUserById(userId);
-        if (user != null) {
-            user.setLevel(user.getLevel() + 1); // Increase the level by 1
-            user.setCoins(user.getCoins() + 25); // Add 25 coins
-            // Check if the user is in a tournament and the competition has started
-            List<TournamentUser> tournamentUsers = tournamentUserRepository.findByUser(user);
-            for (TournamentUser tournamentUser : tournamentUsers) {
-                TournamentGroup tournamentGroup = tournamentUser.getTournamentGroup();
-                if (tournamentGroup.getCompetitionStarted() && tournamentGroup.getTournament().isActive()) {
-                    tournamentUser.setScore(tournamentUser.getScore() + 1);
-                    tournamentUserRepository.save(tournamentUser);
-                }
+        User user = userRepository.findById(userId).orElse(null);
+        if (user == null) {
+            return null;
+        }
+        if (userProgressBuffer.isEnabled()) {
+            return bufferLevelUp(user);
+        }
+        // Only the latest participation can belong to an active tournament
+        TournamentUser tournamentUser = tournamentUserRepository.findLatestByUser(user).orElse(null);
+        if (tournamentUser != null && user.getLatestTournamentUserId() == null) {
+            userRepository.backfillLatestTournamentUserId(user.getId(), tournamentUser.getId());
+        }
+        TournamentGroup tournamentGroup = tournamentUser == null ? null : tournamentUser.getTournamentGroup();
+        boolean scored = tournamentGroup != null && tournamentGroup.getCompetitionStarted()
+                && activeTournamentHolder.isActive(tournamentGroup.getTournament().getId());
+        Country country = user.getCountry();
+
+        // Relative updates, a full-row save would overwrite entry fees and rewards written since the read
+        Integer updated = transactionTemplate.execute(status -> {
+            if (scored) {
+                tournamentUserRepository.incrementScore(tournamentUser.getId());
+                tournamentGroupRepository.bumpVersion(tournamentGroup.getId());
             }
-            return userRepository.save(user);
+            return userRepository.levelUp(userId, 25);
+        });
+        if (updated == null || updated == 0) {
+            return null; // Deleted since the read
+        }
+        if (scored) {
+            Long tournamentId = tournamentGroup.getTournament().getId();
+            groupLeaderboardCache.evict(tournamentGroup.getId());
+            leaderboardStreams.scoreChanged(tournamentId, tournamentGroup.getId());
+            countryScoreCounters.increment(tournamentId, country);
+            tournamentRankIndex.incrementScore(tournamentId, userId, tournamentUser.getScore() + 1);
+        }
+        // The user as read plus this level-up, the relative update detached it so nothing is written back
+        user.setLevel(user.getLevel() + 1);
+        user.setCoins(user.getCoins() + 25);
+        return user;
+    }
+
+    /**
+     * Buffers a level-up of the user, including their tournament score.
+     * 
+     * @param user the user entity as persisted
+     * @return the user including all of their buffered level-ups
+     */
+    private User bufferLevelUp(User user) {
+        TournamentUser tournamentUser = tournamentUserRepository.findLatestByUser(user).orElse(null);
+        TournamentGroup tournamentGroup = tournamentUser == null ? null : tournamentUser.getTournamentGroup();
+        if (tournamentGroup != null && tournamentGroup.getCompetitionStarted()
+                && activeTournamentHolder.isActive(tournamentGroup.getTournament().getId())) {
+            userProgressBuffer.recordLevelUp(user.getId(), 25, tournamentUser.getId());
+            groupLeaderboardCache.evict(tournamentGroup.getId());
+            leaderboardStreams.scoreChanged(tournamentGroup.getTournament().getId(), tournamentGroup.getId());
+            countryScoreCounters.increment(tournamentGroup.getTournament().getId(), user.getCountry());
+            tournamentRankIndex.incrementScore(tournamentGroup.getTournament().getId(), user.getId(),
+                    tournamentUser.getScore() + userProgressBuffer.pendingScore(tournamentUser.getId()));
+        } else {
+            userProgressBuffer.recordLevelUp(user.getId(), 25, null);
         }
-        return null;
+        return userProgressBuffer.applyPending(user);
     }
 }
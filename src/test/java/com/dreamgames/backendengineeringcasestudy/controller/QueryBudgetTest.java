@@ -0,0 +1,316 @@
+package com.dreamgames.backendengineeringcasestudy.controller;
+
+import com.dreamgames.backendengineeringcasestudy.debug.SqlStatisticsFilter;
+import com.dreamgames.backendengineeringcasestudy.encoding.CompactBinaryHttpMessageConverter;
+import com.dreamgames.backendengineeringcasestudy.model.Country;
+import com.dreamgames.backendengineeringcasestudy.model.Tournament;
+import com.dreamgames.backendengineeringcasestudy.model.User;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentUserRepository;
+import com.dreamgames.backendengineeringcasestudy.repository.UserRepository;
+import com.dreamgames.backendengineeringcasestudy.service.TournamentCloseJob;
+import com.dreamgames.backendengineeringcasestudy.service.TournamentService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+
+/**
+ * Drives every endpoint against an in-memory database and fails if it runs
+ * more JDBC statements than its budget. The budgets do not depend on the
+ * number of users, groups or participants involved, so an N+1 query shows up
+ * as a failure here. Endpoints that insert rows may additionally take a new
+ * block of IDs, which is {@value #ID_BLOCK} statements.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:query-budget;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "tournament.snapshot.dir=${java.io.tmpdir}/tournament-snapshots-${random.uuid}"
+})
+@ActiveProfiles("debug")
+@AutoConfigureMockMvc
+public class QueryBudgetTest {
+
+    private static final int ID_BLOCK = 2;
+
+    private static final int CREATE_USER_BUDGET = 2 + ID_BLOCK;
+
+    private static final int CREATE_USERS_BUDGET = 2 + ID_BLOCK;
+
+    // Reads the user and their latest participation, then three relative updates
+    private static final int UPDATE_LEVEL_BUDGET = 5;
+
+    private static final int GET_USER_BUDGET = 1;
+
+    private static final int GET_USERS_BUDGET = 1;
+
+    private static final int DELETE_USER_BUDGET = 2;
+
+    private static final int START_TOURNAMENT_BUDGET = 1 + ID_BLOCK;
+
+    // Creates a group, and the first entry after startup also checks for lazily rewarded tournaments
+    private static final int ENTER_NEW_GROUP_BUDGET = 10 + 2 * ID_BLOCK;
+
+    private static final int ENTER_OPEN_GROUP_BUDGET = 7 + ID_BLOCK;
+
+    private static final int GROUP_LEADERBOARD_BUDGET = 1;
+
+    private static final int GROUP_RANK_BUDGET = 3;
+
+    // Answered from the cached leaderboard while it is fresh
+    private static final int NOT_MODIFIED_BUDGET = 0;
+
+    private static final int GLOBAL_RANK_BUDGET = 3;
+
+    private static final int GLOBAL_LEADERBOARD_BUDGET = 1;
+
+    private static final int COUNTRY_LEADERBOARD_BUDGET = 2;
+
+    // The first event is read before the stream starts, later events are read once per topic by the publisher
+    private static final int GROUP_STREAM_BUDGET = 1;
+
+    private static final int COUNTRY_STREAM_BUDGET = 2;
+
+    // Finds the user's group and checks once whether it started, waking the request runs no statements
+    private static final int WAIT_FOR_START_BUDGET = 3;
+
+    // Locks the scheduler lease and reads the progress of the ended tournament; the groups are rewarded by the
+    // close job's workers, which are not counted
+    private static final int END_TOURNAMENT_BUDGET = 9 + ID_BLOCK;
+
+    private static final int CLOSE_PROGRESS_BUDGET = 2;
+
+    private static final int CLAIM_REWARD_BUDGET = 4;
+
+    // Two per thousand users
+    private static final int REPAIR_PENDING_REWARDS_BUDGET = 2;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TournamentUserRepository tournamentUserRepository;
+
+    @Autowired
+    private TournamentService tournamentService;
+
+    @Autowired
+    private TournamentCloseJob tournamentCloseJob;
+
+    private Tournament tournament;
+
+    @BeforeEach
+    public void setUp() {
+        tournamentCloseJob.closeActiveTournaments().join();
+        tournament = tournamentService.createTournament();
+    }
+
+    @Test
+    public void testCreateUser() throws Exception {
+        perform(post("/users/create"), CREATE_USER_BUDGET);
+    }
+
+    @Test
+    public void testCreateUsersInOneBatch() throws Exception {
+        perform(post("/users/createBatch?count=200"), CREATE_USERS_BUDGET);
+    }
+
+    @Test
+    public void testUpdateLevel() throws Exception {
+        User user = player(Country.TURKEY);
+        perform(post("/tournaments/enter/" + user.getId()), ENTER_NEW_GROUP_BUDGET);
+        perform(put("/users/updateLevel/" + user.getId()), UPDATE_LEVEL_BUDGET);
+    }
+
+    @Test
+    public void testGetUsers() throws Exception {
+        User user = player(Country.TURKEY);
+        player(Country.FRANCE);
+        perform(get("/users/" + user.getId()), GET_USER_BUDGET);
+        perform(get("/users"), GET_USERS_BUDGET);
+    }
+
+    @Test
+    public void testDeleteUser() throws Exception {
+        perform(delete("/users/" + player(Country.GERMANY).getId()), DELETE_USER_BUDGET);
+    }
+
+    @Test
+    public void testStartTournament() throws Exception {
+        perform(post("/tournaments/start"), START_TOURNAMENT_BUDGET);
+    }
+
+    @Test
+    public void testEnterTournament() throws Exception {
+        perform(post("/tournaments/enter/" + player(Country.TURKEY).getId()), ENTER_NEW_GROUP_BUDGET);
+        perform(post("/tournaments/enter/" + player(Country.FRANCE).getId()), ENTER_OPEN_GROUP_BUDGET);
+        perform(post("/tournaments/enter/" + player(Country.GERMANY).getId()), ENTER_OPEN_GROUP_BUDGET);
+        perform(post("/tournaments/enter/" + player(Country.UNITED_KINGDOM).getId()), ENTER_OPEN_GROUP_BUDGET);
+        // Starts the group
+        perform(post("/tournaments/enter/" + player(Country.UNITED_STATES).getId()), ENTER_OPEN_GROUP_BUDGET);
+        // Opens a second group
+        perform(post("/tournaments/enter/" + player(Country.UNITED_STATES).getId()), ENTER_NEW_GROUP_BUDGET);
+    }
+
+    @Test
+    public void testLeaderboards() throws Exception {
+        Long groupId = null;
+        Long userId = null;
+        for (Country country : Country.values()) {
+            User user = player(country);
+            perform(post("/tournaments/enter/" + user.getId()), ENTER_NEW_GROUP_BUDGET);
+            perform(put("/users/updateLevel/" + user.getId()), UPDATE_LEVEL_BUDGET);
+            userId = user.getId();
+            groupId = tournamentUserRepository.findLatestByUser(user).orElseThrow().getTournamentGroup().getId();
+        }
+
+        perform(get("/tournaments/groupLeaderboard/" + groupId), GROUP_LEADERBOARD_BUDGET);
+        perform(get("/tournaments/rank/" + userId), GROUP_RANK_BUDGET);
+        perform(get("/tournaments/globalRank/" + userId), GLOBAL_RANK_BUDGET);
+        perform(get("/tournaments/globalLeaderboard/" + tournament.getId() + "?limit=10"), GLOBAL_LEADERBOARD_BUDGET);
+        perform(get("/tournaments/countryLeaderboard/" + tournament.getId()), COUNTRY_LEADERBOARD_BUDGET);
+    }
+
+    @Test
+    public void testConditionalLeaderboards() throws Exception {
+        User user = player(Country.TURKEY);
+        perform(post("/tournaments/enter/" + user.getId()), ENTER_NEW_GROUP_BUDGET);
+        Long groupId = tournamentUserRepository.findLatestByUser(user).orElseThrow().getTournamentGroup().getId();
+
+        String eTag = perform(get("/tournaments/groupLeaderboard/" + groupId), GROUP_LEADERBOARD_BUDGET)
+                .getResponse().getHeader("ETag");
+        assertNotNull(eTag);
+        MvcResult notModified = perform(get("/tournaments/groupLeaderboard/" + groupId)
+                .header("If-None-Match", eTag), NOT_MODIFIED_BUDGET);
+        assertEquals(304, notModified.getResponse().getStatus());
+        String rankETag = perform(get("/tournaments/rank/" + user.getId()), GROUP_RANK_BUDGET)
+                .getResponse().getHeader("ETag");
+        assertEquals(304, perform(get("/tournaments/rank/" + user.getId())
+                .header("If-None-Match", rankETag), NOT_MODIFIED_BUDGET).getResponse().getStatus());
+
+        perform(post("/tournaments/enter/" + player(Country.FRANCE).getId()), ENTER_OPEN_GROUP_BUDGET);
+        MvcResult modified = perform(get("/tournaments/groupLeaderboard/" + groupId)
+                .header("If-None-Match", eTag), GROUP_LEADERBOARD_BUDGET);
+        assertEquals(200, modified.getResponse().getStatus());
+        assertNotEquals(eTag, modified.getResponse().getHeader("ETag"));
+    }
+
+    @Test
+    public void testLeaderboardStreams() throws Exception {
+        User user = player(Country.TURKEY);
+        perform(post("/tournaments/enter/" + user.getId()), ENTER_NEW_GROUP_BUDGET);
+        Long groupId = tournamentUserRepository.findLatestByUser(user).orElseThrow().getTournamentGroup().getId();
+
+        MvcResult group = perform(get("/tournaments/groupLeaderboard/" + groupId + "/stream"), GROUP_STREAM_BUDGET);
+        MvcResult countries = perform(get("/tournaments/countryLeaderboard/" + tournament.getId() + "/stream"),
+                COUNTRY_STREAM_BUDGET);
+
+        assertTrue(group.getRequest().isAsyncStarted());
+        assertTrue(group.getResponse().getContentAsString().contains("event:leaderboard"));
+        assertTrue(countries.getResponse().getContentAsString().contains("event:leaderboard"));
+    }
+
+    @Test
+    public void testWaitForStart() throws Exception {
+        User user = player(Country.TURKEY);
+        perform(post("/tournaments/enter/" + user.getId()), ENTER_NEW_GROUP_BUDGET);
+
+        MvcResult waiting = perform(get("/tournaments/waitForStart/" + user.getId()), WAIT_FOR_START_BUDGET);
+        assertTrue(waiting.getRequest().isAsyncStarted());
+        for (Country country : new Country[] { Country.FRANCE, Country.GERMANY, Country.UNITED_KINGDOM,
+                Country.UNITED_STATES }) {
+            perform(post("/tournaments/enter/" + player(country).getId()), ENTER_OPEN_GROUP_BUDGET);
+        }
+        assertEquals(200, mockMvc.perform(asyncDispatch(waiting)).andReturn().getResponse().getStatus());
+
+        // Answered right away once the group has started
+        perform(get("/tournaments/waitForStart/" + user.getId()), WAIT_FOR_START_BUDGET);
+    }
+
+    @Test
+    public void testCompactBinaryResponses() throws Exception {
+        User user = player(Country.TURKEY);
+        perform(post("/tournaments/enter/" + user.getId()), ENTER_NEW_GROUP_BUDGET);
+        Long groupId = tournamentUserRepository.findLatestByUser(user).orElseThrow().getTournamentGroup().getId();
+
+        MvcResult leaderboard = perform(get("/tournaments/groupLeaderboard/" + groupId)
+                .accept(CompactBinaryHttpMessageConverter.MEDIA_TYPE), GROUP_LEADERBOARD_BUDGET);
+        MvcResult countries = perform(get("/tournaments/countryLeaderboard/" + tournament.getId())
+                .accept(CompactBinaryHttpMessageConverter.MEDIA_TYPE), COUNTRY_LEADERBOARD_BUDGET);
+        MvcResult json = perform(get("/users/" + user.getId()), GET_USER_BUDGET);
+
+        assertEquals(CompactBinaryHttpMessageConverter.MEDIA_TYPE.toString(), leaderboard.getResponse().getContentType());
+        assertEquals(CompactBinaryHttpMessageConverter.MEDIA_TYPE.toString(), countries.getResponse().getContentType());
+        assertEquals(MediaType.APPLICATION_JSON_VALUE, json.getResponse().getContentType());
+    }
+
+    @Test
+    public void testEndTournamentAndClaimReward() throws Exception {
+        User winner = null;
+        for (Country country : Country.values()) {
+            User user = player(country);
+            perform(post("/tournaments/enter/" + user.getId()), ENTER_NEW_GROUP_BUDGET);
+            winner = winner == null ? user : winner;
+        }
+        perform(put("/users/updateLevel/" + winner.getId()), UPDATE_LEVEL_BUDGET);
+
+        perform(post("/tournaments/end"), END_TOURNAMENT_BUDGET);
+        awaitRewards(tournament.getId());
+        perform(get("/tournaments/closeProgress/" + tournament.getId()), CLOSE_PROGRESS_BUDGET);
+        perform(post("/tournaments/claimReward/" + winner.getId()), CLAIM_REWARD_BUDGET);
+        perform(post("/tournaments/repairPendingRewards"), REPAIR_PENDING_REWARDS_BUDGET);
+    }
+
+    protected User player(Country country) {
+        User user = new User();
+        user.setLevel(25);
+        user.setCoins(5000);
+        user.setCountry(country);
+        user.setUsername("player");
+        return userRepository.save(user);
+    }
+
+    private void awaitRewards(Long tournamentId) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!tournamentCloseJob.getProgress(tournamentId).isRewardsDistributed()) {
+            assertTrue(System.nanoTime() < deadline,
+                    "The rewards of tournament " + tournamentId + " were not distributed");
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+    }
+
+    protected MvcResult perform(MockHttpServletRequestBuilder request, int budget) throws Exception {
+        MvcResult result = mockMvc.perform(request).andReturn();
+        String description = result.getRequest().getMethod() + " " + result.getRequest().getRequestURI();
+        assertTrue(result.getResponse().getStatus() < 400,
+                () -> description + " failed: " + contentOf(result));
+        String statements = result.getResponse().getHeader(SqlStatisticsFilter.STATEMENTS_HEADER);
+        assertNotNull(statements, description + " has no statement count");
+        assertTrue(Integer.parseInt(statements) <= budget,
+                () -> description + " ran " + statements + " SQL statements, its budget is " + budget);
+        return result;
+    }
+
+    private static String contentOf(MvcResult result) {
+        try {
+            return result.getResponse().getContentAsString();
+        } catch (Exception e) {
+            return e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.dreamgames.backendengineeringcasestudy.controller;
+
+import com.dreamgames.backendengineeringcasestudy.debug.SqlStatisticsFilter;
+import com.dreamgames.backendengineeringcasestudy.model.Country;
+import com.dreamgames.backendengineeringcasestudy.model.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.context.TestPropertySource;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+
+/**
+ * Runs the query budgets with the user lanes and entry batching enabled, so
+ * the work of a request runs on a lane or batcher thread. Those statements are
+ * counted for the request that handed the work over, and the budgets stay the
+ * same.
+ */
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:query-budget-handoffs;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "user.lanes.enabled=true",
+        "tournament.entry.batching.enabled=true"
+})
+public class QueryBudgetWithHandoffsTest extends QueryBudgetTest {
+
+    @Test
+    public void testHandedOverStatementsAreCounted() throws Exception {
+        User user = player(Country.TURKEY);
+
+        // Entered by the batcher's thread, levelled up on a lane
+        String entered = perform(post("/tournaments/enter/" + user.getId()), Integer.MAX_VALUE)
+                .getResponse().getHeader(SqlStatisticsFilter.STATEMENTS_HEADER);
+        String levelledUp = perform(put("/users/updateLevel/" + user.getId()), Integer.MAX_VALUE)
+                .getResponse().getHeader(SqlStatisticsFilter.STATEMENTS_HEADER);
+
+        assertTrue(Integer.parseInt(entered) > 0);
+        assertTrue(Integer.parseInt(levelledUp) > 0);
+    }
+}
@@ -0,0 +1,91 @@
+package com.dreamgames.backendengineeringcasestudy.encoding;
+
+import com.dreamgames.backendengineeringcasestudy.dto.CountryScore;
+import com.dreamgames.backendengineeringcasestudy.dto.GroupLeaderboardEntry;
+import com.dreamgames.backendengineeringcasestudy.model.Country;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the response size and serialization time of the compact binary
+ * encoding with Jackson's JSON for the leaderboard responses. It is not a
+ * test, run it after {@code mvn test-compile} with
+ * <pre>
+ * java -cp "target/classes:target/test-classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout)" \
+ *     com.dreamgames.backendengineeringcasestudy.encoding.CompactBinaryBenchmark
+ * </pre>
+ */
+public class CompactBinaryBenchmark {
+
+    private static final int WARMUP_ROUNDS = 20000;
+
+    private static final int MEASURED_ROUNDS = 50000;
+
+    public static void main(String[] args) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        Map<String, Object> responses = new LinkedHashMap<>();
+        responses.put("group leaderboard", leaderboard(Country.values().length));
+        responses.put("global leaderboard", leaderboard(1000));
+        responses.put("country leaderboard", countries());
+
+        System.out.printf("%-20s %10s %10s %12s %12s%n", "response", "json B", "binary B", "json ns", "binary ns");
+        for (Map.Entry<String, Object> response : responses.entrySet()) {
+            Object value = response.getValue();
+            int rounds = value instanceof List<?> list && list.size() > 100 ? MEASURED_ROUNDS / 100 : MEASURED_ROUNDS;
+            Encoder json = out -> objectMapper.writeValue(out, value);
+            Encoder binary = out -> CompactBinaryHttpMessageConverter.encode(value, out);
+            System.out.printf("%-20s %10d %10d %12.0f %12.0f%n", response.getKey(),
+                    size(json), size(binary), nanosPerResponse(json, rounds), nanosPerResponse(binary, rounds));
+        }
+    }
+
+    private static List<GroupLeaderboardEntry> leaderboard(int size) {
+        Random random = new Random(size);
+        Country[] countries = Country.values();
+        List<GroupLeaderboardEntry> leaderboard = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            leaderboard.add(new GroupLeaderboardEntry(1_000_000L + random.nextInt(1_000_000), "user" + random.nextInt(100000),
+                    countries[random.nextInt(countries.length)].name(), 1000 - i, i + 1));
+        }
+        return leaderboard;
+    }
+
+    private static List<CountryScore> countries() {
+        List<CountryScore> countries = new ArrayList<>();
+        for (Country country : Country.values()) {
+            countries.add(new CountryScore(country.name(), 5_000_000 - country.ordinal() * 1000));
+        }
+        return countries;
+    }
+
+    private static int size(Encoder encoder) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(out);
+        return out.size();
+    }
+
+    private static double nanosPerResponse(Encoder encoder, int rounds) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        for (int i = 0; i < WARMUP_ROUNDS / (MEASURED_ROUNDS / rounds); i++) {
+            out.reset();
+            encoder.encode(out);
+        }
+        long started = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            out.reset();
+            encoder.encode(out);
+        }
+        return (System.nanoTime() - started) / (double) rounds;
+    }
+
+    private interface Encoder {
+        void encode(ByteArrayOutputStream out) throws IOException;
+    }
+}
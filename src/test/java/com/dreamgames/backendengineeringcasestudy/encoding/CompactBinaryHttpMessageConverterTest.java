@@ -0,0 +1,126 @@
+package com.dreamgames.backendengineeringcasestudy.encoding;
+
+import com.dreamgames.backendengineeringcasestudy.dto.CountryScore;
+import com.dreamgames.backendengineeringcasestudy.dto.GroupLeaderboardEntry;
+import com.dreamgames.backendengineeringcasestudy.model.Country;
+import com.dreamgames.backendengineeringcasestudy.model.User;
+import com.dreamgames.backendengineeringcasestudy.model.Tournament;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompactBinaryHttpMessageConverterTest {
+
+    private final CompactBinaryHttpMessageConverter converter = new CompactBinaryHttpMessageConverter();
+
+    @Test
+    public void testLeaderboardIsEncodedCompactly() throws IOException {
+        List<GroupLeaderboardEntry> leaderboard = Arrays.asList(
+                new GroupLeaderboardEntry(300L, "first", "FRANCE", 1200, 1),
+                new GroupLeaderboardEntry(2L, null, "Unknown", -1, 2));
+        MockHttpOutputMessage message = new MockHttpOutputMessage();
+
+        converter.write(leaderboard, CompactBinaryHttpMessageConverter.MEDIA_TYPE, message);
+
+        assertEquals(CompactBinaryHttpMessageConverter.MEDIA_TYPE, message.getHeaders().getContentType());
+        Reader reader = new Reader(message.getBodyAsBytes());
+        assertEquals(CompactBinaryHttpMessageConverter.ENTRY_LIST, reader.varint());
+        assertEquals(2, reader.varint());
+        assertEquals(300, reader.varint());
+        assertEquals("first", reader.string());
+        assertEquals(Country.FRANCE.ordinal() + 1, reader.varint());
+        assertEquals(1200, reader.signed());
+        assertEquals(1, reader.varint());
+        assertEquals(2, reader.varint());
+        assertNull(reader.string());
+        assertEquals(0, reader.varint());
+        assertEquals(-1, reader.signed());
+        assertEquals(2, reader.varint());
+        assertEquals(-1, reader.in.read());
+        assertTrue(message.getBodyAsBytes().length * 4 < new ObjectMapper().writeValueAsBytes(leaderboard).length);
+    }
+
+    @Test
+    public void testCountryScoresAndUsers() throws IOException {
+        ByteArrayOutputStream countries = new ByteArrayOutputStream();
+        CompactBinaryHttpMessageConverter.encode(
+                Collections.singletonList(new CountryScore("TURKEY", 70000)), countries);
+        User user = new User();
+        user.setId(7L);
+        user.setUsername("player");
+        user.setLevel(25);
+        user.setCoins(5000);
+        ByteArrayOutputStream users = new ByteArrayOutputStream();
+        CompactBinaryHttpMessageConverter.encode(user, users);
+
+        Reader countryReader = new Reader(countries.toByteArray());
+        assertEquals(CompactBinaryHttpMessageConverter.COUNTRY_SCORE_LIST, countryReader.varint());
+        assertEquals(1, countryReader.varint());
+        assertEquals(Country.TURKEY.ordinal() + 1, countryReader.varint());
+        assertEquals(70000, countryReader.signed());
+        Reader userReader = new Reader(users.toByteArray());
+        assertEquals(CompactBinaryHttpMessageConverter.USER, userReader.varint());
+        assertEquals(7, userReader.varint());
+        assertEquals("player", userReader.string());
+        assertEquals(25, userReader.varint());
+        assertEquals(5000, userReader.signed());
+        assertEquals(0, userReader.varint());
+    }
+
+    @Test
+    public void testOnlyRequestedAndSupportedBodiesAreWritten() {
+        assertTrue(converter.canWrite(ArrayList.class, CompactBinaryHttpMessageConverter.MEDIA_TYPE));
+        assertFalse(converter.canWrite(ArrayList.class, MediaType.APPLICATION_JSON));
+        assertFalse(converter.canWrite(Tournament.class, CompactBinaryHttpMessageConverter.MEDIA_TYPE));
+        assertFalse(converter.canRead(ArrayList.class, CompactBinaryHttpMessageConverter.MEDIA_TYPE));
+        assertThrows(HttpMessageNotWritableException.class, () -> CompactBinaryHttpMessageConverter.encode(
+                Collections.singletonList(new Tournament()), new ByteArrayOutputStream()));
+    }
+
+    private static class Reader {
+        private final ByteArrayInputStream in;
+
+        Reader(byte[] bytes) {
+            in = new ByteArrayInputStream(bytes);
+        }
+
+        long varint() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = in.read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        int signed() {
+            int value = (int) varint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String string() {
+            int length = (int) varint();
+            if (length == 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length - 1];
+            in.read(bytes, 0, bytes.length);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.dreamgames.backendengineeringcasestudy.replica;
+
+import com.dreamgames.backendengineeringcasestudy.model.User;
+import com.dreamgames.backendengineeringcasestudy.repository.UserRepository;
+import com.dreamgames.backendengineeringcasestudy.service.UserService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs against two in-memory databases, a primary and a replica. Replication
+ * is simulated by copying the primary into the replica, after which the
+ * replica's copy of the user is renamed, so the username tells which database
+ * served a read.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:routing-primary;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.datasource.hikari.maximum-pool-size=5",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "replica.enabled=true",
+        "replica.datasource.url=jdbc:h2:mem:routing-replica;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "replica.datasource.username=sa",
+        "replica.datasource.password=",
+        "replica.datasource.hikari.maximum-pool-size=3",
+        "replica.heartbeat-ms=600000",
+        "replica.max-staleness-ms=2000",
+        "tournament.snapshot.dir=${java.io.tmpdir}/tournament-snapshots-${random.uuid}"
+})
+public class ReplicaRoutingTest {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ReplicaLagMonitor replicaLagMonitor;
+
+    @Autowired
+    @Qualifier("primaryDataSource")
+    private DataSource primaryDataSource;
+
+    @Autowired
+    @Qualifier("replicaDataSource")
+    private DataSource replicaDataSource;
+
+    private JdbcTemplate primary;
+
+    private JdbcTemplate replica;
+
+    private Long userId;
+
+    @BeforeEach
+    public void setUp() {
+        primary = new JdbcTemplate(primaryDataSource);
+        replica = new JdbcTemplate(replicaDataSource);
+        userId = userService.createUser("primary").getId();
+        replicate();
+        replica.update("UPDATE users SET username = 'replica' WHERE id = ?", userId);
+    }
+
+    @Test
+    public void testReadsUseFreshReplica() {
+        replicaLagMonitor.check();
+
+        assertTrue(replicaLagMonitor.isReplicaUsable());
+        assertEquals("replica", userService.getUserById(userId).getUsername());
+    }
+
+    @Test
+    public void testWritesAndOtherReadsUsePrimary() {
+        replicaLagMonitor.check();
+
+        User user = userService.updateUserLevel(userId);
+
+        assertEquals("primary", user.getUsername());
+        assertEquals("primary", userRepository.findById(userId).orElseThrow().getUsername());
+        assertEquals(2, primary.queryForObject("SELECT level FROM users WHERE id = ?", Integer.class, userId));
+        assertEquals(1, replica.queryForObject("SELECT level FROM users WHERE id = ?", Integer.class, userId));
+    }
+
+    @Test
+    public void testStaleReplicaFallsBackToPrimary() {
+        replica.update("UPDATE replication_heartbeats SET beat_at = ?",
+                LocalDateTime.now(ZoneOffset.UTC).minusSeconds(10));
+        replicaLagMonitor.check();
+
+        assertFalse(replicaLagMonitor.isReplicaUsable());
+        assertEquals("primary", userService.getUserById(userId).getUsername());
+    }
+
+    @Test
+    public void testUnavailableReplicaFallsBackToPrimary() {
+        replica.execute("DROP ALL OBJECTS");
+        replicaLagMonitor.check();
+
+        assertFalse(replicaLagMonitor.isReplicaUsable());
+        assertEquals("primary", userService.getUserById(userId).getUsername());
+    }
+
+    private void replicate() {
+        replicaLagMonitor.check(); // Writes a current heartbeat to the primary
+        replica.execute("DROP ALL OBJECTS");
+        primary.queryForList("SCRIPT", String.class).forEach(replica::execute);
+    }
+}
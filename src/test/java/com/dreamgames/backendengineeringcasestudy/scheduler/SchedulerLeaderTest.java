@@ -0,0 +1,104 @@
+package com.dreamgames.backendengineeringcasestudy.scheduler;
+
+import com.dreamgames.backendengineeringcasestudy.BackendEngineeringCaseStudyApplication;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs two application contexts against one in-memory database, like two
+ * nodes sharing MySQL, and checks that only the lease holder runs the
+ * scheduled jobs.
+ */
+public class SchedulerLeaderTest {
+
+    private ConfigurableApplicationContext first;
+
+    private ConfigurableApplicationContext second;
+
+    @BeforeEach
+    public void setUp() {
+        first = startNode();
+        second = startNode();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void testOnlyOneNodeHoldsTheLease() {
+        assertTrue(first.getBean(SchedulerLeader.class).isLeader());
+        assertFalse(second.getBean(SchedulerLeader.class).isLeader());
+    }
+
+    @Test
+    public void testDailyTournamentIsCreatedOnce() {
+        TournamentRepository tournamentRepository = first.getBean(TournamentRepository.class);
+        long tournaments = tournamentRepository.count();
+
+        first.getBean(TournamentScheduler.class).createDailyTournament();
+        second.getBean(TournamentScheduler.class).createDailyTournament();
+
+        assertEquals(tournaments + 1, tournamentRepository.count());
+    }
+
+    @Test
+    public void testTakeoverFencesThePreviousLeader() {
+        SchedulerLeader firstLeader = first.getBean(SchedulerLeader.class);
+        SchedulerLeader secondLeader = second.getBean(SchedulerLeader.class);
+        long staleToken = firstLeader.currentToken();
+
+        // The first node stops renewing, e.g. because it died or paused
+        first.getBean(JdbcTemplate.class).update("UPDATE scheduler_leases SET expires_at = ?",
+                LocalDateTime.now(ZoneOffset.UTC).minusSeconds(1));
+        secondLeader.heartbeat();
+
+        assertTrue(secondLeader.isLeader());
+        assertTrue(secondLeader.currentToken() > staleToken);
+        AtomicInteger runs = new AtomicInteger();
+        assertThrows(IllegalStateException.class, () -> firstLeader.runFenced(staleToken, runs::incrementAndGet));
+        assertEquals(0, runs.get());
+
+        firstLeader.heartbeat();
+        assertFalse(firstLeader.isLeader());
+    }
+
+    @Test
+    public void testLeaseIsReleasedOnShutdown() {
+        long token = first.getBean(SchedulerLeader.class).currentToken();
+        first.close();
+
+        SchedulerLeader secondLeader = second.getBean(SchedulerLeader.class);
+        secondLeader.heartbeat();
+
+        assertEquals(token + 1, secondLeader.currentToken());
+    }
+
+    private static ConfigurableApplicationContext startNode() {
+        // Arguments take precedence over application.properties
+        return new SpringApplicationBuilder(BackendEngineeringCaseStudyApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(
+                        "--spring.datasource.url=jdbc:h2:mem:scheduler-leader;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+                        "--spring.datasource.username=sa",
+                        "--spring.datasource.password=",
+                        "--spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+                        "--scheduler.lease.duration-ms=60000",
+                        "--scheduler.lease.renew-ms=600000",
+                        "--user.pending-reward.repair-on-startup=false");
+    }
+}
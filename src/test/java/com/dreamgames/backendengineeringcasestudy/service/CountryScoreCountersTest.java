@@ -0,0 +1,112 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import com.dreamgames.backendengineeringcasestudy.dto.CountryScore;
+import com.dreamgames.backendengineeringcasestudy.model.Country;
+import com.dreamgames.backendengineeringcasestudy.model.TournamentCountryScore;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentCountryScoreRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class CountryScoreCountersTest {
+
+    @InjectMocks
+    private CountryScoreCounters countryScoreCounters;
+
+    @Mock
+    private TournamentCountryScoreRepository tournamentCountryScoreRepository;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    public void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(transactionTemplate.execute(any())).thenAnswer(
+                invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+    }
+
+    @Test
+    public void testGetLeaderboardAddsPendingToPersistedTotals() {
+        TournamentCountryScore persisted = new TournamentCountryScore();
+        persisted.setTournamentId(1L);
+        persisted.setCountry(Country.TURKEY);
+        persisted.setTotalScore(10);
+        when(tournamentCountryScoreRepository.findByTournamentId(1L)).thenReturn(Collections.singletonList(persisted));
+
+        countryScoreCounters.join(1L, Country.FRANCE);
+        countryScoreCounters.increment(1L, Country.TURKEY);
+        countryScoreCounters.increment(1L, Country.GERMANY);
+
+        List<CountryScore> leaderboard = countryScoreCounters.getLeaderboard(1L);
+
+        assertEquals(3, leaderboard.size());
+        assertEquals("TURKEY", leaderboard.get(0).getCountry());
+        assertEquals(11, leaderboard.get(0).getTotalScore());
+        assertEquals("GERMANY", leaderboard.get(1).getCountry());
+        assertEquals(1, leaderboard.get(1).getTotalScore());
+        assertEquals("FRANCE", leaderboard.get(2).getCountry());
+        assertEquals(0, leaderboard.get(2).getTotalScore());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFlushPersistsDeltas() {
+        countryScoreCounters.join(1L, Country.FRANCE);
+        countryScoreCounters.increment(1L, Country.TURKEY);
+        countryScoreCounters.increment(1L, Country.TURKEY);
+
+        countryScoreCounters.flush();
+
+        ArgumentCaptor<List<Object[]>> rows = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(1)).batchUpdate(anyString(), rows.capture());
+        assertEquals(2, rows.getValue().size());
+        assertArrayEquals(new Object[] { 1L, "TURKEY", 2L }, rows.getValue().get(0));
+        assertArrayEquals(new Object[] { 1L, "FRANCE", 0L }, rows.getValue().get(1));
+
+        countryScoreCounters.flush();
+
+        verifyNoMoreInteractions(jdbcTemplate);
+    }
+
+    @Test
+    public void testFailedFlushKeepsAllDeltas() {
+        countryScoreCounters.increment(1L, Country.TURKEY);
+        countryScoreCounters.increment(2L, Country.FRANCE);
+        // The batch runs in one transaction, so a failure persists none of its rows
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenThrow(new RuntimeException("Deadlock"));
+
+        countryScoreCounters.flush();
+
+        List<CountryScore> leaderboard = countryScoreCounters.getLeaderboard(1L);
+        assertEquals(1, leaderboard.get(0).getTotalScore());
+        verify(transactionTemplate, times(1)).execute(any());
+    }
+
+    @Test
+    public void testEvictDropsTheCountersOfATournament() {
+        countryScoreCounters.increment(1L, Country.TURKEY);
+
+        countryScoreCounters.evict(1L);
+
+        assertTrue(countryScoreCounters.getLeaderboard(1L).isEmpty());
+    }
+}
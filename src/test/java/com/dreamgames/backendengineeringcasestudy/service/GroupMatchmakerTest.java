@@ -0,0 +1,96 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import com.dreamgames.backendengineeringcasestudy.model.Country;
+import com.dreamgames.backendengineeringcasestudy.model.TournamentGroup;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GroupMatchmakerTest {
+
+    private GroupMatchmaker groupMatchmaker;
+
+    @BeforeEach
+    public void setUp() {
+        groupMatchmaker = new GroupMatchmaker();
+    }
+
+    @Test
+    public void testReserveSlotOnEmptyTournament() {
+        GroupMatchmaker.Slot slot = groupMatchmaker.reserveSlot(1L, Country.TURKEY, Collections::emptyList);
+
+        assertNull(slot);
+    }
+
+    @Test
+    public void testReserveSlotFillsOldestGroupFirst() {
+        groupMatchmaker.reserveSlot(1L, Country.TURKEY, Collections::emptyList);
+        groupMatchmaker.addGroup(1L, 1L, Country.TURKEY);
+        groupMatchmaker.addGroup(1L, 2L, Country.FRANCE);
+
+        GroupMatchmaker.Slot germany = groupMatchmaker.reserveSlot(1L, Country.GERMANY, Collections::emptyList);
+        GroupMatchmaker.Slot turkey = groupMatchmaker.reserveSlot(1L, Country.TURKEY, Collections::emptyList);
+
+        assertEquals(1L, germany.getGroupId());
+        assertEquals(2L, turkey.getGroupId());
+        assertNull(groupMatchmaker.reserveSlot(1L, Country.TURKEY, Collections::emptyList));
+    }
+
+    @Test
+    public void testReserveSlotCompletesGroup() {
+        groupMatchmaker.reserveSlot(1L, Country.TURKEY, Collections::emptyList);
+        groupMatchmaker.addGroup(1L, 1L, Country.TURKEY);
+
+        assertFalse(groupMatchmaker.reserveSlot(1L, Country.FRANCE, Collections::emptyList).completesGroup());
+        assertFalse(groupMatchmaker.reserveSlot(1L, Country.GERMANY, Collections::emptyList).completesGroup());
+        assertFalse(groupMatchmaker.reserveSlot(1L, Country.UNITED_KINGDOM, Collections::emptyList).completesGroup());
+        assertTrue(groupMatchmaker.reserveSlot(1L, Country.UNITED_STATES, Collections::emptyList).completesGroup());
+    }
+
+    @Test
+    public void testReleaseSlotReopensGroup() {
+        groupMatchmaker.reserveSlot(1L, Country.TURKEY, Collections::emptyList);
+        groupMatchmaker.addGroup(1L, 1L, Country.TURKEY);
+
+        GroupMatchmaker.Slot slot = groupMatchmaker.reserveSlot(1L, Country.FRANCE, Collections::emptyList);
+        groupMatchmaker.releaseSlot(1L, slot.getGroupId(), Country.FRANCE);
+
+        assertEquals(1L, groupMatchmaker.reserveSlot(1L, Country.FRANCE, Collections::emptyList).getGroupId());
+    }
+
+    @Test
+    public void testSyncGroupSkipsSlotsTakenOnOtherNodes() {
+        groupMatchmaker.reserveSlot(1L, Country.TURKEY, Collections::emptyList);
+        groupMatchmaker.addGroup(1L, 1L, Country.TURKEY);
+        groupMatchmaker.addGroup(1L, 2L, Country.TURKEY);
+
+        groupMatchmaker.syncGroup(1L, 1L, GroupMatchmaker.bit(Country.TURKEY) | GroupMatchmaker.bit(Country.FRANCE));
+
+        assertEquals(2L, groupMatchmaker.reserveSlot(1L, Country.FRANCE, Collections::emptyList).getGroupId());
+        assertEquals(1L, groupMatchmaker.reserveSlot(1L, Country.GERMANY, Collections::emptyList).getGroupId());
+    }
+
+    @Test
+    public void testOpenMasksWithout() {
+        assertEquals(16, GroupMatchmaker.openMasksWithout(Country.FRANCE).size());
+        assertTrue(GroupMatchmaker.openMasksWithout(Country.FRANCE).stream()
+                .noneMatch(mask -> (mask & GroupMatchmaker.bit(Country.FRANCE)) != 0));
+    }
+
+    @Test
+    public void testIndexIsLoadedFromOpenGroups() {
+        TournamentGroup group = new TournamentGroup();
+        group.setId(7L);
+        group.setOccupiedCountries(GroupMatchmaker.bit(Country.GERMANY));
+
+        GroupMatchmaker.Slot germany = groupMatchmaker.reserveSlot(1L, Country.GERMANY,
+                () -> Collections.singletonList(group));
+        GroupMatchmaker.Slot turkey = groupMatchmaker.reserveSlot(1L, Country.TURKEY, Collections::emptyList);
+
+        assertNull(germany);
+        assertEquals(7L, turkey.getGroupId());
+    }
+}
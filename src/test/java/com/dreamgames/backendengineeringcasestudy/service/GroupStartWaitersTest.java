@@ -0,0 +1,85 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import com.dreamgames.backendengineeringcasestudy.dto.GroupLeaderboardEntry;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentGroupRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+public class GroupStartWaitersTest {
+
+    @InjectMocks
+    private GroupStartWaiters groupStartWaiters;
+
+    @Mock
+    private TournamentService tournamentService;
+
+    @Mock
+    private TournamentGroupRepository tournamentGroupRepository;
+
+    private final List<GroupLeaderboardEntry> leaderboard = Collections.singletonList(
+            new GroupLeaderboardEntry(1L, "first", "TURKEY", 0, 1));
+
+    @BeforeEach
+    public void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(tournamentService.getActiveGroupId(1L)).thenReturn(2L);
+        when(tournamentService.getActiveGroupId(3L)).thenReturn(2L);
+    }
+
+    @Test
+    public void testStartedGroupWakesItsWaiters() {
+        CompletableFuture<List<GroupLeaderboardEntry>> first = groupStartWaiters.awaitStart(1L);
+        CompletableFuture<List<GroupLeaderboardEntry>> second = groupStartWaiters.awaitStart(3L);
+        assertFalse(first.isDone());
+        assertEquals(2, groupStartWaiters.waiterCount());
+
+        groupStartWaiters.groupStarted(new GroupStartWaiters.GroupStarted(2L, leaderboard));
+
+        assertSame(leaderboard, first.join());
+        assertSame(leaderboard, second.join());
+        assertEquals(0, groupStartWaiters.waiterCount());
+        verify(tournamentService, never()).getLeaderboard(2L);
+    }
+
+    @Test
+    public void testAlreadyStartedGroupAnswersRightAway() {
+        when(tournamentGroupRepository.findStartedIds(Collections.singleton(2L)))
+                .thenReturn(Collections.singletonList(2L));
+        when(tournamentService.getLeaderboard(2L)).thenReturn(leaderboard);
+
+        assertSame(leaderboard, groupStartWaiters.awaitStart(1L).join());
+        assertEquals(0, groupStartWaiters.waiterCount());
+    }
+
+    @Test
+    public void testGroupsStartedOnOtherNodesArePolled() {
+        CompletableFuture<List<GroupLeaderboardEntry>> waiting = groupStartWaiters.awaitStart(1L);
+        when(tournamentGroupRepository.findStartedIds(Set.of(2L))).thenReturn(Collections.singletonList(2L));
+        when(tournamentService.getLeaderboard(2L)).thenReturn(leaderboard);
+
+        groupStartWaiters.pollStartedGroups();
+
+        assertSame(leaderboard, waiting.join());
+    }
+
+    @Test
+    public void testCancelledWaiterIsRemoved() {
+        groupStartWaiters.awaitStart(1L).cancel(false);
+
+        assertEquals(0, groupStartWaiters.waiterCount());
+        groupStartWaiters.pollStartedGroups();
+        verify(tournamentGroupRepository, times(1)).findStartedIds(anyCollection()); // Only the start check
+    }
+}
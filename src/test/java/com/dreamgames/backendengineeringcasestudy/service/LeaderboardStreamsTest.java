@@ -0,0 +1,94 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import com.dreamgames.backendengineeringcasestudy.dto.GroupLeaderboardEntry;
+import com.dreamgames.backendengineeringcasestudy.dto.Versioned;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class LeaderboardStreamsTest {
+
+    @InjectMocks
+    private LeaderboardStreams leaderboardStreams;
+
+    @Mock
+    private TournamentService tournamentService;
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeEach
+    public void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(leaderboardStreams, "senders", 1);
+        ReflectionTestUtils.setField(leaderboardStreams, "timeoutMs", 60000L);
+        leaderboardStreams.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        leaderboardStreams.stop();
+    }
+
+    @Test
+    public void testBurstOfScoreChangesIsReadOnce() throws InterruptedException {
+        when(tournamentService.getVersionedLeaderboard(2L)).thenReturn(leaderboard("\"g2v1\""), leaderboard("\"g2v4\""));
+        leaderboardStreams.subscribeGroup(2L);
+        leaderboardStreams.subscribeGroup(2L);
+
+        leaderboardStreams.scoreChanged(1L, 2L);
+        leaderboardStreams.scoreChanged(1L, 2L);
+        leaderboardStreams.scoreChanged(1L, 2L);
+        leaderboardStreams.publish();
+        leaderboardStreams.publish();
+        awaitSenders();
+
+        assertEquals(2, leaderboardStreams.subscriberCount());
+        verify(tournamentService, times(3)).getVersionedLeaderboard(2L); // Two subscriptions and one frame
+    }
+
+    @Test
+    public void testOnlySubscribedLeaderboardsAreRead() throws InterruptedException {
+        when(tournamentService.getCountryLeaderboard(1L)).thenReturn(Collections.emptyList());
+        leaderboardStreams.subscribeCountries(1L);
+
+        leaderboardStreams.scoreChanged(1L, 2L);
+        leaderboardStreams.publish();
+        awaitSenders();
+
+        verify(tournamentService, times(2)).getCountryLeaderboard(1L);
+        verify(tournamentService, never()).getVersionedLeaderboard(2L);
+    }
+
+    @Test
+    public void testMissingGroupIsRejected() {
+        when(tournamentService.getVersionedLeaderboard(9L)).thenThrow(new IllegalArgumentException("Group not found"));
+
+        assertThrows(IllegalArgumentException.class, () -> leaderboardStreams.subscribeGroup(9L));
+        assertEquals(0, leaderboardStreams.subscriberCount());
+    }
+
+    private static Versioned<List<GroupLeaderboardEntry>> leaderboard(String eTag) {
+        return new Versioned<>(eTag, Collections.singletonList(new GroupLeaderboardEntry(1L, "first", "TURKEY", 3, 1)));
+    }
+
+    private void awaitSenders() throws InterruptedException {
+        ExecutorService executor = (ExecutorService) ReflectionTestUtils.getField(leaderboardStreams, "executor");
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,173 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import com.dreamgames.backendengineeringcasestudy.dto.TournamentCloseProgress;
+import com.dreamgames.backendengineeringcasestudy.model.Tournament;
+import com.dreamgames.backendengineeringcasestudy.model.TournamentCloseChunk;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentCloseChunkRepository;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentGroupRepository;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentRepository;
+import com.dreamgames.backendengineeringcasestudy.scheduler.SchedulerLeader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class TournamentCloseJobTest {
+
+    @InjectMocks
+    private TournamentCloseJob tournamentCloseJob;
+
+    @Mock
+    private TournamentService tournamentService;
+
+    @Mock
+    private TournamentRepository tournamentRepository;
+
+    @Mock
+    private TournamentGroupRepository tournamentGroupRepository;
+
+    @Mock
+    private TournamentCloseChunkRepository tournamentCloseChunkRepository;
+
+    @Mock
+    private UserProgressBuffer userProgressBuffer;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private SchedulerLeader schedulerLeader;
+
+    private Tournament tournament;
+
+    @BeforeEach
+    public void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(tournamentCloseJob, "chunkSize", 2);
+        ReflectionTestUtils.setField(tournamentCloseJob, "workers", 2);
+        tournamentCloseJob.start();
+
+        tournament = new Tournament();
+        tournament.setId(1L);
+        tournament.setActive(true);
+
+        when(transactionTemplate.execute(any())).thenAnswer(
+                invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        when(tournamentRepository.getReferenceById(1L)).thenReturn(tournament);
+        when(tournamentCloseChunkRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<TournamentCloseChunk> chunks = invocation.getArgument(0);
+            for (int i = 0; i < chunks.size(); i++) {
+                chunks.get(i).setId(i + 1L);
+            }
+            return chunks;
+        });
+    }
+
+    @AfterEach
+    public void tearDown() {
+        tournamentCloseJob.stop();
+    }
+
+    @Test
+    public void testCloseActiveTournamentsRewardsEveryChunk() {
+        when(tournamentRepository.findByIsActiveTrue()).thenReturn(Collections.singletonList(tournament));
+        when(tournamentGroupRepository.findIdsByTournament(tournament)).thenReturn(Arrays.asList(3L, 4L, 7L, 8L, 9L));
+        when(tournamentCloseChunkRepository.markCompleted(anyLong(), any(LocalDateTime.class))).thenReturn(1);
+        when(tournamentRepository.markRewardsDistributed(1L)).thenReturn(1);
+
+        tournamentCloseJob.closeActiveTournaments().join();
+
+        verify(userProgressBuffer, times(1)).flush();
+        verify(tournamentService, times(1)).deactivateTournament(tournament);
+        verify(tournamentService, times(1)).distributeRewards(tournament, 3L, 4L);
+        verify(tournamentService, times(1)).distributeRewards(tournament, 7L, 8L);
+        verify(tournamentService, times(1)).distributeRewards(tournament, 9L, 9L);
+        verify(tournamentRepository, atLeastOnce()).markRewardsDistributed(1L);
+        verify(tournamentService, atLeastOnce()).getSnapshot(1L);
+    }
+
+    @Test
+    public void testCloseOverdueTournamentsSkipsRunningOnes() {
+        tournament.setEndTime(LocalDateTime.now().minusDays(1));
+        Tournament running = new Tournament();
+        running.setId(2L);
+        running.setActive(true);
+        running.setEndTime(LocalDateTime.now().plusDays(1));
+        when(tournamentRepository.findByIsActiveTrue()).thenReturn(Arrays.asList(tournament, running));
+        when(tournamentGroupRepository.findIdsByTournament(tournament)).thenReturn(Arrays.asList(3L, 4L));
+        when(tournamentCloseChunkRepository.markCompleted(anyLong(), any(LocalDateTime.class))).thenReturn(1);
+        when(tournamentRepository.markRewardsDistributed(1L)).thenReturn(1);
+        Runnable check = mock(Runnable.class);
+
+        tournamentCloseJob.closeOverdueTournaments(check).join();
+
+        verify(tournamentService, times(1)).deactivateTournament(tournament);
+        verify(tournamentService, never()).deactivateTournament(running);
+        verify(tournamentService, times(1)).distributeRewards(tournament, 3L, 4L);
+        verify(check, times(1)).run();
+    }
+
+    @Test
+    public void testResumeSkipsChunksCompletedElsewhere() {
+        TournamentCloseChunk done = new TournamentCloseChunk(1L, 3L, 4L, 2);
+        done.setId(1L);
+        TournamentCloseChunk pending = new TournamentCloseChunk(1L, 7L, 8L, 2);
+        pending.setId(2L);
+        when(tournamentCloseChunkRepository.findByCompletedFalseOrderByIdAsc()).thenReturn(Arrays.asList(done, pending));
+        when(tournamentCloseChunkRepository.markCompleted(eq(1L), any(LocalDateTime.class))).thenReturn(0);
+        when(tournamentCloseChunkRepository.markCompleted(eq(2L), any(LocalDateTime.class))).thenReturn(1);
+        when(tournamentCloseChunkRepository.countByTournamentIdAndCompletedFalse(1L)).thenReturn(1L, 0L);
+        when(schedulerLeader.isLeader()).thenReturn(true);
+
+        tournamentCloseJob.resumePendingChunks();
+
+        verify(tournamentService, timeout(5000).times(1)).distributeRewards(tournament, 7L, 8L);
+        verify(tournamentService, never()).distributeRewards(tournament, 3L, 4L);
+        verify(tournamentRepository, timeout(5000).times(1)).markRewardsDistributed(1L);
+    }
+
+    @Test
+    public void testResumeOnlyOnLeader() {
+        when(schedulerLeader.isLeader()).thenReturn(false);
+
+        tournamentCloseJob.resumePendingChunks();
+
+        verify(tournamentCloseChunkRepository, never()).findByCompletedFalseOrderByIdAsc();
+    }
+
+    @Test
+    public void testGetProgress() {
+        TournamentCloseChunk done = new TournamentCloseChunk(1L, 3L, 4L, 2);
+        done.setCompleted(true);
+        TournamentCloseChunk pending = new TournamentCloseChunk(1L, 7L, 9L, 3);
+        when(tournamentRepository.findById(1L)).thenReturn(Optional.of(tournament));
+        when(tournamentCloseChunkRepository.findByTournamentId(1L)).thenReturn(Arrays.asList(done, pending));
+
+        TournamentCloseProgress progress = tournamentCloseJob.getProgress(1L);
+
+        assertEquals(2, progress.getTotalChunks());
+        assertEquals(1, progress.getCompletedChunks());
+        assertEquals(5, progress.getTotalGroups());
+        assertEquals(2, progress.getCompletedGroups());
+        assertFalse(progress.isRewardsDistributed());
+        assertThrows(IllegalArgumentException.class, () -> tournamentCloseJob.getProgress(2L));
+    }
+}
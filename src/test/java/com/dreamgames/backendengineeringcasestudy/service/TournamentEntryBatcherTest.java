@@ -0,0 +1,122 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import com.dreamgames.backendengineeringcasestudy.dto.GroupLeaderboardEntry;
+import com.dreamgames.backendengineeringcasestudy.model.Country;
+import com.dreamgames.backendengineeringcasestudy.model.Tournament;
+import com.dreamgames.backendengineeringcasestudy.model.User;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentGroupRepository;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentUserRepository;
+import com.dreamgames.backendengineeringcasestudy.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class TournamentEntryBatcherTest {
+
+    @InjectMocks
+    private TournamentEntryBatcher tournamentEntryBatcher;
+
+    @Mock
+    private TournamentService tournamentService;
+
+    @Mock
+    private GroupMatchmaker groupMatchmaker;
+
+    @Mock
+    private UserProgressBuffer userProgressBuffer;
+
+    @Mock
+    private GroupLeaderboardCache groupLeaderboardCache;
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private TournamentGroupRepository tournamentGroupRepository;
+
+    @Mock
+    private TournamentUserRepository tournamentUserRepository;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    private final List<GroupLeaderboardEntry> leaderboard = Collections.singletonList(
+            new GroupLeaderboardEntry(1L, "player", "TURKEY", 0, 1));
+
+    @BeforeEach
+    public void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(tournamentEntryBatcher, "enabled", true);
+        ReflectionTestUtils.setField(tournamentEntryBatcher, "windowMs", 1L);
+        ReflectionTestUtils.setField(tournamentEntryBatcher, "maxBatchSize", 500);
+        tournamentEntryBatcher.start();
+
+        Tournament tournament = new Tournament();
+        tournament.setId(1L);
+        when(tournamentService.getCurrentActiveTournament()).thenReturn(tournament);
+        when(tournamentService.enterTournament(1L)).thenReturn(leaderboard);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        tournamentEntryBatcher.stop();
+    }
+
+    @Test
+    public void testFailedBatchEntersUsersOneAtATime() {
+        when(transactionTemplate.execute(any())).thenThrow(new QueryTimeoutException("timeout"));
+        when(tournamentService.enterTournament(2L))
+                .thenThrow(new IllegalArgumentException("User already entered the current tournament"));
+
+        assertEquals(leaderboard, tournamentEntryBatcher.enterTournament(1L));
+        assertThrows(IllegalArgumentException.class, () -> tournamentEntryBatcher.enterTournament(2L));
+        verify(groupMatchmaker, never()).evict(any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBatchWithoutRowCountsIsEnteredOneAtATime() {
+        User user = new User();
+        user.setId(1L);
+        user.setLevel(20);
+        user.setCoins(5000);
+        user.setCountry(Country.TURKEY);
+        when(transactionTemplate.execute(any())).thenAnswer(
+                invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        when(userRepository.findAllById(any())).thenReturn(Collections.singletonList(user));
+        when(jdbcTemplate.batchUpdate(anyString(), anyCollection(), anyInt(),
+                any(ParameterizedPreparedStatementSetter.class)))
+                .thenReturn(new int[][] { { Statement.SUCCESS_NO_INFO } });
+
+        assertEquals(leaderboard, tournamentEntryBatcher.enterTournament(1L));
+        verify(tournamentService, times(1)).enterTournament(1L);
+        verify(tournamentService, never()).reserveSlot(any(), any());
+    }
+}
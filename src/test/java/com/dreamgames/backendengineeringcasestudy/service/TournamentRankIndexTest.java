@@ -0,0 +1,99 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import com.dreamgames.backendengineeringcasestudy.dto.UserScore;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentUserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class TournamentRankIndexTest {
+
+    @InjectMocks
+    private TournamentRankIndex tournamentRankIndex;
+
+    @Mock
+    private TournamentUserRepository tournamentUserRepository;
+
+    @BeforeEach
+    public void setUp() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    @Test
+    public void testRanksShareTiesAndSkipPositions() {
+        when(tournamentUserRepository.findUserScoresByTournamentId(1L)).thenReturn(Collections.emptyList());
+        assertTrue(tournamentRankIndex.getTop(1L, 1).isEmpty());
+        tournamentRankIndex.updateScore(1L, 1L, 5);
+        tournamentRankIndex.updateScore(1L, 2L, 5);
+        tournamentRankIndex.updateScore(1L, 3L, 2);
+        tournamentRankIndex.updateScore(1L, 4L, 0);
+
+        assertEquals(1, tournamentRankIndex.getRank(1L, 1L).getRank());
+        assertEquals(1, tournamentRankIndex.getRank(1L, 2L).getRank());
+        assertEquals(3, tournamentRankIndex.getRank(1L, 3L).getRank());
+        assertEquals(4, tournamentRankIndex.getRank(1L, 4L).getRank());
+        assertNull(tournamentRankIndex.getRank(1L, 5L));
+
+        List<TournamentRankIndex.RankedScore> top = tournamentRankIndex.getTop(1L, 3);
+        assertEquals(3, top.size());
+        assertEquals(1, top.get(1).getRank());
+        assertEquals(3L, top.get(2).getUserId());
+        assertEquals(3, top.get(2).getRank());
+    }
+
+    @Test
+    public void testScoresOnlyGoUpAcrossLoadAndUpdates() {
+        when(tournamentUserRepository.findUserScoresByTournamentId(1L)).thenReturn(Arrays.asList(
+                new UserScore(1L, 3), new UserScore(2L, 200)));
+        assertEquals(3, tournamentRankIndex.getRank(1L, 1L).getScore());
+        tournamentRankIndex.updateScore(1L, 1L, 4);
+        tournamentRankIndex.updateScore(1L, 1L, 2);
+
+        assertEquals(4, tournamentRankIndex.getRank(1L, 1L).getScore());
+        assertEquals(2, tournamentRankIndex.getRank(1L, 1L).getRank());
+        assertEquals(1, tournamentRankIndex.getRank(1L, 2L).getRank());
+
+        tournamentRankIndex.updateScore(1L, 1L, 201);
+        assertEquals(1, tournamentRankIndex.getRank(1L, 1L).getRank());
+        assertEquals(2, tournamentRankIndex.getRank(1L, 2L).getRank());
+        verify(tournamentUserRepository, times(1)).findUserScoresByTournamentId(1L);
+    }
+
+    @Test
+    public void testIncrementCountsLevelUpsReadingTheSameScore() {
+        when(tournamentUserRepository.findUserScoresByTournamentId(1L)).thenReturn(Collections.singletonList(
+                new UserScore(1L, 3)));
+        tournamentRankIndex.getRank(1L, 1L);
+
+        // Both level-ups read the persisted score 3 before either was committed
+        tournamentRankIndex.incrementScore(1L, 1L, 4);
+        tournamentRankIndex.incrementScore(1L, 1L, 4);
+        assertEquals(5, tournamentRankIndex.getRank(1L, 1L).getScore());
+
+        // Level-ups on other nodes are taken from the known score
+        tournamentRankIndex.incrementScore(1L, 1L, 9);
+        assertEquals(9, tournamentRankIndex.getRank(1L, 1L).getScore());
+    }
+
+    @Test
+    public void testUpdatesAfterEvictDoNotRecreateRankings() {
+        when(tournamentUserRepository.findUserScoresByTournamentId(1L)).thenReturn(Collections.emptyList());
+        tournamentRankIndex.getTop(1L, 1);
+        tournamentRankIndex.evict(1L);
+
+        tournamentRankIndex.updateScore(1L, 1L, 0);
+        tournamentRankIndex.incrementScore(1L, 1L, 1);
+
+        assertNull(tournamentRankIndex.getRank(1L, 1L)); // Loaded again from the database
+        verify(tournamentUserRepository, times(2)).findUserScoresByTournamentId(1L);
+    }
+}
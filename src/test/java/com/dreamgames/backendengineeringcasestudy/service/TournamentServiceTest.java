@@ -2,20 +2,38 @@ package com.dreamgames.backendengineeringcasestudy.service;
 
 import com.dreamgames.backendengineeringcasestudy.dto.CountryScore;
 import com.dreamgames.backendengineeringcasestudy.dto.GroupLeaderboardEntry;
+import com.dreamgames.backendengineeringcasestudy.dto.ParticipantScore;
+import com.dreamgames.backendengineeringcasestudy.dto.Versioned;
 import com.dreamgames.backendengineeringcasestudy.model.*;
+import com.dreamgames.backendengineeringcasestudy.replica.ReplicaReads;
 import com.dreamgames.backendengineeringcasestudy.repository.*;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.*;
+import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 public class TournamentServiceTest {
@@ -35,9 +53,45 @@ public class TournamentServiceTest {
     @Mock
     private TournamentUserRepository tournamentUserRepository;
 
+    @Spy
+    private GroupMatchmaker groupMatchmaker = new GroupMatchmaker();
+
+    @Spy
+    private ActiveTournamentHolder activeTournamentHolder = new ActiveTournamentHolder();
+
+    @Mock
+    private CountryScoreCounters countryScoreCounters;
+
+    @Mock
+    private TournamentRankIndex tournamentRankIndex;
+
+    @Spy
+    private UserProgressBuffer userProgressBuffer = new UserProgressBuffer();
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private ReplicaReads replicaReads;
+
+    @Spy
+    private GroupLeaderboardCache groupLeaderboardCache = new GroupLeaderboardCache();
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    private TournamentSnapshots tournamentSnapshots;
+
     @BeforeEach
     public void setUp() {
         MockitoAnnotations.openMocks(this);
+        when(replicaReads.read(any())).thenAnswer(invocation -> ((Supplier<?>) invocation.getArgument(0)).get());
+        when(transactionTemplate.execute(any())).thenAnswer(
+                invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
     }
 
     @Test
@@ -58,9 +112,107 @@ public class TournamentServiceTest {
         assertEquals(now, createdTournament.getStartTime());
         assertEquals(endTime, createdTournament.getEndTime());
         assertTrue(createdTournament.isActive());
+        assertSame(tournament, activeTournamentHolder.get());
         verify(tournamentRepository, times(1)).save(any(Tournament.class));
     }
 
+    @Test
+    public void testStartTournamentIfMissing() {
+        when(tournamentRepository.findActiveIds()).thenReturn(Collections.singletonList(1L));
+
+        tournamentService.startTournamentIfMissing();
+
+        verify(tournamentRepository, never()).save(any(Tournament.class));
+    }
+
+    @Test
+    public void testPrepareNextTournament() {
+        ReflectionTestUtils.setField(tournamentService, "preallocationGroupFactor", 1.2);
+        ReflectionTestUtils.setField(tournamentService, "preallocationMaxGroups", 100000);
+        Tournament previous = new Tournament();
+        previous.setId(1L);
+
+        when(tournamentRepository.findFirstByUpcomingTrueOrderByIdDesc()).thenReturn(Optional.empty());
+        when(tournamentRepository.findFirstByUpcomingFalseOrderByIdDesc()).thenReturn(Optional.of(previous));
+        when(tournamentUserRepository.countByTournamentGroup_Tournament(previous)).thenReturn(2500L);
+        when(tournamentRepository.save(any(Tournament.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        int[] checks = new int[1];
+
+        Tournament tournament = tournamentService.prepareNextTournament(() -> checks[0]++);
+
+        assertTrue(tournament.isUpcoming());
+        assertFalse(tournament.isActive());
+        assertEquals(LocalDateTime.now(ZoneOffset.UTC).toLocalDate().plusDays(1), tournament.getStartTime().toLocalDate());
+        // 2500 entries * 1.2 / 5 countries = 600 groups, in batches of 500
+        verify(tournamentGroupRepository).saveAll(argThat(groups -> ((List<TournamentGroup>) groups).size() == 500));
+        verify(tournamentGroupRepository).saveAll(argThat(groups -> ((List<TournamentGroup>) groups).size() == 100
+                && ((List<TournamentGroup>) groups).get(0).getOccupiedCountries() == 0));
+        // The tournament and each batch are written in their own checked transaction
+        assertEquals(3, checks[0]);
+        verify(transactionTemplate, times(3)).execute(any());
+    }
+
+    @Test
+    public void testPrepareNextTournamentWhenAlreadyPrepared() {
+        Tournament upcoming = new Tournament();
+        upcoming.setUpcoming(true);
+        when(tournamentRepository.findFirstByUpcomingTrueOrderByIdDesc()).thenReturn(Optional.of(upcoming));
+
+        assertSame(upcoming, tournamentService.prepareNextTournament());
+        verify(tournamentRepository, never()).save(any(Tournament.class));
+        verify(tournamentGroupRepository, never()).saveAll(anyList());
+    }
+
+    @Test
+    public void testStartDailyTournamentActivatesPreparedTournament() {
+        Tournament upcoming = new Tournament();
+        upcoming.setId(2L);
+        upcoming.setUpcoming(true);
+        TournamentGroup group = new TournamentGroup();
+        group.setId(10L);
+        group.setTournament(upcoming);
+
+        when(tournamentRepository.findFirstByUpcomingTrueOrderByIdDesc()).thenReturn(Optional.of(upcoming));
+        when(tournamentRepository.activateUpcoming(eq(2L), any(), any())).thenReturn(1);
+        when(tournamentGroupRepository.findByTournamentAndCompetitionStartedFalse(upcoming))
+                .thenReturn(Collections.singletonList(group));
+
+        Tournament tournament = tournamentService.startDailyTournament();
+
+        assertTrue(tournament.isActive());
+        assertFalse(tournament.isUpcoming());
+        assertTrue(activeTournamentHolder.isActive(2L));
+        verify(tournamentRepository, never()).save(any(Tournament.class));
+        // The pre-allocated group is offered without loading the open groups again
+        assertEquals(10L, groupMatchmaker.reserveSlot(2L, Country.TURKEY, Collections::emptyList).getGroupId());
+    }
+
+    @Test
+    public void testRolledBackStartLeavesTheTournamentInactive() {
+        Tournament upcoming = new Tournament();
+        upcoming.setId(2L);
+        upcoming.setUpcoming(true);
+
+        when(tournamentRepository.findFirstByUpcomingTrueOrderByIdDesc()).thenReturn(Optional.of(upcoming));
+        when(tournamentRepository.activateUpcoming(eq(2L), any(), any())).thenReturn(1);
+        when(tournamentGroupRepository.findByTournamentAndCompetitionStartedFalse(upcoming))
+                .thenReturn(Collections.emptyList());
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            tournamentService.startDailyTournament();
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(synchronization -> synchronization.afterCompletion(
+                            TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertFalse(activeTournamentHolder.isActive(2L));
+        verify(groupMatchmaker, never()).load(eq(2L), anyList());
+    }
+
     @Test
     public void testGetAllTournaments() {
         Tournament tournament1 = new Tournament();
@@ -112,6 +264,7 @@ public class TournamentServiceTest {
         tournament.setActive(true);
 
         when(tournamentRepository.findByIsActiveTrue()).thenReturn(Collections.singletonList(tournament));
+        activeTournamentHolder.activate(tournament);
 
         doAnswer(invocation -> {
             Tournament arg = invocation.getArgument(0);
@@ -122,10 +275,52 @@ public class TournamentServiceTest {
         tournamentService.endTournaments();
 
         assertFalse(tournament.isActive());
+        assertNull(activeTournamentHolder.get());
         verify(tournamentRepository, times(1)).findByIsActiveTrue();
         verify(tournamentRepository, times(1)).save(tournament);
     }
 
+    @Test
+    public void testEndTournamentsWithLazyRewards() {
+        ReflectionTestUtils.setField(tournamentService, "rewardsMode", "lazy");
+        Tournament tournament = new Tournament();
+        tournament.setId(1L);
+        tournament.setActive(true);
+
+        when(tournamentRepository.findByIsActiveTrue()).thenReturn(Collections.singletonList(tournament));
+
+        tournamentService.endTournaments();
+
+        assertFalse(tournament.isActive());
+        assertTrue(tournament.isLazyRewards());
+        verify(tournamentRepository, times(1)).save(tournament);
+        verify(tournamentGroupRepository, never()).findByTournament(any(Tournament.class));
+        verify(tournamentRepository, never()).markRewardsDistributed(1L);
+    }
+
+    @Test
+    public void testRolledBackCloseKeepsTheTournamentActive() {
+        Tournament tournament = new Tournament();
+        tournament.setId(1L);
+        tournament.setActive(true);
+        activeTournamentHolder.activate(tournament);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            tournamentService.deactivateTournament(tournament);
+            assertSame(tournament, activeTournamentHolder.get()); // Not before the close commits
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(synchronization -> synchronization.afterCompletion(
+                            TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertSame(tournament, activeTournamentHolder.get());
+        verify(groupMatchmaker, never()).evict(1L);
+        verify(tournamentRankIndex, never()).evict(1L);
+    }
+
     @Test
     public void testDistributeRewards() {
         Tournament tournament = new Tournament();
@@ -158,16 +353,77 @@ public class TournamentServiceTest {
         // Check the rewards
         assertEquals(10000, user1.getReward());
         assertEquals(5000, user2.getReward());
+        assertEquals(10000, actualUser1.getPendingReward());
+        verify(userRepository, times(1)).setPendingReward(Collections.singletonList(1L), 10000);
+        verify(userRepository, times(1)).setPendingReward(Collections.singletonList(2L), 5000);
         verify(tournamentUserRepository, times(1)).save(user1);
         verify(tournamentUserRepository, times(1)).save(user2);
     }
 
+    @Test
+    public void testDistributeRewardsAgainKeepsClaimedRewards() {
+        Tournament tournament = new Tournament();
+        tournament.setId(1L);
+
+        TournamentGroup group = new TournamentGroup();
+        group.setId(1L);
+        group.setTournament(tournament);
+        group.setCompetitionStarted(true);
+
+        // The winner claimed the reward before a resumed close reached the group again
+        TournamentUser winner = new TournamentUser();
+        User winnerUser = new User();
+        winnerUser.setId(1L);
+        winner.setUser(winnerUser);
+        winner.setScore(10);
+        winner.setReward(10000);
+        winner.setRewardClaimed(true);
+
+        TournamentUser runnerUp = new TournamentUser();
+        User runnerUpUser = new User();
+        runnerUpUser.setId(2L);
+        runnerUp.setUser(runnerUpUser);
+        runnerUp.setScore(8);
+
+        group.setParticipants(Arrays.asList(winner, runnerUp));
+
+        when(tournamentGroupRepository.findByTournament(tournament)).thenReturn(Collections.singletonList(group));
+
+        tournamentService.distributeRewards(tournament);
+
+        assertTrue(winner.isRewardClaimed());
+        assertEquals(0, winnerUser.getPendingReward());
+        assertEquals(5000, runnerUp.getReward());
+        verify(tournamentUserRepository, never()).save(winner);
+        verify(userRepository, never()).setPendingReward(Collections.singletonList(1L), 10000);
+        verify(userRepository, times(1)).setPendingReward(Collections.singletonList(2L), 5000);
+    }
+
+    @Test
+    public void testDistributeRewardsInSql() {
+        ReflectionTestUtils.setField(tournamentService, "rewardsEngine", "sql");
+        Tournament tournament = new Tournament();
+        tournament.setId(1L);
+
+        when(tournamentUserRepository.rewardScoreRank(1L, 0L, Long.MAX_VALUE, 1, 10000)).thenReturn(2);
+        when(tournamentUserRepository.rewardScoreRank(1L, 0L, Long.MAX_VALUE, 2, 5000)).thenReturn(1);
+
+        tournamentService.distributeRewards(tournament);
+
+        verify(tournamentUserRepository, times(1)).rewardScoreRank(1L, 0L, Long.MAX_VALUE, 1, 10000);
+        verify(tournamentUserRepository, times(1)).rewardScoreRank(1L, 0L, Long.MAX_VALUE, 2, 5000);
+        verify(userRepository, times(1)).markPendingRewards(1L, 0L, Long.MAX_VALUE);
+        verify(tournamentGroupRepository, never()).findByTournament(any(Tournament.class));
+        verify(tournamentUserRepository, never()).save(any(TournamentUser.class));
+    }
+
     @Test
     public void testEnterTournament() {
         User user = new User();
         user.setId(1L);
         user.setLevel(21);
         user.setCoins(2000);
+        user.setCountry(Country.TURKEY);
 
         Tournament tournament = new Tournament();
         tournament.setId(1L);
@@ -176,79 +432,264 @@ public class TournamentServiceTest {
         TournamentGroup group = new TournamentGroup();
         group.setId(1L);
         group.setTournament(tournament);
+        group.setOccupiedCountries(GroupMatchmaker.bit(Country.FRANCE));
 
         TournamentUser tournamentUser = new TournamentUser(user, group);
+        tournamentUser.setId(5L);
 
+        when(userRepository.deductEntryFee(1L, 1000, 20)).thenReturn(1);
         when(userRepository.findById(1L)).thenReturn(Optional.of(user));
-        when(tournamentRepository.findByIsActiveTrue()).thenReturn(Collections.singletonList(tournament));
+        activeTournamentHolder.activate(tournament);
         when(tournamentGroupRepository.existsByTournamentAndParticipants_User(tournament, user)).thenReturn(false);
-        when(tournamentGroupRepository.findByTournament(tournament)).thenReturn(Collections.singletonList(group));
+        when(tournamentGroupRepository.findByTournamentAndCompetitionStartedFalse(tournament))
+                .thenReturn(Collections.singletonList(group));
+        when(tournamentGroupRepository.claimSlot(eq(1L), eq(GroupMatchmaker.bit(Country.TURKEY)),
+                eq(GroupMatchmaker.openMasksWithout(Country.TURKEY)), eq(GroupMatchmaker.FULL_MASK))).thenReturn(1);
+        when(tournamentGroupRepository.getReferenceById(1L)).thenReturn(group);
         when(tournamentUserRepository.save(any(TournamentUser.class))).thenReturn(tournamentUser);
-        when(userRepository.save(user)).thenReturn(user);
+        when(tournamentUserRepository.findParticipantScoresByGroupIds(Collections.singleton(1L)))
+                .thenReturn(Collections.singletonList(new ParticipantScore(5L, 1L, 1L, "TestUser", Country.TURKEY, 0)));
 
         List<GroupLeaderboardEntry> leaderboard = tournamentService.enterTournament(1L);
 
         assertNotNull(leaderboard);
         assertEquals(1, leaderboard.size());
         assertEquals(user.getId(), leaderboard.get(0).getUserId());
+        verify(userRepository, times(1)).deductEntryFee(1L, 1000, 20);
+        verify(userRepository, times(1)).setLatestTournamentUserId(1L, 5L);
         verify(userRepository, times(1)).findById(1L);
-        verify(tournamentRepository, times(1)).findByIsActiveTrue();
+        verify(tournamentRepository, never()).findByIsActiveTrue();
         verify(tournamentGroupRepository, times(1)).existsByTournamentAndParticipants_User(tournament, user);
-        verify(tournamentGroupRepository, times(1)).findByTournament(tournament);
+        verify(tournamentGroupRepository, times(1)).findByTournamentAndCompetitionStartedFalse(tournament);
+        verify(tournamentGroupRepository, never()).save(any(TournamentGroup.class));
         verify(tournamentUserRepository, times(1)).save(any(TournamentUser.class));
-        verify(userRepository, times(1)).save(user);
+        verify(userRepository, never()).save(user);
+        verify(countryScoreCounters, times(1)).join(1L, Country.TURKEY);
+        verify(eventPublisher, never()).publishEvent(any(GroupStartWaiters.GroupStarted.class)); // Not full yet
+        // Pending level-ups are written before the entry transaction takes a connection
+        InOrder inOrder = inOrder(userProgressBuffer, transactionTemplate);
+        inOrder.verify(userProgressBuffer).flushUsers(Collections.singleton(1L));
+        inOrder.verify(transactionTemplate).execute(any());
     }
 
     @Test
-    public void testClaimReward() {
+    public void testRolledBackEntryIsUndoneInMemory() {
         User user = new User();
         user.setId(1L);
-        user.setCoins(5000);
+        user.setLevel(21);
+        user.setCoins(2000);
+        user.setCountry(Country.TURKEY);
 
-        TournamentUser tournamentUser = new TournamentUser();
-        tournamentUser.setUser(user);
-        tournamentUser.setReward(10000);
-        tournamentUser.setRewardClaimed(false);
+        Tournament tournament = new Tournament();
+        tournament.setId(1L);
+        tournament.setActive(true);
 
+        TournamentGroup group = new TournamentGroup();
+        group.setId(1L);
+        group.setTournament(tournament);
+
+        when(userRepository.deductEntryFee(1L, 1000, 20)).thenReturn(1);
         when(userRepository.findById(1L)).thenReturn(Optional.of(user));
-        when(tournamentUserRepository.findByUser(user)).thenReturn(Collections.singletonList(tournamentUser));
-        when(userRepository.save(user)).thenReturn(user);
-        when(tournamentUserRepository.save(tournamentUser)).thenReturn(tournamentUser);
+        activeTournamentHolder.activate(tournament);
+        when(tournamentGroupRepository.findByTournamentAndCompetitionStartedFalse(tournament))
+                .thenReturn(Collections.singletonList(group));
+        when(tournamentGroupRepository.claimSlot(eq(1L), anyInt(), any(), anyInt())).thenReturn(1);
+        when(tournamentGroupRepository.getReferenceById(1L)).thenReturn(group);
+        when(tournamentUserRepository.save(any(TournamentUser.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            tournamentService.enterTournament(1L);
+            // The transaction fails to commit after the entry was placed
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(synchronization -> synchronization.afterCompletion(
+                            TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verify(groupMatchmaker, times(1)).releaseSlot(1L, 1L, Country.TURKEY);
+        verify(countryScoreCounters, never()).join(anyLong(), any(Country.class));
+        verify(tournamentRankIndex, never()).updateScore(anyLong(), anyLong(), anyInt());
+        // The released slot is offered to the next Turkish user again
+        assertEquals(1L, groupMatchmaker.reserveSlot(1L, Country.TURKEY, Collections::emptyList).getGroupId());
+    }
 
-        User rewardedUser = tournamentService.claimReward(1L);
+    @Test
+    public void testEnterTournamentWithUnclaimedReward() {
+        User user = new User();
+        user.setId(1L);
+        user.setLevel(21);
+        user.setCoins(2000);
+        user.setPendingReward(5000);
 
-        assertNotNull(rewardedUser);
-        assertEquals(15000, rewardedUser.getCoins());
-        assertTrue(tournamentUser.isRewardClaimed());
-        verify(userRepository, times(1)).findById(1L);
-        verify(tournamentUserRepository, times(1)).findByUser(user);
-        verify(userRepository, times(1)).save(user);
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> tournamentService.enterTournament(1L));
+        assertEquals("User has unclaimed rewards and cannot enter a new tournament", e.getMessage());
+        verify(tournamentUserRepository, never()).findByUser(user);
+        verify(tournamentUserRepository, never()).findLatestByUser(user);
+        verify(userRepository, never()).save(user);
+    }
+
+    @Test
+    public void testEnterTournamentWithoutEnoughCoins() {
+        User user = new User();
+        user.setId(1L);
+        user.setLevel(21);
+        user.setCoins(999);
+
+        when(userRepository.deductEntryFee(1L, 1000, 20)).thenReturn(0);
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> tournamentService.enterTournament(1L));
+        assertEquals("User does not meet the requirements to enter the tournament", e.getMessage());
+        verify(tournamentRepository, never()).findByIsActiveTrue();
+        verify(tournamentUserRepository, never()).save(any(TournamentUser.class));
+    }
+
+    @Test
+    public void testEnterTournamentComputesLazyRewardFirst() {
+        ReflectionTestUtils.setField(tournamentService, "rewardsMode", "lazy");
+        User user = new User();
+        user.setId(1L);
+        user.setLevel(21);
+        user.setCoins(2000);
+        user.setLatestTournamentUserId(5L);
+
+        TournamentGroup group = new TournamentGroup();
+        group.setId(3L);
+        group.setCompetitionStarted(true);
+
+        TournamentUser tournamentUser = new TournamentUser(user, group);
+        tournamentUser.setScore(4);
+        group.setParticipants(Collections.singletonList(tournamentUser));
+
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+        when(tournamentGroupRepository.existsPendingLazyRewards()).thenReturn(true);
+        when(tournamentUserRepository.findGroupIdsWithLazyRewards(Collections.singleton(1L)))
+                .thenReturn(Collections.singletonList(3L));
+        when(tournamentGroupRepository.markRewardsComputed(3L)).thenReturn(1);
+        when(tournamentGroupRepository.findById(3L)).thenReturn(Optional.of(group));
+        when(tournamentUserRepository.findById(5L)).thenReturn(Optional.of(tournamentUser));
+        when(tournamentUserRepository.findLatestByUser(user)).thenCallRealMethod();
+
+        // The reward of the ended tournament is computed on the spot and blocks the entry
+        assertThrows(IllegalArgumentException.class, () -> tournamentService.enterTournament(1L));
+        assertEquals(10000, tournamentUser.getReward());
+        assertEquals(10000, user.getPendingReward());
         verify(tournamentUserRepository, times(1)).save(tournamentUser);
+        verify(userRepository, never()).save(user);
     }
 
     @Test
-    public void testGetCountryLeaderboard() {
+    public void testLazyRewardsAreNotScannedOnceAllAreComputed() {
+        ReflectionTestUtils.setField(tournamentService, "rewardsMode", "lazy");
+        when(tournamentGroupRepository.existsPendingLazyRewards()).thenReturn(true, false);
+
+        tournamentService.materializeLazyRewards(Collections.singleton(1L));
+        tournamentService.refreshLazyRewardsPending();
+        tournamentService.materializeLazyRewards(Collections.singleton(1L));
+
+        verify(tournamentUserRepository, times(1)).findGroupIdsWithLazyRewards(Collections.singleton(1L));
+    }
+
+    @Test
+    public void testEnterTournamentCreatesGroupWhenSlotIsTaken() {
+        User user = new User();
+        user.setId(1L);
+        user.setLevel(21);
+        user.setCoins(2000);
+        user.setCountry(Country.TURKEY);
+
         Tournament tournament = new Tournament();
         tournament.setId(1L);
+        tournament.setActive(true);
 
         TournamentGroup group = new TournamentGroup();
         group.setId(1L);
         group.setTournament(tournament);
 
-        TournamentUser user1 = new TournamentUser();
-        user1.setUser(new User());
-        user1.getUser().setCountry(Country.TURKEY);
-        user1.setScore(10);
+        TournamentGroup newGroup = new TournamentGroup();
+        newGroup.setId(2L);
+        newGroup.setTournament(tournament);
 
-        TournamentUser user2 = new TournamentUser();
-        user2.setUser(new User());
-        user2.getUser().setCountry(Country.UNITED_STATES);
-        user2.setScore(8);
+        when(userRepository.deductEntryFee(1L, 1000, 20)).thenReturn(1);
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+        activeTournamentHolder.activate(tournament);
+        when(tournamentGroupRepository.findByTournamentAndCompetitionStartedFalse(tournament))
+                .thenReturn(Collections.singletonList(group));
+        // Another node claimed the Turkish slot of group 1 first
+        when(tournamentGroupRepository.claimSlot(eq(1L), anyInt(), any(), anyInt())).thenReturn(0);
+        when(tournamentGroupRepository.findOpenGroups(eq(tournament), any(), any())).thenReturn(Collections.emptyList());
+        when(tournamentGroupRepository.save(any(TournamentGroup.class))).thenReturn(newGroup);
+        when(tournamentUserRepository.save(any(TournamentUser.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(tournamentUserRepository.findParticipantScoresByGroupIds(Collections.singleton(2L)))
+                .thenReturn(Collections.singletonList(new ParticipantScore(5L, 2L, 1L, "TestUser", Country.TURKEY, 0)));
 
-        group.setParticipants(Arrays.asList(user1, user2));
+        List<GroupLeaderboardEntry> leaderboard = tournamentService.enterTournament(1L);
 
-        when(tournamentGroupRepository.findByTournament(tournament)).thenReturn(Collections.singletonList(group));
-        when(tournamentRepository.findById(1L)).thenReturn(Optional.of(tournament));
+        assertEquals(1, leaderboard.size());
+        verify(tournamentGroupRepository, times(1)).claimSlot(eq(1L), anyInt(), any(), anyInt());
+        verify(tournamentGroupRepository, times(1)).save(argThat(saved ->
+                saved.getOccupiedCountries() == GroupMatchmaker.bit(Country.TURKEY)));
+        verify(tournamentUserRepository, times(1)).save(any(TournamentUser.class));
+    }
+
+    @Test
+    public void testClaimReward() {
+        User user = new User();
+        user.setId(1L);
+        user.setCoins(5000);
+        user.setPendingReward(10000);
+
+        User rewarded = new User();
+        rewarded.setId(1L);
+        rewarded.setCoins(15025); // Includes a level-up that landed after the first read
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user), Optional.of(rewarded));
+        when(userRepository.payPendingReward(1L, 10000)).thenReturn(1);
+
+        User rewardedUser = tournamentService.claimReward(1L);
+
+        assertSame(rewarded, rewardedUser);
+        verify(tournamentUserRepository, times(1)).markRewardsClaimed(1L);
+        verify(tournamentUserRepository, never()).findByUser(user);
+        verify(userRepository, never()).save(any(User.class));
+    }
+
+    @Test
+    public void testClaimRewardClaimedConcurrently() {
+        User user = new User();
+        user.setId(1L);
+        user.setCoins(5000);
+        user.setPendingReward(10000);
+
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+        // Another request cleared the reward after this one read it
+        when(userRepository.payPendingReward(1L, 10000)).thenReturn(0);
+
+        assertThrows(IllegalArgumentException.class, () -> tournamentService.claimReward(1L));
+        verify(tournamentUserRepository, never()).markRewardsClaimed(1L);
+        verify(userRepository, never()).save(user);
+    }
+
+    @Test
+    public void testRepairPendingRewards() {
+        when(userRepository.findMaxId()).thenReturn(2500L);
+        when(userRepository.recomputePendingRewards(0L, 999L)).thenReturn(2);
+        when(userRepository.recomputePendingRewards(2000L, 2999L)).thenReturn(1);
+
+        assertEquals(3, tournamentService.repairPendingRewards());
+        verify(userRepository, times(3)).recomputePendingRewards(anyLong(), anyLong());
+    }
+
+    @Test
+    public void testGetCountryLeaderboard() {
+        when(tournamentRepository.existsById(1L)).thenReturn(true);
+        when(tournamentUserRepository.sumScoresByCountry(1L)).thenReturn(Arrays.asList(
+                new CountryScore(Country.TURKEY, 10L), new CountryScore(Country.UNITED_STATES, 8L)));
 
         List<CountryScore> leaderboard = tournamentService.getCountryLeaderboard(1L);
 
@@ -258,8 +699,167 @@ public class TournamentServiceTest {
         assertEquals(10, leaderboard.get(0).getTotalScore());
         assertEquals("UNITED_STATES", leaderboard.get(1).getCountry());
         assertEquals(8, leaderboard.get(1).getTotalScore());
-        verify(tournamentRepository, times(1)).findById(1L);
-        verify(tournamentGroupRepository, times(1)).findByTournament(tournament);
+        verify(tournamentRepository, never()).findById(1L);
+        verify(tournamentGroupRepository, never()).findByTournament(any(Tournament.class));
+    }
+
+    @Test
+    public void testGetCountryLeaderboardFromCounters() {
+        when(tournamentRepository.existsById(1L)).thenReturn(true);
+        when(countryScoreCounters.getLeaderboard(1L)).thenReturn(Arrays.asList(
+                new CountryScore("FRANCE", 12), new CountryScore("TURKEY", 3)));
+
+        List<CountryScore> leaderboard = tournamentService.getCountryLeaderboard(1L);
+
+        assertEquals(2, leaderboard.size());
+        assertEquals("FRANCE", leaderboard.get(0).getCountry());
+        assertEquals(12, leaderboard.get(0).getTotalScore());
+        verify(tournamentUserRepository, never()).sumScoresByCountry(1L);
+    }
+
+    @Test
+    public void testGetLeaderboard() {
+        when(tournamentUserRepository.findParticipantScoresByGroupIds(Collections.singleton(1L))).thenReturn(Arrays.asList(
+                new ParticipantScore(3L, 1L, 1L, "first", Country.TURKEY, 4),
+                new ParticipantScore(4L, 1L, 2L, "second", Country.FRANCE, 9),
+                new ParticipantScore(5L, 1L, 3L, "third", null, 4)));
+
+        List<GroupLeaderboardEntry> leaderboard = tournamentService.getLeaderboard(1L);
+
+        assertEquals(3, leaderboard.size());
+        assertEquals(2L, leaderboard.get(0).getUserId());
+        assertEquals(1, leaderboard.get(0).getRank());
+        assertEquals(2, leaderboard.get(1).getRank());
+        assertEquals(2, leaderboard.get(2).getRank());
+        assertEquals("Unknown", leaderboard.get(2).getCountry());
+        verify(tournamentGroupRepository, never()).existsById(1L);
+        verify(tournamentGroupRepository, never()).findById(1L);
+    }
+
+    @Test
+    public void testGetLeaderboardOfFinishedTournamentTakesSnapshot() {
+        when(tournamentUserRepository.findParticipantScoresByGroupIds(Collections.singleton(1L))).thenReturn(
+                Collections.singletonList(new ParticipantScore(3L, 1L, 1L, "first", Country.TURKEY, 4, 7, 5L)));
+        when(tournamentRepository.isFinished(5L)).thenReturn(true);
+        when(tournamentUserRepository.findParticipantScoresByTournamentId(5L)).thenReturn(Arrays.asList(
+                new ParticipantScore(3L, 1L, 1L, "first", Country.TURKEY, 4, 7, 5L),
+                new ParticipantScore(4L, 2L, 2L, "second", Country.FRANCE, 9, 2, 5L)));
+        when(tournamentUserRepository.sumScoresByCountry(5L)).thenReturn(Arrays.asList(
+                new CountryScore(Country.FRANCE, 9L), new CountryScore(Country.TURKEY, 4L)));
+
+        Versioned<List<GroupLeaderboardEntry>> leaderboard = tournamentService.getVersionedLeaderboard(1L);
+
+        assertEquals("\"t5g1\"", leaderboard.getETag());
+        assertEquals(1, leaderboard.getValue().size());
+        assertEquals(1L, leaderboard.getValue().get(0).getUserId());
+        verify(tournamentSnapshots).put(argThat(snapshot -> snapshot.containsGroup(2L)
+                && snapshot.getCountryScores().get(0).getTotalScore() == 9));
+        verify(countryScoreCounters, times(1)).evict(5L);
+        verify(countryScoreCounters, never()).getLeaderboard(5L);
+        assertTrue(((Map<?, ?>) ReflectionTestUtils.getField(tournamentService, "snapshotLocks")).isEmpty());
+    }
+
+    @Test
+    public void testGetCountryLeaderboardOfFinishedTournamentFromSnapshot() {
+        TournamentSnapshot snapshot = TournamentSnapshot.of(5L, new TreeMap<>(),
+                Collections.singletonList(new CountryScore("GERMANY", 6)));
+        when(tournamentSnapshots.get(5L)).thenReturn(snapshot);
+
+        List<CountryScore> leaderboard = tournamentService.getCountryLeaderboard(5L);
+
+        assertEquals("GERMANY", leaderboard.get(0).getCountry());
+        verify(tournamentRepository, never()).existsById(5L);
+        verify(countryScoreCounters, never()).getLeaderboard(5L);
+    }
+
+    @Test
+    public void testGetLeaderboardOfMissingGroup() {
+        when(tournamentUserRepository.findParticipantScoresByGroupIds(Collections.singleton(9L)))
+                .thenReturn(Collections.emptyList());
+        when(tournamentGroupRepository.findVersionById(9L)).thenReturn(Optional.empty());
+
+        assertThrows(IllegalArgumentException.class, () -> tournamentService.getLeaderboard(9L));
+    }
+
+    @Test
+    public void testGetVersionedLeaderboardFromCache() {
+        when(tournamentUserRepository.findParticipantScoresByGroupIds(Collections.singleton(1L))).thenReturn(
+                Collections.singletonList(new ParticipantScore(3L, 1L, 1L, "first", Country.TURKEY, 4, 7)));
+
+        Versioned<List<GroupLeaderboardEntry>> leaderboard = tournamentService.getVersionedLeaderboard(1L);
+        Versioned<List<GroupLeaderboardEntry>> cached = tournamentService.getVersionedLeaderboard(1L);
+
+        assertEquals("\"g1v7\"", leaderboard.getETag());
+        assertEquals(leaderboard.getETag(), cached.getETag());
+        assertSame(leaderboard.getValue(), cached.getValue());
+        verify(tournamentUserRepository, times(1)).findParticipantScoresByGroupIds(Collections.singleton(1L));
+        verify(tournamentGroupRepository, never()).findVersionById(1L);
+    }
+
+    @Test
+    public void testGetVersionedLeaderboardRevalidatesVersion() {
+        ReflectionTestUtils.setField(groupLeaderboardCache, "revalidateMs", 0L);
+        when(tournamentUserRepository.findParticipantScoresByGroupIds(Collections.singleton(1L))).thenReturn(
+                Collections.singletonList(new ParticipantScore(3L, 1L, 1L, "first", Country.TURKEY, 4, 7)),
+                Collections.singletonList(new ParticipantScore(3L, 1L, 1L, "first", Country.TURKEY, 5, 8)));
+        when(tournamentGroupRepository.findVersionById(1L)).thenReturn(Optional.of(7L), Optional.of(8L));
+
+        String eTag = tournamentService.getVersionedLeaderboard(1L).getETag();
+        Versioned<List<GroupLeaderboardEntry>> unchanged = tournamentService.getVersionedLeaderboard(1L);
+        Versioned<List<GroupLeaderboardEntry>> changed = tournamentService.getVersionedLeaderboard(1L);
+
+        assertEquals(eTag, unchanged.getETag());
+        assertEquals(4, unchanged.getValue().get(0).getScore());
+        assertEquals("\"g1v8\"", changed.getETag());
+        assertEquals(5, changed.getValue().get(0).getScore());
+        verify(tournamentUserRepository, times(2)).findParticipantScoresByGroupIds(Collections.singleton(1L));
+    }
+
+    @Test
+    public void testBufferedScoresArePartOfTheETag() {
+        ReflectionTestUtils.setField(userProgressBuffer, "enabled", true);
+        ReflectionTestUtils.setField(userProgressBuffer, "maxPending", 100);
+        when(tournamentUserRepository.findParticipantScoresByGroupIds(Collections.singleton(1L))).thenReturn(
+                Collections.singletonList(new ParticipantScore(3L, 1L, 1L, "first", Country.TURKEY, 4, 7)));
+        String eTag = tournamentService.getVersionedLeaderboard(1L).getETag();
+
+        userProgressBuffer.recordLevelUp(1L, 25, 3L);
+        groupLeaderboardCache.evict(1L);
+        Versioned<List<GroupLeaderboardEntry>> leaderboard = tournamentService.getVersionedLeaderboard(1L);
+
+        assertNotEquals(eTag, leaderboard.getETag());
+        assertEquals(5, leaderboard.getValue().get(0).getScore());
+    }
+
+    @Test
+    public void testGetGlobalLeaderboard() {
+        Tournament tournament = new Tournament();
+        tournament.setId(1L);
+        tournament.setActive(true);
+
+        User user1 = new User();
+        user1.setId(1L);
+        user1.setUsername("user1");
+        user1.setCountry(Country.TURKEY);
+        User user2 = new User();
+        user2.setId(2L);
+        user2.setUsername("user2");
+        user2.setCountry(Country.GERMANY);
+
+        activeTournamentHolder.activate(tournament);
+        when(tournamentRankIndex.getTop(1L, 10)).thenReturn(Arrays.asList(
+                new TournamentRankIndex.RankedScore(2L, 7, 1), new TournamentRankIndex.RankedScore(1L, 3, 2)));
+        when(userRepository.findAllById(anyList())).thenReturn(Arrays.asList(user1, user2));
+
+        List<GroupLeaderboardEntry> leaderboard = tournamentService.getGlobalLeaderboard(1L, 10);
+
+        assertEquals(2, leaderboard.size());
+        assertEquals("user2", leaderboard.get(0).getUsername());
+        assertEquals(1, leaderboard.get(0).getRank());
+        assertEquals("TURKEY", leaderboard.get(1).getCountry());
+        assertEquals(2, leaderboard.get(1).getRank());
+        assertThrows(IllegalArgumentException.class, () -> tournamentService.getGlobalLeaderboard(1L, 0));
+        verify(tournamentRepository, never()).findById(1L);
     }
 
     @Test
@@ -278,17 +878,23 @@ public class TournamentServiceTest {
         TournamentUser tournamentUser = new TournamentUser(user, group);
         tournamentUser.setScore(10);
 
-        group.setParticipants(Collections.singletonList(tournamentUser));
-
+        activeTournamentHolder.activate(tournament);
         when(userRepository.findById(1L)).thenReturn(Optional.of(user));
-        when(tournamentUserRepository.findByUser(user)).thenReturn(Collections.singletonList(tournamentUser));
-        when(tournamentGroupRepository.findByTournament(tournament)).thenReturn(Collections.singletonList(group));
-        when(tournamentRepository.findByIsActiveTrue()).thenReturn(Collections.singletonList(tournament));
+        when(tournamentUserRepository.findLatestByUser(user)).thenReturn(Optional.of(tournamentUser));
+        when(tournamentUserRepository.findParticipantScoresByGroupIds(Collections.singleton(1L)))
+                .thenReturn(Collections.singletonList(new ParticipantScore(3L, 1L, 1L, "TestUser", Country.TURKEY, 10)));
 
         GroupLeaderboardEntry rank = tournamentService.getGroupRank(1L);
 
         assertNotNull(rank);
         assertEquals(1L, rank.getUserId());
         assertEquals(10, rank.getScore());
+        verify(tournamentUserRepository, never()).findByUser(user);
+        verify(tournamentGroupRepository, never()).findByTournament(tournament);
+
+        // The group is remembered while the tournament is active
+        assertEquals(10, tournamentService.getGroupRank(1L).getScore());
+        verify(userRepository, times(1)).findById(1L);
+        verify(tournamentUserRepository, times(1)).findParticipantScoresByGroupIds(Collections.singleton(1L));
     }
 }
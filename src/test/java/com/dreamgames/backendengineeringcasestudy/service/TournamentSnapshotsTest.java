@@ -0,0 +1,94 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import com.dreamgames.backendengineeringcasestudy.dto.CountryScore;
+import com.dreamgames.backendengineeringcasestudy.dto.GroupLeaderboardEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TournamentSnapshotsTest {
+
+    @TempDir
+    Path dir;
+
+    private TournamentSnapshots tournamentSnapshots;
+
+    @BeforeEach
+    public void setUp() {
+        tournamentSnapshots = newSnapshots(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testSnapshotIsReadBackFromItsFile() {
+        tournamentSnapshots.put(snapshot(1L, 10L, 11L));
+
+        TournamentSnapshot read = newSnapshots(Long.MAX_VALUE).get(1L);
+
+        assertNotNull(read);
+        assertTrue(Files.exists(dir.resolve("tournament-1.snap.gz")));
+        List<GroupLeaderboardEntry> group = read.getGroupLeaderboard(11L);
+        assertEquals(2, group.size());
+        assertEquals(111L, group.get(0).getUserId());
+        assertEquals("player", group.get(0).getUsername());
+        assertEquals("TURKEY", group.get(0).getCountry());
+        assertEquals(7, group.get(0).getScore());
+        assertEquals(1, group.get(0).getRank());
+        assertNull(group.get(1).getUsername());
+        assertEquals("Unknown", group.get(1).getCountry());
+        assertEquals(2, group.get(1).getRank());
+        assertNull(read.getGroupLeaderboard(12L));
+        assertEquals("TURKEY", read.getCountryScores().get(0).getCountry());
+        assertEquals(14, read.getCountryScores().get(0).getTotalScore());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedSnapshotsAreDropped() {
+        TournamentSnapshot first = snapshot(1L, 10L);
+        tournamentSnapshots = newSnapshots(first.estimatedBytes() * 2);
+        tournamentSnapshots.put(first);
+        tournamentSnapshots.put(snapshot(2L, 20L));
+        assertNotNull(tournamentSnapshots.findGroup(10L));
+
+        tournamentSnapshots.put(snapshot(3L, 30L));
+
+        assertNotNull(tournamentSnapshots.findGroup(10L));
+        assertNull(tournamentSnapshots.findGroup(20L)); // Only dropped from memory
+        assertNotNull(tournamentSnapshots.get(2L));
+        assertNotNull(tournamentSnapshots.findGroup(20L));
+    }
+
+    @Test
+    public void testMissingSnapshot() {
+        assertNull(tournamentSnapshots.get(9L));
+        assertNull(tournamentSnapshots.findGroup(10L));
+    }
+
+    private TournamentSnapshots newSnapshots(long cacheBytes) {
+        TournamentSnapshots snapshots = new TournamentSnapshots();
+        ReflectionTestUtils.setField(snapshots, "dir", dir.toString());
+        ReflectionTestUtils.setField(snapshots, "cacheBytes", cacheBytes);
+        return snapshots;
+    }
+
+    private static TournamentSnapshot snapshot(Long tournamentId, Long... groupIds) {
+        SortedMap<Long, List<GroupLeaderboardEntry>> groups = new TreeMap<>();
+        for (Long groupId : groupIds) {
+            groups.put(groupId, Arrays.asList(
+                    new GroupLeaderboardEntry(groupId * 10 + 1, "player", "TURKEY", 7, 1),
+                    new GroupLeaderboardEntry(groupId * 10 + 2, null, "Unknown", 3, 2)));
+        }
+        return TournamentSnapshot.of(tournamentId, groups,
+                Collections.singletonList(new CountryScore("TURKEY", 7 * groupIds.length)));
+    }
+}
@@ -0,0 +1,155 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserCommandLanesTest {
+
+    private UserCommandLanes userCommandLanes;
+
+    private ExecutorService callers;
+
+    @BeforeEach
+    public void setUp() {
+        userCommandLanes = new UserCommandLanes();
+        ReflectionTestUtils.setField(userCommandLanes, "enabled", true);
+        ReflectionTestUtils.setField(userCommandLanes, "laneCount", 4);
+        ReflectionTestUtils.setField(userCommandLanes, "queueCapacity", 100);
+        ReflectionTestUtils.setField(userCommandLanes, "queueTimeoutMs", 5000L);
+        userCommandLanes.start();
+        callers = Executors.newFixedThreadPool(8);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        callers.shutdownNow();
+        userCommandLanes.stop();
+    }
+
+    @Test
+    public void testCommandsOfAUserDoNotOverlap() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            results.add(CompletableFuture.supplyAsync(() -> userCommandLanes.execute(7L, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.yield();
+                return running.decrementAndGet();
+            }), callers));
+        }
+
+        results.forEach(CompletableFuture::join);
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    public void testUsersOfDifferentLanesRunInParallel() throws Exception {
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        // Each command only finishes once the other one runs too, which needs two lanes
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (long userId = 1; userId <= 2; userId++) {
+            long id = userId;
+            results.add(CompletableFuture.supplyAsync(() -> userCommandLanes.execute(id, () -> {
+                bothStarted.countDown();
+                try {
+                    return bothStarted.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }), callers));
+        }
+
+        for (CompletableFuture<Boolean> result : results) {
+            assertTrue(result.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testExceptionsArePropagatedUnwrapped() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> userCommandLanes.execute(1L, () -> {
+                    throw new IllegalArgumentException("User not found");
+                }));
+        assertEquals("User not found", e.getMessage());
+    }
+
+    @Test
+    public void testNestedCommandsRunInTheCurrentLane() {
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        userCommandLanes.execute(1L, () -> {
+            threads.add(Thread.currentThread().getName());
+            // Waiting for another lane from a lane could deadlock
+            return userCommandLanes.execute(2L, () -> threads.add(Thread.currentThread().getName()));
+        });
+
+        assertEquals(2, threads.size());
+        assertEquals(threads.get(0), threads.get(1));
+    }
+
+    @Test
+    public void testSaturatedLaneFailsFast() throws Exception {
+        userCommandLanes.stop();
+        ReflectionTestUtils.setField(userCommandLanes, "queueCapacity", 1);
+        ReflectionTestUtils.setField(userCommandLanes, "queueTimeoutMs", 100L);
+        userCommandLanes.start();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Boolean> blocking = CompletableFuture.supplyAsync(() -> userCommandLanes.execute(1L, () -> {
+            running.countDown();
+            try {
+                return release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }), callers);
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        AtomicBoolean queuedRan = new AtomicBoolean();
+
+        // The queued command is dropped once it waited too long, the next one does not fit at all
+        CompletableFuture<Boolean> queued = CompletableFuture.supplyAsync(
+                () -> userCommandLanes.execute(1L, () -> queuedRan.getAndSet(true)), callers);
+        Thread.sleep(20);
+        assertThrows(RejectedExecutionException.class, () -> userCommandLanes.execute(1L, () -> true));
+        CompletableFuture<Boolean> timedOut = queued.handle((result, e) -> e != null
+                && e.getCause() instanceof RejectedExecutionException);
+        assertTrue(timedOut.get(5, TimeUnit.SECONDS));
+
+        release.countDown();
+        assertTrue(blocking.get(5, TimeUnit.SECONDS));
+        assertTrue(userCommandLanes.execute(1L, () -> true));
+        assertFalse(queuedRan.get());
+    }
+
+    @Test
+    public void testStartedCommandIsAwaitedPastTheTimeout() {
+        ReflectionTestUtils.setField(userCommandLanes, "queueTimeoutMs", 10L);
+
+        int result = userCommandLanes.execute(1L, () -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return 42;
+        });
+
+        assertEquals(42, result);
+    }
+}
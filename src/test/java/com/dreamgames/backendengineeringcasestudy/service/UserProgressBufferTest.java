@@ -0,0 +1,144 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import com.dreamgames.backendengineeringcasestudy.model.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+public class UserProgressBufferTest {
+
+    @InjectMocks
+    private UserProgressBuffer userProgressBuffer;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    public void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(userProgressBuffer, "maxPending", 100);
+    }
+
+    @Test
+    public void testApplyPendingIncludesBufferedLevelUps() {
+        User user = new User();
+        user.setId(1L);
+        user.setLevel(20);
+        user.setCoins(1000);
+
+        userProgressBuffer.recordLevelUp(1L, 25, 7L);
+        userProgressBuffer.recordLevelUp(1L, 25, 7L);
+
+        User view = userProgressBuffer.applyPending(user);
+
+        assertEquals(22, view.getLevel());
+        assertEquals(1050, view.getCoins());
+        assertEquals(20, user.getLevel()); // The persisted entity is left untouched
+        assertEquals(2, userProgressBuffer.pendingScore(7L));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFlushPersistsDeltas() {
+        userProgressBuffer.recordLevelUp(1L, 25, 7L);
+        userProgressBuffer.recordLevelUp(1L, 25, 7L);
+        userProgressBuffer.recordLevelUp(2L, 25, null);
+
+        userProgressBuffer.flush();
+
+        ArgumentCaptor<List<Object[]>> userRows = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<List<Object[]>> scoreRows = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(1)).batchUpdate(startsWith("UPDATE users"), userRows.capture());
+        verify(jdbcTemplate, times(1)).batchUpdate(startsWith("UPDATE tournament_users"), scoreRows.capture());
+        assertEquals(2, userRows.getValue().size());
+        assertArrayEquals(new Object[] { 2, 7L }, scoreRows.getValue().get(0));
+        ArgumentCaptor<List<Object[]>> groupRows = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(1)).batchUpdate(startsWith("UPDATE tournament_groups"), groupRows.capture());
+        assertArrayEquals(new Object[] { 7L }, groupRows.getValue().get(0));
+        assertEquals(0, userProgressBuffer.pendingScore(7L));
+
+        userProgressBuffer.flush();
+
+        verifyNoMoreInteractions(jdbcTemplate);
+    }
+
+    @Test
+    public void testReadsWaitForTheCommitOfAFlush() throws Exception {
+        AtomicInteger readDuringCommit = new AtomicInteger(-1);
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> {
+            TransactionSynchronizationManager.initSynchronization();
+            return mock(TransactionStatus.class);
+        });
+        doAnswer(invocation -> {
+            List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+            try {
+                synchronizations.forEach(synchronization -> synchronization.beforeCommit(false));
+                CompletableFuture<Integer> read = CompletableFuture.supplyAsync(
+                        () -> userProgressBuffer.pendingScore(7L));
+                assertThrows(TimeoutException.class, () -> read.get(100, TimeUnit.MILLISECONDS));
+                synchronizations.forEach(synchronization -> synchronization.afterCompletion(
+                        TransactionSynchronization.STATUS_COMMITTED));
+                readDuringCommit.set(read.get(5, TimeUnit.SECONDS));
+            } finally {
+                TransactionSynchronizationManager.clearSynchronization();
+            }
+            return null;
+        }).when(transactionManager).commit(any());
+
+        userProgressBuffer.recordLevelUp(1L, 25, 7L);
+        userProgressBuffer.flush();
+
+        // The committed score already includes the point, so it is no longer in flight
+        assertEquals(0, readDuringCommit.get());
+    }
+
+    @Test
+    public void testReachingMaxPendingFlushes() {
+        ReflectionTestUtils.setField(userProgressBuffer, "maxPending", 2);
+
+        userProgressBuffer.recordLevelUp(1L, 25, null);
+        verifyNoInteractions(jdbcTemplate);
+
+        userProgressBuffer.recordLevelUp(2L, 25, null);
+        verify(jdbcTemplate, times(1)).batchUpdate(startsWith("UPDATE users"), anyList());
+    }
+
+    @Test
+    public void testFailedFlushKeepsDeltas() {
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenThrow(new QueryTimeoutException("timeout"));
+        User user = new User();
+        user.setId(1L);
+
+        userProgressBuffer.recordLevelUp(1L, 25, 7L);
+        userProgressBuffer.flush();
+
+        assertEquals(1, userProgressBuffer.applyPending(user).getLevel());
+        assertEquals(1, userProgressBuffer.pendingScore(7L));
+    }
+}
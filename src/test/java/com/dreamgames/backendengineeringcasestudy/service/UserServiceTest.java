@@ -5,6 +5,8 @@ import com.dreamgames.backendengineeringcasestudy.model.Tournament;
 import com.dreamgames.backendengineeringcasestudy.model.TournamentGroup;
 import com.dreamgames.backendengineeringcasestudy.model.TournamentUser;
 import com.dreamgames.backendengineeringcasestudy.model.User;
+import com.dreamgames.backendengineeringcasestudy.replica.ReplicaReads;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentGroupRepository;
 import com.dreamgames.backendengineeringcasestudy.repository.UserRepository;
 import com.dreamgames.backendengineeringcasestudy.repository.TournamentUserRepository;
 import org.junit.jupiter.api.BeforeEach;
@@ -12,10 +14,15 @@ import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import java.util.Random;
+import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -32,9 +39,37 @@ public class UserServiceTest {
     @Mock
     private TournamentUserRepository tournamentUserRepository;
 
+    @Mock
+    private TournamentGroupRepository tournamentGroupRepository;
+
+    @Mock
+    private CountryScoreCounters countryScoreCounters;
+
+    @Mock
+    private TournamentRankIndex tournamentRankIndex;
+
+    @Spy
+    private UserProgressBuffer userProgressBuffer = new UserProgressBuffer();
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Spy
+    private ActiveTournamentHolder activeTournamentHolder = new ActiveTournamentHolder();
+
+    @Mock
+    private ReplicaReads replicaReads;
+
+    @Mock
+    private GroupLeaderboardCache groupLeaderboardCache;
+
+    @Mock
+    private LeaderboardStreams leaderboardStreams;
+
     @BeforeEach
     public void setUp() {
         MockitoAnnotations.openMocks(this);
+        when(replicaReads.read(any())).thenAnswer(invocation -> ((Supplier<?>) invocation.getArgument(0)).get());
     }
 
     @Test
@@ -58,36 +93,178 @@ public class UserServiceTest {
         verify(userRepository, times(1)).save(any(User.class));
     }
 
+    @Test
+    public void testCreateUsers() {
+        when(transactionTemplate.execute(any())).thenAnswer(
+                invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        when(userRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<User> users = invocation.getArgument(0);
+            long id = 500;
+            for (User user : users) {
+                user.setId(id++);
+            }
+            return users;
+        });
+
+        List<User> createdUsers = userService.createUsers(3);
+
+        assertEquals(3, createdUsers.size());
+        assertEquals("username500", createdUsers.get(0).getUsername());
+        assertEquals("username502", createdUsers.get(2).getUsername());
+        assertEquals(5000, createdUsers.get(1).getCoins());
+        verify(userRepository, times(1)).saveAll(anyList());
+        verify(userRepository, never()).save(any(User.class));
+    }
+
+    @Test
+    public void testCreateUsersWithInvalidCount() {
+        assertThrows(IllegalArgumentException.class, () -> userService.createUsers(1001));
+        verifyNoInteractions(userRepository);
+    }
+
     @Test
     public void testUpdateUserLevel() {
         User user = new User();
         user.setId(1L);
         user.setLevel(100);
         user.setCoins(100000);
+        user.setCountry(Country.GERMANY);
 
         TournamentUser tournamentUser = new TournamentUser();
         tournamentUser.setUser(user);
         TournamentGroup tournamentGroup = new TournamentGroup();
+        tournamentGroup.setId(2L);
         tournamentGroup.setCompetitionStarted(true);
 
         Tournament tournament = new Tournament();
+        tournament.setId(1L);
         tournament.setActive(true);
         tournamentGroup.setTournament(tournament);
 
         tournamentUser.setTournamentGroup(tournamentGroup);
+        tournamentUser.setId(5L);
+        tournamentUser.setScore(3);
 
+        activeTournamentHolder.activate(tournament);
         when(userRepository.findById(1L)).thenReturn(Optional.of(user));
-        when(tournamentUserRepository.findByUser(user)).thenReturn(Arrays.asList(tournamentUser));
-        when(userRepository.save(user)).thenReturn(user);
+        when(userRepository.levelUp(1L, 25)).thenReturn(1);
+        when(tournamentUserRepository.findLatestByUser(user)).thenReturn(Optional.of(tournamentUser));
+        when(transactionTemplate.execute(any())).thenAnswer(
+                invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
 
         User updatedUser = userService.updateUserLevel(1L);
 
-        assertNotNull(updatedUser);
+        // Answered from the first read, the user is not read again
         assertEquals(101, updatedUser.getLevel());
         assertEquals(100025, updatedUser.getCoins());
         verify(userRepository, times(1)).findById(1L);
-        verify(tournamentUserRepository, times(1)).findByUser(user);
-        verify(userRepository, times(1)).save(user);
-        verify(tournamentUserRepository, times(1)).save(tournamentUser);
+        verify(tournamentUserRepository, times(1)).findLatestByUser(user);
+        verify(userRepository, times(1)).levelUp(1L, 25);
+        verify(userRepository, never()).save(any(User.class));
+        verify(tournamentUserRepository, times(1)).incrementScore(5L);
+        verify(tournamentUserRepository, never()).save(any(TournamentUser.class));
+        verify(tournamentGroupRepository, times(1)).bumpVersion(2L);
+        verify(groupLeaderboardCache, times(1)).evict(2L);
+        verify(leaderboardStreams, times(1)).scoreChanged(1L, 2L);
+        verify(countryScoreCounters, times(1)).increment(1L, Country.GERMANY);
+        verify(tournamentRankIndex, times(1)).incrementScore(1L, user.getId(), 4);
+    }
+
+    @Test
+    public void testUpdateUserLevelKeepsLatestParticipation() {
+        User user = new User();
+        user.setId(1L);
+        user.setLatestTournamentUserId(8L);
+        TournamentGroup tournamentGroup = new TournamentGroup();
+        tournamentGroup.setTournament(new Tournament());
+        TournamentUser tournamentUser = new TournamentUser(user, tournamentGroup);
+        tournamentUser.setId(8L);
+
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+        when(tournamentUserRepository.findLatestByUser(user)).thenReturn(Optional.of(tournamentUser));
+
+        userService.updateUserLevel(1L);
+
+        verify(userRepository, never()).backfillLatestTournamentUserId(anyLong(), anyLong());
+    }
+
+    @Test
+    public void testUpdateUserLevelWithWriteBehind() {
+        ReflectionTestUtils.setField(userProgressBuffer, "enabled", true);
+        ReflectionTestUtils.setField(userProgressBuffer, "maxPending", 100);
+
+        User user = new User();
+        user.setId(1L);
+        user.setLevel(100);
+        user.setCoins(100000);
+        user.setCountry(Country.GERMANY);
+
+        Tournament tournament = new Tournament();
+        tournament.setId(1L);
+        tournament.setActive(true);
+        TournamentGroup tournamentGroup = new TournamentGroup();
+        tournamentGroup.setId(2L);
+        tournamentGroup.setCompetitionStarted(true);
+        tournamentGroup.setTournament(tournament);
+        TournamentUser tournamentUser = new TournamentUser(user, tournamentGroup);
+        tournamentUser.setId(5L);
+        tournamentUser.setScore(3);
+
+        activeTournamentHolder.activate(tournament);
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+        when(tournamentUserRepository.findLatestByUser(user)).thenReturn(Optional.of(tournamentUser));
+
+        userService.updateUserLevel(1L);
+        User updatedUser = userService.updateUserLevel(1L);
+
+        assertEquals(102, updatedUser.getLevel());
+        assertEquals(100050, updatedUser.getCoins());
+        assertEquals(102, userService.getUserById(1L).getLevel());
+        verify(userRepository, never()).save(any(User.class));
+        verify(tournamentUserRepository, never()).save(any(TournamentUser.class));
+        verify(tournamentGroupRepository, never()).bumpVersion(2L);
+        verify(groupLeaderboardCache, times(2)).evict(2L);
+        verify(leaderboardStreams, times(2)).scoreChanged(1L, 2L);
+        verify(tournamentRankIndex, times(1)).incrementScore(1L, 1L, 5);
+    }
+
+    @Test
+    public void testUpdateUserLevelAfterTournamentEnded() {
+        User user = new User();
+        user.setId(1L);
+        user.setLevel(100);
+        user.setCountry(Country.GERMANY);
+
+        Tournament tournament = new Tournament();
+        tournament.setId(1L);
+        tournament.setActive(true); // Stale, another node ended it
+        TournamentGroup tournamentGroup = new TournamentGroup();
+        tournamentGroup.setCompetitionStarted(true);
+        tournamentGroup.setTournament(tournament);
+        TournamentUser tournamentUser = new TournamentUser(user, tournamentGroup);
+
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+        when(tournamentUserRepository.findLatestByUser(user)).thenReturn(Optional.of(tournamentUser));
+        when(transactionTemplate.execute(any())).thenAnswer(
+                invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+
+        userService.updateUserLevel(1L);
+
+        verify(userRepository, times(1)).levelUp(1L, 25);
+        verify(tournamentUserRepository, never()).incrementScore(any());
+        verify(countryScoreCounters, never()).increment(anyLong(), any(Country.class));
+    }
+
+    @Test
+    public void testUpdateUserLevelOfUserDeletedMeanwhile() {
+        User user = new User();
+        user.setId(1L);
+
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+        when(userRepository.levelUp(1L, 25)).thenReturn(0);
+        when(transactionTemplate.execute(any())).thenAnswer(
+                invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+
+        assertNull(userService.updateUserLevel(1L));
     }
 }